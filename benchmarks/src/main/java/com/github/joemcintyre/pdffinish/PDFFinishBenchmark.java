@@ -0,0 +1,149 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.grack.nanojson.JsonParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of text finding, outline generation, saving and font listing,
+ * on generated documents of varying page count and body font mix. Run with
+ *
+ *   java -jar benchmarks/target/benchmarks.jar -prof gc
+ *
+ * for the operation rate and allocation rate of each.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class PDFFinishBenchmark {
+    @Param ({ "20", "200" })
+    public int pages;
+
+    @Param ({ "1", "6" })
+    public int bodyFonts;
+
+    private File file;
+    private PDDocument document;
+    private List<PDFTextFinder.Font> headingFonts;
+    private PDFFinish finish;
+
+    /**
+     * Generate and load the document, and configure the update.
+     *
+     * @throws Exception On error creating the document.
+     */
+    @Setup (Level.Trial)
+    public void setUp () throws Exception {
+        file = File.createTempFile ("benchmark", ".pdf");
+        SyntheticPDF.create (file, pages, bodyFonts);
+        document = PDDocument.load (file);
+        headingFonts = SyntheticPDF.getHeadingFonts ();
+
+        finish = new PDFFinish ();
+        finish.setOutput (new PrintStream (new OutputStream () {
+            public void write (int b) {
+            }
+        }));
+        finish.processConfig (JsonParser.object ().from (SyntheticPDF.CONFIG));
+    }
+
+    /**
+     * Close and remove the document.
+     *
+     * @throws Exception On error closing the document.
+     */
+    @TearDown (Level.Trial)
+    public void tearDown () throws Exception {
+        document.close ();
+        file.delete ();
+    }
+
+    /**
+     * Find heading text, sorted by position.
+     *
+     * @return Text elements found.
+     * @throws Exception On error finding text.
+     */
+    @Benchmark
+    public List<PDFTextFinder.PDFText> findHeadings () throws Exception {
+        return (new PDFTextFinder (headingFonts).getTextList (document));
+    }
+
+    /**
+     * Find heading text, in content stream order.
+     *
+     * @return Text elements found.
+     * @throws Exception On error finding text.
+     */
+    @Benchmark
+    public List<PDFTextFinder.PDFText> findHeadingsUnsorted () throws Exception {
+        PDFTextFinder finder = new PDFTextFinder (headingFonts);
+        finder.setSortByPosition (false);
+        return (finder.getTextList (document));
+    }
+
+    /**
+     * Find all text, without a font list.
+     *
+     * @return Text elements found.
+     * @throws Exception On error finding text.
+     */
+    @Benchmark
+    public List<PDFTextFinder.PDFText> findAllText () throws Exception {
+        return (new PDFTextFinder (null).getTextList (document));
+    }
+
+    /**
+     * Build the outline from the heading text.
+     *
+     * @return Updated document.
+     */
+    @Benchmark
+    public PDDocument updateTOC () {
+        finish.updateTOC (document, file);
+        return (document);
+    }
+
+    /**
+     * Update the metadata and save the document.
+     *
+     * @return Size of saved document.
+     * @throws Exception On error saving.
+     */
+    @Benchmark
+    public int updateMetadataAndSave () throws Exception {
+        finish.updateMetadata (document);
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        document.save (out);
+        return (out.size ());
+    }
+
+    /**
+     * Find the font usage of the document.
+     *
+     * @return Document.
+     */
+    @Benchmark
+    public PDDocument showFonts () {
+        finish.showFonts (document, file, null);
+        return (document);
+    }
+}
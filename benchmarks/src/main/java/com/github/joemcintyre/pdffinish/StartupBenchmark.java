@@ -0,0 +1,167 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark of command line startup, running pdf-finish as a new process
+ * for each run, as a script calling it for many files does. For show,
+ * metadata only show, update and version runs of a generated document, it
+ * measures the time to the first output and to exit, with
+ *
+ * - the jar with dependencies
+ * - the slim jar of the startup build profile
+ * - the slim jar with its class data sharing archive
+ * - the slim jar and archive, with only the client compiler
+ *
+ * Jars not built are skipped. Run from the project directory with
+ *
+ *   java -cp benchmarks/target/benchmarks.jar com.github.joemcintyre.pdffinish.StartupBenchmark [runs]
+ */
+public class StartupBenchmark {
+    private static final int WARMUP_RUNS = 2;
+    private static final String JAR_NAME = "target/pdf-finish-0.1.0";
+
+    /**
+     * Constructor, not used.
+     */
+    private StartupBenchmark () {
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args Number of runs of each command, default 20.
+     * @throws Exception On error creating the document or running a process.
+     */
+    public static void main (String args[]) throws Exception {
+        int runs = (args.length > 0) ? Integer.parseInt (args[0]) : 20;
+        String java = new File (new File (System.getProperty ("java.home"), "bin"), "java").getPath ();
+        File fat = new File (JAR_NAME + "-jar-with-dependencies.jar");
+        File slim = new File (JAR_NAME + "-slim.jar");
+        File archive = new File (JAR_NAME + "-slim.jsa");
+
+        List<String> names = new ArrayList<String> ();
+        List<List<String>> launchers = new ArrayList<List<String>> ();
+        if (fat.isFile ()) {
+            names.add ("jar");
+            launchers.add (Arrays.asList (java, "-jar", fat.getPath ()));
+        }
+        if (slim.isFile ()) {
+            names.add ("slim");
+            launchers.add (Arrays.asList (java, "-jar", slim.getPath ()));
+        }
+        if (slim.isFile () && archive.isFile ()) {
+            names.add ("slim+cds");
+            launchers.add (Arrays.asList (java, "-XX:SharedArchiveFile=" + archive.getPath (),
+                "-jar", slim.getPath ()));
+            names.add ("slim+cds+c1");
+            launchers.add (Arrays.asList (java, "-XX:SharedArchiveFile=" + archive.getPath (),
+                "-XX:TieredStopAtLevel=1", "-jar", slim.getPath ()));
+        }
+        if (names.isEmpty ()) {
+            System.out.println ("No jar found, build with: mvn -P startup package");
+            return;
+        }
+
+        File dir = File.createTempFile ("startup", "");
+        dir.delete ();
+        dir.mkdirs ();
+        File document = new File (dir, "startup.pdf");
+        SyntheticPDF.create (document, 20, 1);
+        String path = document.getPath ();
+        String output = new File (dir, "out.pdf").getPath ();
+        String commands[][] = {
+            { "-v" },
+            { "--no-daemon", "--no-cache", "-s", "-m", "-i", path },
+            { "--no-daemon", "--no-cache", "-s", "-i", path },
+            { "--no-daemon", "--no-cache", "-i", path, "-o", output, "-c", SyntheticPDF.CONFIG }
+        };
+        String commandNames[] = { "version", "metadata", "show", "update" };
+
+        System.out.println ("Startup, " + runs + " runs (ms: first output median / p90, exit median / p90)\n");
+        for (int command = 0; command < commands.length; command ++) {
+            for (int launcher = 0; launcher < names.size (); launcher ++) {
+                List<String> line = new ArrayList<String> (launchers.get (launcher));
+                line.addAll (Arrays.asList (commands[command]));
+                for (int run = 0; run < WARMUP_RUNS; run ++) {
+                    run (line);
+                }
+                long first[] = new long[runs];
+                long exit[] = new long[runs];
+                for (int run = 0; run < runs; run ++) {
+                    long times[] = run (line);
+                    first[run] = times[0];
+                    exit[run] = times[1];
+                }
+                System.out.println (String.format ("%-9s %-12s %6.1f / %6.1f   %6.1f / %6.1f",
+                    commandNames[command], names.get (launcher),
+                    percentile (first, 50), percentile (first, 90),
+                    percentile (exit, 50), percentile (exit, 90)));
+            }
+        }
+
+        for (File file : dir.listFiles ()) {
+            file.delete ();
+        }
+        dir.delete ();
+    }
+
+    /**
+     * Run a command, reading its output until it exits.
+     *
+     * @param command Command line.
+     * @return Nanoseconds to the first byte of output, and to exit.
+     * @throws IOException On error running the command, or if it fails.
+     */
+    private static long[] run (List<String> command) throws IOException {
+        long start = System.nanoTime ();
+        Process process = new ProcessBuilder (command).redirectErrorStream (true).start ();
+        InputStream in = process.getInputStream ();
+        long first = 0;
+        byte buffer[] = new byte[8192];
+        if (in.read () != -1) {
+            first = System.nanoTime () - start;
+            while (in.read (buffer) != -1) {
+            }
+        }
+        int result;
+        try {
+            result = process.waitFor ();
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+            throw new IOException ("Interrupted running " + command);
+        }
+        long exit = System.nanoTime () - start;
+        in.close ();
+        if (result != 0) {
+            throw new IOException ("Exit code " + result + " from " + command);
+        }
+        return (new long[] { (first == 0) ? exit : first, exit });
+    }
+
+    /**
+     * Get a percentile of a set of times.
+     *
+     * @param times Times in nanoseconds, sorted in place.
+     * @param percent Percentile, 1 to 100.
+     * @return Time in milliseconds.
+     */
+    private static double percentile (long times[], int percent) {
+        Arrays.sort (times);
+        int index = Math.max (0, (times.length * percent + 99) / 100 - 1);
+        return (times[index] / 1e6);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.*;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Generate PDF documents for benchmarks, with a chapter heading every
+ * eight pages, a section heading every other page, and 40 lines of body
+ * text on every page. The font mix sets how many fonts the body text uses,
+ * cycling through them line by line.
+ */
+public class SyntheticPDF {
+    private static final PDFont BODY_FONTS[] = {
+        PDType1Font.TIMES_ROMAN, PDType1Font.TIMES_ITALIC, PDType1Font.TIMES_BOLD,
+        PDType1Font.COURIER, PDType1Font.HELVETICA, PDType1Font.HELVETICA_OBLIQUE
+    };
+
+    /**
+     * Constructor, not used.
+     */
+    private SyntheticPDF () {
+    }
+
+    /**
+     * Create document.
+     *
+     * @param file File to write the document to.
+     * @param pages Number of pages.
+     * @param bodyFonts Number of fonts used for body text, 1 to 6.
+     * @throws Exception On error creating the document.
+     */
+    public static void create (File file, int pages, int bodyFonts) throws Exception {
+        bodyFonts = Math.max (1, Math.min (BODY_FONTS.length, bodyFonts));
+        PDDocument document = new PDDocument ();
+        for (int index = 0; index < pages; index ++) {
+            PDPage page = new PDPage ();
+            document.addPage (page);
+
+            PDPageContentStream content = new PDPageContentStream (document, page);
+            content.beginText ();
+            content.moveTextPositionByAmount (72, 740);
+            if ((index % 8) == 0) {
+                content.setFont (PDType1Font.HELVETICA_BOLD, 24);
+                content.drawString ("Chapter " + (index / 8 + 1));
+                content.moveTextPositionByAmount (0, -30);
+            }
+            if ((index % 2) == 0) {
+                content.setFont (PDType1Font.HELVETICA_BOLD, 16);
+                content.drawString ("Section " + (index / 2 + 1));
+                content.moveTextPositionByAmount (0, -20);
+            }
+            for (int line = 0; line < 40; line ++) {
+                content.setFont (BODY_FONTS[line % bodyFonts], 10);
+                content.drawString ("Body text line " + line + " of page " + (index + 1) +
+                    ", with enough words to fill most of the width of the page.");
+                content.moveTextPositionByAmount (0, -14);
+            }
+            content.endText ();
+            content.close ();
+        }
+        document.save (file);
+        document.close ();
+    }
+
+    /**
+     * Get the heading fonts of generated documents.
+     *
+     * @return Font list.
+     */
+    public static List<PDFTextFinder.Font> getHeadingFonts () {
+        List<PDFTextFinder.Font> fonts = new ArrayList<PDFTextFinder.Font> ();
+        fonts.add (new PDFTextFinder.Font ("Helvetica-Bold", 24.0f, 1));
+        fonts.add (new PDFTextFinder.Font ("Helvetica-Bold", 16.0f, 2));
+        return (fonts);
+    }
+
+    /**
+     * Configuration using the heading fonts of generated documents.
+     */
+    public static final String CONFIG =
+        "{ \"title\":\"Benchmark\", \"author\":\"Benchmark\", \"toc\":[" +
+        "{ \"font\":\"Helvetica-Bold\", \"size\":24.0, \"level\":1 }," +
+        "{ \"font\":\"Helvetica-Bold\", \"size\":16.0, \"level\":2 } ] }";
+}
@@ -0,0 +1,293 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+
+import com.grack.nanojson.*;
+
+/**
+ * Record of the outputs written to a directory, so documents whose input,
+ * configuration and tool version are unchanged since their output was
+ * written can be skipped. Each output has a record of the SHA-256 hash of
+ * its input, the hash of its configuration and output settings, the tool
+ * version, and the hash of the output, so an output that was changed or
+ * removed is written again.
+ *
+ * The manifest is a journal of JSON records, one per line, appended as each
+ * output is completed, so a run that stops part way can be resumed with
+ * only the remaining documents processed. Later records replace earlier
+ * ones for the same output, and the file is rewritten without the replaced
+ * records once they make up most of it.
+ *
+ * Files are only hashed when their length or modification time differs from
+ * the record, so checking an unchanged document reads no file content. An
+ * input modified within the file system timestamp granularity of its record
+ * being written could have been changed again without a new modification
+ * time, so it is hashed as well. Records are kept by output file name, with
+ * the path of the input, so an output written from another input is written
+ * again.
+ */
+public class BuildManifest {
+    public static final String FILE_NAME = ".pdffinish-manifest";
+    private static final int MIN_COMPACT_LINES = 64;
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
+    private File file;
+    private HashMap<String, JsonObject> records = new HashMap<String, JsonObject> ();
+    private int lines = 0;
+    private boolean damaged = false;
+
+    /**
+     * State of an output, compared with its record, and recorded once the
+     * output is written.
+     */
+    public class Entry {
+        private String name;
+        private File input;
+        private String inputPath;
+        private File output;
+        private String inputHash;
+        private String configHash;
+        private JsonObject record;
+
+        /**
+         * Constructor, hashing the input if it differs from the record.
+         *
+         * @param input PDF input file.
+         * @param configHash Hash of configuration and output settings.
+         * @param output PDF output file.
+         * @throws IOException On error reading the input.
+         */
+        private Entry (File input, String configHash, File output) throws IOException {
+            this.name = output.getName ();
+            this.input = input;
+            this.inputPath = input.getAbsolutePath ();
+            this.output = output;
+            this.configHash = configHash;
+            this.record = getRecord (name);
+            if ((record != null) && inputPath.equals (record.getString ("inputPath")) &&
+                    isSame (record, "input", input) && (isRacy (record, input) == false)) {
+                inputHash = record.getString ("inputHash");
+            } else {
+                inputHash = FileDigest.sha256 (input);
+            }
+        }
+
+        /**
+         * Check if the output is up to date, with a record of the same input
+         * path and content, configuration and tool version, and the output unchanged since it
+         * was written.
+         *
+         * @return True if the output is up to date, false if it is to be
+         * written, including when it cannot be read.
+         */
+        public boolean isUpToDate () {
+            if ((record == null) || (output.isFile () == false) ||
+                    (inputPath.equals (record.getString ("inputPath")) == false) ||
+                    (inputHash.equals (record.getString ("inputHash")) == false) ||
+                    (configHash.equals (record.getString ("configHash")) == false) ||
+                    (Main.VERSION.equals (record.getString ("version")) == false)) {
+                return (false);
+            }
+            try {
+                return (isSame (record, "output", output) ||
+                    FileDigest.sha256 (output).equals (record.getString ("outputHash")));
+            } catch (IOException e) {
+                return (false);
+            }
+        }
+
+        /**
+         * Record the output as written, appending the record to the manifest.
+         *
+         * @throws IOException On error reading the output or writing the manifest.
+         */
+        public void commit () throws IOException {
+            JsonObject update = new JsonObject ();
+            update.put ("output", name);
+            update.put ("inputPath", inputPath);
+            update.put ("inputHash", inputHash);
+            update.put ("inputLength", input.length ());
+            update.put ("inputModified", input.lastModified ());
+            update.put ("configHash", configHash);
+            update.put ("version", Main.VERSION);
+            update.put ("outputHash", FileDigest.sha256 (output));
+            update.put ("outputLength", output.length ());
+            update.put ("outputModified", output.lastModified ());
+            update.put ("recorded", System.currentTimeMillis ());
+            append (update);
+        }
+    }
+
+    /**
+     * Constructor, reading the manifest of a directory if there is one.
+     *
+     * @param directory Output directory.
+     * @throws IOException On error reading the manifest.
+     */
+    public BuildManifest (File directory) throws IOException {
+        this.file = new File (directory, FILE_NAME);
+        if (file.isFile ()) {
+            read ();
+        }
+    }
+
+    /**
+     * Get the hash of a configuration, with the settings that affect the
+     * output.
+     *
+     * @param config Configuration file content.
+     * @param settings Output settings, see PDFFinish.getOutputSettings.
+     * @return Hash, as lower case hex string.
+     * @throws IOException If the hash cannot be calculated.
+     */
+    public static String getConfigHash (byte config[], String settings) throws IOException {
+        byte suffix[] = ("\n" + settings).getBytes ("UTF-8");
+        byte data[] = new byte[config.length + suffix.length];
+        System.arraycopy (config, 0, data, 0, config.length);
+        System.arraycopy (suffix, 0, data, config.length, suffix.length);
+        return (FileDigest.sha256 (data));
+    }
+
+    /**
+     * Get the entry of an output, to check whether it is up to date.
+     *
+     * @param input PDF input file.
+     * @param configHash Hash of configuration and output settings.
+     * @param output PDF output file, in the manifest directory.
+     * @return Entry.
+     * @throws IOException On error reading the input.
+     */
+    public Entry get (File input, String configHash, File output) throws IOException {
+        return (new Entry (input, configHash, output));
+    }
+
+    /**
+     * Get the record of an output.
+     *
+     * @param name Output file name.
+     * @return Record, or null if none.
+     */
+    private synchronized JsonObject getRecord (String name) {
+        return (records.get (name));
+    }
+
+    /**
+     * Check if a file has the length and modification time in a record.
+     *
+     * @param record Record.
+     * @param prefix Field name prefix, "input" or "output".
+     * @param file File.
+     * @return True if the length and modification time are the same.
+     */
+    private static boolean isSame (JsonObject record, String prefix, File file) {
+        return ((record.getNumber (prefix + "Length", -1).longValue () == file.length ()) &&
+            (record.getNumber (prefix + "Modified", -1).longValue () == file.lastModified ()));
+    }
+
+    /**
+     * Check if a file was modified so close to its record being written that
+     * a later change could have kept the same modification time, as the time
+     * is only as precise as the file system timestamp granularity.
+     *
+     * @param record Record.
+     * @param file File.
+     * @return True if the modification time is within the granularity of the
+     * time the record was written, or the record has no time.
+     */
+    private static boolean isRacy (JsonObject record, File file) {
+        return (file.lastModified () > record.getNumber ("recorded", 0).longValue () - TIMESTAMP_GRANULARITY);
+    }
+
+    /**
+     * Read the manifest. An incomplete line, left by a run that stopped while
+     * appending, is ignored, and removed when the manifest is next written.
+     *
+     * @throws IOException On error reading the manifest.
+     */
+    private void read () throws IOException {
+        BufferedReader reader = new BufferedReader (new InputStreamReader (new FileInputStream (file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine ()) != null) {
+                lines ++;
+                try {
+                    JsonObject record = JsonParser.object ().from (line);
+                    if (record.getString ("output") != null) {
+                        records.put (record.getString ("output"), record);
+                    }
+                } catch (JsonParserException e) {
+                    // incomplete record, the output is written again
+                    damaged = true;
+                }
+            }
+        } finally {
+            reader.close ();
+        }
+    }
+
+    /**
+     * Append a record to the manifest, rewriting the manifest if most of its
+     * lines are replaced records, or it has an incomplete line.
+     *
+     * @param record Record.
+     * @throws IOException On error writing the manifest.
+     */
+    private synchronized void append (JsonObject record) throws IOException {
+        records.put (record.getString ("output"), record);
+        if (damaged || ((lines >= MIN_COMPACT_LINES) && (lines >= records.size () * 2))) {
+            compact ();
+            return;
+        }
+        FileOutputStream fos = new FileOutputStream (file, true);
+        try {
+            fos.write ((JsonWriter.string (record) + "\n").getBytes ("UTF-8"));
+        } finally {
+            fos.close ();
+        }
+        lines ++;
+    }
+
+    /**
+     * Rewrite the manifest with the current record of each output, writing
+     * a temporary file and renaming it when complete.
+     *
+     * @throws IOException On error writing the manifest.
+     */
+    private void compact () throws IOException {
+        StringBuilder content = new StringBuilder ();
+        for (JsonObject record : records.values ()) {
+            content.append (JsonWriter.string (record)).append ('\n');
+        }
+        File temp = File.createTempFile ("manifest", ".tmp", file.getParentFile ());
+        try {
+            FileOutputStream fos = new FileOutputStream (temp);
+            try {
+                fos.write (content.toString ().getBytes ("UTF-8"));
+            } finally {
+                fos.close ();
+            }
+            Files.move (temp.toPath (), file.toPath (), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete ();
+        }
+        lines = records.size ();
+        damaged = false;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resource limits of processing a single document: a wall clock deadline,
+ * and maximum numbers of pages and content stream operators, and heap use.
+ * The limits are checked cooperatively by the text finder at each page,
+ * text fragment and block of operators, and between processing steps, so a
+ * pathological document fails quickly rather than stalling a worker or
+ * exhausting the heap.
+ *
+ * Heap use is estimated from the growth in heap in use after garbage
+ * collection since processing started, so garbage is not counted, but other
+ * documents processed at the same time are. Once a limit is exceeded, every
+ * later check fails, as PDFBox ignores errors from operators in form
+ * XObjects and continues processing.
+ */
+public class DocumentLimits {
+    public static final int OPERATOR_BLOCK = 1024;
+
+    private long timeLimit;
+    private int maxPages;
+    private long maxOperators;
+    private long maxHeap;
+    private long deadline = 0;
+    private long heapStart = 0;
+    private AtomicLong operators = new AtomicLong ();
+    private volatile LimitExceededException exceeded = null;
+
+    /**
+     * Constructor.
+     *
+     * @param timeLimit Time limit in milliseconds, 0 for no limit.
+     * @param maxPages Maximum number of pages, 0 for no limit.
+     * @param maxOperators Maximum number of content stream operators, 0 for
+     * no limit.
+     * @param maxHeap Maximum heap use in bytes, 0 for no limit.
+     */
+    public DocumentLimits (long timeLimit, int maxPages, long maxOperators, long maxHeap) {
+        this.timeLimit = timeLimit;
+        this.maxPages = maxPages;
+        this.maxOperators = maxOperators;
+        this.maxHeap = maxHeap;
+    }
+
+    /**
+     * Start processing a document, starting the deadline and the heap use
+     * and operator counts.
+     */
+    public void start () {
+        deadline = System.nanoTime () + timeLimit * 1000000L;
+        heapStart = getUsedHeap ();
+        operators.set (0);
+        exceeded = null;
+    }
+
+    /**
+     * Check the heap needed to load a document held in memory, rather than
+     * with a scratch file, which is about the size of the file.
+     *
+     * @param length Length of the PDF file in bytes.
+     * @throws LimitExceededException If the file is larger than the heap limit.
+     */
+    public void checkLoad (long length) throws LimitExceededException {
+        if ((maxHeap > 0) && (length > maxHeap)) {
+            fail ("PDF file of " + length + " bytes exceeds maxHeap of " + maxHeap +
+                " bytes, set memoryBudget to load it using a scratch file");
+        }
+    }
+
+    /**
+     * Check the deadline and heap use, and whether a limit was exceeded.
+     *
+     * @throws LimitExceededException If a limit is exceeded.
+     */
+    public void check () throws LimitExceededException {
+        checkDeadline ();
+        if ((maxHeap > 0) && (getUsedHeap () - heapStart > maxHeap)) {
+            fail ("Heap use exceeds maxHeap of " + maxHeap + " bytes");
+        }
+    }
+
+    /**
+     * Check the deadline, and whether a limit was exceeded, without the cost
+     * of finding the heap use.
+     *
+     * @throws LimitExceededException If a limit is exceeded.
+     */
+    public void checkDeadline () throws LimitExceededException {
+        if (exceeded != null) {
+            throw exceeded;
+        } else if ((timeLimit > 0) && (System.nanoTime () - deadline > 0)) {
+            fail ("Time limit of " + timeLimit + "ms exceeded");
+        }
+    }
+
+    /**
+     * Check whether a limit was exceeded, without checking the deadline and
+     * heap use again.
+     *
+     * @throws LimitExceededException If a limit was exceeded.
+     */
+    public void checkExceeded () throws LimitExceededException {
+        if (exceeded != null) {
+            throw exceeded;
+        }
+    }
+
+    /**
+     * Check the number of pages of the document.
+     *
+     * @param pages Number of pages.
+     * @throws LimitExceededException If the document has too many pages.
+     */
+    public void checkPages (int pages) throws LimitExceededException {
+        if ((maxPages > 0) && (pages > maxPages)) {
+            fail ("Document has " + pages + " pages, more than maxPages of " + maxPages);
+        }
+    }
+
+    /**
+     * Add to the number of content stream operators processed, and check the
+     * limits. Called for each block of operators, rather than each operator.
+     *
+     * @param count Number of operators processed.
+     * @throws LimitExceededException If a limit is exceeded.
+     */
+    public void addOperators (long count) throws LimitExceededException {
+        if ((maxOperators > 0) && (operators.addAndGet (count) > maxOperators)) {
+            fail ("More than maxOperators of " + maxOperators + " content stream operators");
+        }
+        check ();
+    }
+
+    /**
+     * Record a limit as exceeded and throw it.
+     *
+     * @param message Description of the limit exceeded.
+     * @throws LimitExceededException Always.
+     */
+    private void fail (String message) throws LimitExceededException {
+        LimitExceededException e = new LimitExceededException (message);
+        if (exceeded == null) {
+            exceeded = e;
+        }
+        throw e;
+    }
+
+    /**
+     * @return Heap in use after the last garbage collection of each heap
+     * memory pool, in bytes.
+     */
+    private static long getUsedHeap () {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans ()) {
+            MemoryUsage usage = pool.getCollectionUsage ();
+            if ((pool.getType () == MemoryType.HEAP) && (usage != null)) {
+                used += usage.getUsed ();
+            }
+        }
+        return (used);
+    }
+}
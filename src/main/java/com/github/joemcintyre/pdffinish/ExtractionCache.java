@@ -0,0 +1,404 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Disk cache of the text found in PDF files, so the fonts can be shown and
+ * the table of contents generated with different font lists without finding
+ * the text again. Entries are keyed by the SHA-256 hash of the file content,
+ * the cache format version, the versions of the text finder, pdf-finish and
+ * PDFBox, and the text order, and hold every text element found without a
+ * font list, in the order found.
+ *
+ * The total size of the cache is limited, removing the least recently used
+ * entries once the limit is exceeded. Entries are written to a temporary
+ * file and renamed when complete, so the cache may be shared by multiple
+ * threads and processes.
+ *
+ * The entries hold the text of the documents, and are turned into outlines
+ * when read, so the cache directory is only used if it is private to the
+ * user: owned by the user, and accessible only by the user.
+ */
+public class ExtractionCache {
+    public static final int VERSION = 1;
+    // increased with each change to the text found, so older entries are not used
+    public static final int EXTRACTOR_VERSION = 1;
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024L * 1024L;
+
+    private static final int MAGIC = 0x50444643;
+    private static final int RECORD_END = 0;
+    private static final int RECORD_TEXT = 1;
+    private static final int RECORD_FONT = 2;
+    private static final String SUFFIX = ".cache";
+    private static final String PDFBOX_VERSION = getPDFBoxVersion ();
+
+    private File directory;
+    private long maxSize;
+
+    /**
+     * Writer of a cache entry, receiving the text elements as they are found.
+     * The entry is only added to the cache when committed.
+     */
+    public class Entry implements PDFTextFinder.Listener {
+        private File file;
+        private File temp;
+        private DataOutputStream out;
+        private HashMap<String, Integer> fonts = new HashMap<String, Integer> ();
+
+        /**
+         * Constructor.
+         *
+         * @param file Cache entry file.
+         * @throws IOException On error creating the temporary file.
+         */
+        private Entry (File file) throws IOException {
+            this.file = file;
+            this.temp = File.createTempFile ("entry", ".tmp", directory);
+            this.out = new DataOutputStream (new BufferedOutputStream (
+                new GZIPOutputStream (new FileOutputStream (temp))));
+            out.writeInt (MAGIC);
+            out.writeInt (VERSION);
+        }
+
+        /**
+         * Write text element to the entry.
+         *
+         * @param text Text element.
+         * @throws IOException On error writing the entry.
+         */
+        public void onText (PDFTextFinder.PDFText text) throws IOException {
+            Integer font = fonts.get (text.font);
+            if (font == null) {
+                font = fonts.size ();
+                fonts.put (text.font, font);
+                out.writeByte (RECORD_FONT);
+                out.writeUTF (text.font);
+            }
+            out.writeByte (RECORD_TEXT);
+            out.writeInt (text.pageNumber);
+            out.writeFloat (text.x);
+            out.writeFloat (text.y);
+            out.writeInt (font);
+            out.writeFloat (text.fontSize);
+            out.writeUTF (text.text);
+        }
+
+        /**
+         * Complete the entry, adding it to the cache.
+         *
+         * @throws IOException On error writing the entry.
+         */
+        public void commit () throws IOException {
+            try {
+                out.writeByte (RECORD_END);
+                out.close ();
+                Files.move (temp.toPath (), file.toPath (), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete ();
+            }
+            evict ();
+        }
+
+        /**
+         * Discard the entry.
+         */
+        public void abort () {
+            try {
+                out.close ();
+            } catch (IOException e) {
+                // entry is discarded
+            }
+            temp.delete ();
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param directory Cache directory, created if it does not exist.
+     * @param maxSize Maximum total size of the cache entries, in bytes.
+     */
+    public ExtractionCache (File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the default cache directory, pdffinish in the user cache directory
+     * (XDG_CACHE_HOME) if set, else cache in .pdffinish in the user home
+     * directory.
+     *
+     * @return Cache directory.
+     */
+    public static File getDefaultDirectory () {
+        String cacheHome = System.getenv ("XDG_CACHE_HOME");
+        return (((cacheHome != null) && new File (cacheHome).isDirectory ()) ? new File (cacheHome, "pdffinish") :
+            new File (new File (System.getProperty ("user.home"), ".pdffinish"), "cache"));
+    }
+
+    /**
+     * Check the cache directory is private to the user, creating it
+     * accessible only by the user if missing.
+     *
+     * @throws IOException On error creating the directory, or if it is not
+     * owned by the user, or on file systems with POSIX permissions, is
+     * accessible by other users.
+     */
+    public void checkDirectory () throws IOException {
+        Path path = directory.getAbsoluteFile ().toPath ();
+        boolean posix = FileSystems.getDefault ().supportedFileAttributeViews ().contains ("posix");
+        if (Files.isDirectory (path, LinkOption.NOFOLLOW_LINKS) == false) {
+            if (posix) {
+                Files.createDirectories (path,
+                    PosixFilePermissions.asFileAttribute (PosixFilePermissions.fromString ("rwx------")));
+            } else {
+                Files.createDirectories (path);
+            }
+        }
+        String owner = Files.getOwner (path, LinkOption.NOFOLLOW_LINKS).getName ();
+        if (owner.equals (FileSystems.getDefault ().getUserPrincipalLookupService ()
+                .lookupPrincipalByName (System.getProperty ("user.name")).getName ()) == false) {
+            throw new IOException ("Cache directory " + directory + " is not owned by the user");
+        }
+        if (posix) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions (path, LinkOption.NOFOLLOW_LINKS);
+            permissions.removeAll (EnumSet.of (PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+                PosixFilePermission.OWNER_EXECUTE));
+            if (permissions.isEmpty () == false) {
+                throw new IOException ("Cache directory " + directory + " is accessible by other users");
+            }
+        }
+    }
+
+    /**
+     * Get the cache key for a PDF file.
+     *
+     * @param file PDF file.
+     * @param sortByPosition True if text is sorted by position.
+     * @return Cache key.
+     * @throws IOException On error reading the file.
+     */
+    public String getKey (File file, boolean sortByPosition) throws IOException {
+        return (FileDigest.sha256 (file) + "-v" + VERSION + "-x" + EXTRACTOR_VERSION + "-" + Main.VERSION +
+            "-pdfbox-" + PDFBOX_VERSION + (sortByPosition ? "" : "-unsorted"));
+    }
+
+    /**
+     * Get the PDFBox version, from its version properties, as its Version
+     * class is left out of the slim jar.
+     *
+     * @return PDFBox version, unknown if not found.
+     */
+    private static String getPDFBoxVersion () {
+        Properties properties = new Properties ();
+        InputStream in = PDDocument.class.getResourceAsStream ("/org/apache/pdfbox/resources/pdfbox.properties");
+        if (in != null) {
+            try {
+                properties.load (in);
+                in.close ();
+            } catch (IOException e) {
+                // version unknown
+            }
+        }
+        return (properties.getProperty ("pdfbox.version", "unknown"));
+    }
+
+    /**
+     * Check if an entry is in the cache.
+     *
+     * @param key Cache key.
+     * @return True if the entry is in the cache.
+     */
+    public boolean contains (String key) {
+        return (new File (directory, key + SUFFIX).isFile ());
+    }
+
+    /**
+     * Pass the text elements of a cache entry to a listener, in the order
+     * found. The whole entry is checked before any text element is passed
+     * on, then read again passing on each text element, so an incomplete or
+     * invalid entry passes on nothing, and is removed from the cache so the
+     * text is found again. Nothing is read if the cache directory is not
+     * private to the user.
+     *
+     * @param key Cache key.
+     * @param listener Receiver of text elements.
+     * @return True if the entry was read, false if it was not in the cache,
+     * or could not be read.
+     * @throws IOException On error from listener.
+     */
+    public boolean read (String key, PDFTextFinder.Listener listener) throws IOException {
+        File file = new File (directory, key + SUFFIX);
+        if (file.isFile () == false) {
+            return (false);
+        }
+        try {
+            checkDirectory ();
+        } catch (IOException e) {
+            return (false);
+        }
+
+        // both opened first, so both read the same entry if it is replaced
+        FileInputStream check;
+        FileInputStream entry;
+        try {
+            check = new FileInputStream (file);
+        } catch (IOException e) {
+            return (false);
+        }
+        try {
+            entry = new FileInputStream (file);
+        } catch (IOException e) {
+            check.close ();
+            return (false);
+        }
+
+        try {
+            try {
+                readEntry (check, null);
+            } catch (IOException e) {
+                // incomplete or invalid entry, including EOFException
+                file.delete ();
+                return (false);
+            } catch (IndexOutOfBoundsException e) {
+                file.delete ();
+                return (false);
+            }
+            file.setLastModified (System.currentTimeMillis ());
+            readEntry (entry, listener);
+            return (true);
+        } finally {
+            entry.close ();
+        }
+    }
+
+    /**
+     * Read the text elements of a cache entry.
+     *
+     * @param stream Cache entry file, closed once read.
+     * @param listener Receiver of text elements, null to only check the entry.
+     * @throws IOException On error reading the entry, if the entry is
+     * incomplete or invalid, or on error from listener.
+     */
+    private static void readEntry (InputStream stream, PDFTextFinder.Listener listener) throws IOException {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream (new BufferedInputStream (new GZIPInputStream (stream)));
+            if ((in.readInt () != MAGIC) || (in.readInt () != VERSION)) {
+                throw new IOException ("Invalid cache entry");
+            }
+
+            List<String> fonts = new ArrayList<String> ();
+            int record;
+            while ((record = in.readByte ()) != RECORD_END) {
+                if (record == RECORD_FONT) {
+                    fonts.add (in.readUTF ());
+                } else if (record == RECORD_TEXT) {
+                    int pageNumber = in.readInt ();
+                    float x = in.readFloat ();
+                    float y = in.readFloat ();
+                    String font = fonts.get (in.readInt ());
+                    float fontSize = in.readFloat ();
+                    String text = in.readUTF ();
+                    if (listener != null) {
+                        listener.onText (new PDFTextFinder.PDFText (pageNumber, x, y, text, 0, font, fontSize));
+                    }
+                } else {
+                    throw new IOException ("Invalid cache entry");
+                }
+            }
+        } finally {
+            if (in != null) {
+                in.close ();
+            } else {
+                stream.close ();
+            }
+        }
+    }
+
+    /**
+     * Create a cache entry, to be written with the text elements found.
+     *
+     * @param key Cache key.
+     * @return Cache entry.
+     * @throws IOException On error creating the entry, or if the cache
+     * directory is not private to the user.
+     */
+    public Entry create (String key) throws IOException {
+        checkDirectory ();
+        return (new Entry (new File (directory, key + SUFFIX)));
+    }
+
+    /**
+     * Remove the least recently used entries until the cache is within its
+     * maximum size.
+     */
+    private void evict () {
+        File files[] = directory.listFiles ();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        final HashMap<File, Long> used = new HashMap<File, Long> ();
+        List<File> entries = new ArrayList<File> ();
+        for (File file : files) {
+            if (file.getName ().endsWith (SUFFIX)) {
+                entries.add (file);
+                used.put (file, file.lastModified ());
+                size += file.length ();
+            }
+        }
+
+        if (size > maxSize) {
+            File sorted[] = entries.toArray (new File[entries.size ()]);
+            Arrays.sort (sorted, new Comparator<File> () {
+                public int compare (File a, File b) {
+                    return (used.get (a).compareTo (used.get (b)));
+                }
+            });
+            for (int index = 0; (index < sorted.length) && (size > maxSize); index ++) {
+                long length = sorted[index].length ();
+                if (sorted[index].delete ()) {
+                    size -= length;
+                }
+            }
+        }
+    }
+}
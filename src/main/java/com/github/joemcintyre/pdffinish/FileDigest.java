@@ -0,0 +1,103 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hash of files, identifying a file by its content regardless of
+ * its name or modification time.
+ */
+public class FileDigest {
+    private static final int BUFFER_SIZE = 65536;
+    private static final char HEX[] = "0123456789abcdef".toCharArray ();
+
+    /**
+     * Constructor, not used.
+     */
+    private FileDigest () {
+    }
+
+    /**
+     * Get SHA-256 hash of file content.
+     *
+     * @param file File.
+     * @return Hash, as lower case hex string.
+     * @throws IOException On error reading the file.
+     */
+    public static String sha256 (File file) throws IOException {
+        return (sha256 (new FileInputStream (file)));
+    }
+
+    /**
+     * Get SHA-256 hash of stream content.
+     *
+     * @param in Stream, closed once read.
+     * @return Hash, as lower case hex string.
+     * @throws IOException On error reading the stream.
+     */
+    public static String sha256 (InputStream in) throws IOException {
+        try {
+            MessageDigest digest = newDigest ();
+            byte buffer[] = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read (buffer)) != -1) {
+                digest.update (buffer, 0, length);
+            }
+            return (toHex (digest.digest ()));
+        } finally {
+            in.close ();
+        }
+    }
+
+    /**
+     * Get SHA-256 hash of data.
+     *
+     * @param data Data.
+     * @return Hash, as lower case hex string.
+     * @throws IOException If SHA-256 is not available.
+     */
+    public static String sha256 (byte data[]) throws IOException {
+        return (toHex (newDigest ().digest (data)));
+    }
+
+    /**
+     * Create SHA-256 digest.
+     *
+     * @return Message digest.
+     * @throws IOException If SHA-256 is not available.
+     */
+    private static MessageDigest newDigest () throws IOException {
+        try {
+            return (MessageDigest.getInstance ("SHA-256"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException ("SHA-256 not available");
+        }
+    }
+
+    /**
+     * Convert bytes to hex string.
+     *
+     * @param data Bytes.
+     * @return Lower case hex string.
+     */
+    public static String toHex (byte data[]) {
+        char hex[] = new char[data.length * 2];
+        for (int index = 0; index < data.length; index ++) {
+            hex[index * 2] = HEX[(data[index] >> 4) & 0x0f];
+            hex[index * 2 + 1] = HEX[data[index] & 0x0f];
+        }
+        return (new String (hex));
+    }
+}
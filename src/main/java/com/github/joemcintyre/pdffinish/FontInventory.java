@@ -0,0 +1,219 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Usage count of each font name and size combination in a document: the
+ * number of characters and text fragments, and the first and last page the
+ * font appears on. Counts are held in arrays indexed by an open addressing
+ * hash table, keyed on the font number and size, so recording a fragment
+ * does not allocate.
+ */
+public class FontInventory {
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private HashMap<String, Integer> fontIds = new HashMap<String, Integer> ();
+    private ArrayList<String> fontNames = new ArrayList<String> ();
+    private long keys[];
+    private int characters[];
+    private int fragments[];
+    private int firstPage[];
+    private int lastPage[];
+    private int size = 0;
+
+    /**
+     * Usage of a single font name and size.
+     */
+    public static class Entry {
+        public String font;
+        public float size;
+        public int characters;
+        public int fragments;
+        public int firstPage;
+        public int lastPage;
+    }
+
+    /**
+     * Constructor.
+     */
+    public FontInventory () {
+        allocate (INITIAL_CAPACITY);
+    }
+
+    /**
+     * Allocate empty table.
+     *
+     * @param capacity Table capacity, a power of 2.
+     */
+    private void allocate (int capacity) {
+        keys = new long[capacity];
+        Arrays.fill (keys, EMPTY);
+        characters = new int[capacity];
+        fragments = new int[capacity];
+        firstPage = new int[capacity];
+        lastPage = new int[capacity];
+    }
+
+    /**
+     * Record a text fragment.
+     *
+     * @param font Font name.
+     * @param fontSize Font size in points.
+     * @param length Number of characters in fragment.
+     * @param pageNumber Page number of fragment.
+     */
+    public void add (String font, float fontSize, int length, int pageNumber) {
+        add (getFontId (font), fontSize, length, 1, pageNumber, pageNumber);
+    }
+
+    /**
+     * Add the counts of another inventory to this one.
+     *
+     * @param other Inventory to add.
+     */
+    public void addAll (FontInventory other) {
+        for (int index = 0; index < other.keys.length; index ++) {
+            long key = other.keys[index];
+            if (key != EMPTY) {
+                add (getFontId (other.fontNames.get ((int) (key >>> 32))), Float.intBitsToFloat ((int) key),
+                    other.characters[index], other.fragments[index],
+                    other.firstPage[index], other.lastPage[index]);
+            }
+        }
+    }
+
+    /**
+     * Add counts for a font number and size.
+     *
+     * @param fontId Font number.
+     * @param fontSize Font size in points.
+     * @param length Number of characters.
+     * @param count Number of fragments.
+     * @param first First page number.
+     * @param last Last page number.
+     */
+    private void add (int fontId, float fontSize, int length, int count, int first, int last) {
+        long key = ((long) fontId << 32) | (Float.floatToIntBits (fontSize) & 0xffffffffL);
+        int index = find (key);
+        if (keys[index] == EMPTY) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow ();
+                index = find (key);
+            }
+            keys[index] = key;
+            firstPage[index] = first;
+            lastPage[index] = last;
+            size ++;
+        }
+        characters[index] += length;
+        fragments[index] += count;
+        firstPage[index] = Math.min (firstPage[index], first);
+        lastPage[index] = Math.max (lastPage[index], last);
+    }
+
+    /**
+     * Find table slot for key, either holding the key or the empty slot
+     * where the key would be placed.
+     *
+     * @param key Font number and size key.
+     * @return Table index.
+     */
+    private int find (long key) {
+        int mask = keys.length - 1;
+        long hash = key * 0x9e3779b97f4a7c15L;
+        int index = (int) (hash ^ (hash >>> 32)) & mask;
+        while ((keys[index] != EMPTY) && (keys[index] != key)) {
+            index = (index + 1) & mask;
+        }
+        return (index);
+    }
+
+    /**
+     * Double table capacity, placing each entry in the new table.
+     */
+    private void grow () {
+        long oldKeys[] = keys;
+        int oldCharacters[] = characters;
+        int oldFragments[] = fragments;
+        int oldFirstPage[] = firstPage;
+        int oldLastPage[] = lastPage;
+        allocate (oldKeys.length * 2);
+        for (int old = 0; old < oldKeys.length; old ++) {
+            if (oldKeys[old] != EMPTY) {
+                int index = find (oldKeys[old]);
+                keys[index] = oldKeys[old];
+                characters[index] = oldCharacters[old];
+                fragments[index] = oldFragments[old];
+                firstPage[index] = oldFirstPage[old];
+                lastPage[index] = oldLastPage[old];
+            }
+        }
+    }
+
+    /**
+     * Get font number, assigning the next number to a new font name.
+     *
+     * @param font Font name.
+     * @return Font number.
+     */
+    private int getFontId (String font) {
+        Integer id = fontIds.get (font);
+        if (id == null) {
+            id = fontNames.size ();
+            fontIds.put (font, id);
+            fontNames.add (font);
+        }
+        return (id);
+    }
+
+    /**
+     * Get number of font name and size combinations.
+     *
+     * @return Number of entries.
+     */
+    public int size () {
+        return (size);
+    }
+
+    /**
+     * Get the inventory entries, sorted by font name and size.
+     *
+     * @return List of entries.
+     */
+    public List<Entry> getEntries () {
+        List<Entry> entries = new ArrayList<Entry> (size);
+        for (int index = 0; index < keys.length; index ++) {
+            if (keys[index] != EMPTY) {
+                Entry entry = new Entry ();
+                entry.font = fontNames.get ((int) (keys[index] >>> 32));
+                entry.size = Float.intBitsToFloat ((int) keys[index]);
+                entry.characters = characters[index];
+                entry.fragments = fragments[index];
+                entry.firstPage = firstPage[index];
+                entry.lastPage = lastPage[index];
+                entries.add (entry);
+            }
+        }
+        Collections.sort (entries, new Comparator<Entry> () {
+            public int compare (Entry a, Entry b) {
+                int result = a.font.compareTo (b.font);
+                return ((result != 0) ? result : Float.compare (a.size, b.size));
+            }
+        });
+        return (entries);
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Survey of the fonts of a document from a sample of its pages, estimating
+ * the use of each font in the whole document. The sample is deterministic
+ * and stratified: the first and last pages, where title pages, contents and
+ * appendices use fonts found nowhere else, are all read, and the pages
+ * between are sampled at even spacing.
+ *
+ * The counts of the pages between are scaled up to estimate the counts of
+ * the document. The number of pages using each font is given with a 95%
+ * confidence interval, the Wilson score interval of the fraction of sampled
+ * pages using the font, with a finite population correction. Fonts used on
+ * no sampled page are not found, which for a font used on a fraction of the
+ * pages between of more than 3 / sampled pages has less than a 5% chance.
+ */
+public class FontSurvey implements PDFTextFinder.Listener {
+    private static final double Z = 1.96;
+    private static final int END_FRACTION = 10;
+
+    private int pageCount;
+    private int headPages;
+    private int tailPages;
+    private int middlePages;
+    private int pages[];
+    private HashMap<String, List<Usage>> usage = new HashMap<String, List<Usage>> ();
+
+    /**
+     * Usage of a font name and size in the sampled pages.
+     */
+    private static class Usage {
+        String font;
+        float size;
+        long endCharacters = 0;
+        long endFragments = 0;
+        int endPages = 0;
+        long middleCharacters = 0;
+        long middleFragments = 0;
+        int middlePages = 0;
+        int firstPage = 0;
+        int lastPage = 0;
+
+        Usage (String font, float size) {
+            this.font = font;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Estimated usage of a font name and size in the document.
+     */
+    public static class Estimate {
+        public String font;
+        public float size;
+        public long characters;
+        public long fragments;
+        public int pages;
+        public int pagesLow;
+        public int pagesHigh;
+        public int firstPage;
+        public int lastPage;
+    }
+
+    /**
+     * Constructor, choosing the pages to sample. A tenth of the sample is
+     * taken from each end of the document, and the rest evenly spaced
+     * between.
+     *
+     * @param pageCount Number of pages in the document.
+     * @param samplePages Number of pages to sample, all pages if not less
+     * than the number of pages.
+     */
+    public FontSurvey (int pageCount, int samplePages) {
+        this.pageCount = pageCount;
+        if (samplePages >= pageCount) {
+            headPages = pageCount;
+            tailPages = 0;
+            samplePages = pageCount;
+        } else {
+            headPages = (samplePages >= 3) ? Math.max (1, samplePages / END_FRACTION) : 0;
+            tailPages = headPages;
+        }
+        middlePages = pageCount - headPages - tailPages;
+
+        int sampled = samplePages - headPages - tailPages;
+        pages = new int[samplePages];
+        int index = 0;
+        for (int page = 1; page <= headPages; page ++) {
+            pages[index ++] = page;
+        }
+        for (int sample = 0; sample < sampled; sample ++) {
+            pages[index ++] = headPages + 1 + (int) (((2L * sample + 1) * middlePages) / (2L * sampled));
+        }
+        for (int page = pageCount - tailPages + 1; page <= pageCount; page ++) {
+            pages[index ++] = page;
+        }
+    }
+
+    /**
+     * Get the pages to sample, in page order.
+     *
+     * @return Pages to find text in.
+     */
+    public PageRange getPageRange () {
+        return (PageRange.of (pages));
+    }
+
+    /**
+     * Get the number of pages sampled, including the first and last pages.
+     *
+     * @return Number of pages sampled.
+     */
+    public int getSampledPages () {
+        return (pages.length);
+    }
+
+    /**
+     * Get the detection limit of the sample, for fonts used only on the pages
+     * between the first and last pages.
+     *
+     * @return Smallest fraction of the pages that a font can be used on
+     * between the first and last pages, and still have a 95% chance of being
+     * found, 0 if all pages are read.
+     */
+    public double getDetectionLimit () {
+        int sampled = getMiddleSampled ();
+        return ((sampled >= middlePages) ? 0.0 : Math.min (1.0, 3.0 / sampled));
+    }
+
+    /**
+     * Record a text fragment of a sampled page. Fragments are passed in page
+     * order.
+     *
+     * @param text Text element, with font and size.
+     */
+    public void onText (PDFTextFinder.PDFText text) {
+        Usage entry = getUsage (text.font, text.fontSize);
+        boolean newPage = (entry.lastPage != text.pageNumber);
+        if ((text.pageNumber <= headPages) || (text.pageNumber > pageCount - tailPages)) {
+            entry.endCharacters += text.text.length ();
+            entry.endFragments ++;
+            entry.endPages += newPage ? 1 : 0;
+        } else {
+            entry.middleCharacters += text.text.length ();
+            entry.middleFragments ++;
+            entry.middlePages += newPage ? 1 : 0;
+        }
+        if (entry.firstPage == 0) {
+            entry.firstPage = text.pageNumber;
+        }
+        entry.lastPage = text.pageNumber;
+    }
+
+    /**
+     * Get usage entry for a font name and size, creating it if new.
+     *
+     * @param font Font name.
+     * @param size Font size.
+     * @return Usage entry.
+     */
+    private Usage getUsage (String font, float size) {
+        List<Usage> sizes = usage.get (font);
+        if (sizes == null) {
+            sizes = new ArrayList<Usage> ();
+            usage.put (font, sizes);
+        }
+        for (int index = 0; index < sizes.size (); index ++) {
+            if (sizes.get (index).size == size) {
+                return (sizes.get (index));
+            }
+        }
+        Usage entry = new Usage (font, size);
+        sizes.add (entry);
+        return (entry);
+    }
+
+    /**
+     * Get the estimated usage of each font found, sorted by font name and
+     * size. The first and last pages are those the font was found on in the
+     * sample.
+     *
+     * @return Estimates.
+     */
+    public List<Estimate> getEstimates () {
+        int sampled = getMiddleSampled ();
+        double scale = (sampled == 0) ? 0.0 : (double) middlePages / sampled;
+        List<Estimate> estimates = new ArrayList<Estimate> ();
+        for (List<Usage> sizes : usage.values ()) {
+            for (Usage entry : sizes) {
+                Estimate estimate = new Estimate ();
+                estimate.font = entry.font;
+                estimate.size = entry.size;
+                estimate.characters = entry.endCharacters + Math.round (entry.middleCharacters * scale);
+                estimate.fragments = entry.endFragments + Math.round (entry.middleFragments * scale);
+                estimate.pages = entry.endPages + (int) Math.round (entry.middlePages * scale);
+                estimate.firstPage = entry.firstPage;
+                estimate.lastPage = entry.lastPage;
+                if (sampled < middlePages) {
+                    double interval[] = getInterval (entry.middlePages, sampled);
+                    estimate.pagesLow = entry.endPages + Math.max (entry.middlePages,
+                        (int) Math.floor (interval[0] * middlePages));
+                    estimate.pagesHigh = entry.endPages + (int) Math.ceil (interval[1] * middlePages);
+                } else {
+                    estimate.pagesLow = estimate.pagesHigh = estimate.pages;
+                }
+                estimates.add (estimate);
+            }
+        }
+        Collections.sort (estimates, new Comparator<Estimate> () {
+            public int compare (Estimate a, Estimate b) {
+                int result = a.font.compareTo (b.font);
+                return ((result != 0) ? result : Float.compare (a.size, b.size));
+            }
+        });
+        return (estimates);
+    }
+
+    /**
+     * Get the number of evenly spaced pages sampled.
+     *
+     * @return Number of pages sampled between the first and last pages.
+     */
+    private int getMiddleSampled () {
+        return (pages.length - headPages - tailPages);
+    }
+
+    /**
+     * Get the 95% Wilson score interval of a fraction, narrowed by the finite
+     * population correction for the pages between the first and last pages.
+     *
+     * @param found Number of sampled pages using the font.
+     * @param sampled Number of pages sampled.
+     * @return Lower and upper bounds of the fraction of pages.
+     */
+    private double[] getInterval (int found, int sampled) {
+        double p = (double) found / sampled;
+        double z2 = Z * Z;
+        double center = (p + z2 / (2 * sampled)) / (1 + z2 / sampled);
+        double half = (Z / (1 + z2 / sampled)) * Math.sqrt (p * (1 - p) / sampled + z2 / (4.0 * sampled * sampled));
+        if (middlePages > 1) {
+            half *= Math.sqrt ((double) (middlePages - sampled) / (middlePages - 1));
+        }
+        return (new double[] { Math.max (0.0, center - half), Math.min (1.0, center + half) });
+    }
+}
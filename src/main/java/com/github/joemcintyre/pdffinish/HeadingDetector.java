@@ -0,0 +1,268 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Detect heading fonts from all the text of a document, in a single pass.
+ * The font with the most characters is taken as the body font. Fonts at
+ * least 10% larger than the body font, used for fragments of two or more
+ * characters on average, and used rarely enough to be headings, are ranked
+ * by size into up to three heading levels.
+ *
+ * Text fragments that may be headings are kept as the text is passed in, so
+ * the outline can be built without finding the text again. Fragments are
+ * kept for each font only while the font is used for no more than
+ * MIN_CANDIDATES plus CANDIDATES_PER_PAGE fragments per page, so text in
+ * frequently used fonts, such as the body font, is discarded early.
+ *
+ * Running headers and footers, such as a document title in a larger font at
+ * the top of every page, are used rarely enough per page to be kept. Kept
+ * text that repeats in the same font and position on most pages, and on at
+ * least MIN_RUNNING_PAGES pages, is taken as running text rather than a
+ * heading, and a font used only for running text is not a heading font.
+ */
+public class HeadingDetector implements PDFTextFinder.Listener {
+    public static final int MAX_LEVELS = 3;
+    private static final int MIN_CANDIDATES = 256;
+    private static final int CANDIDATES_PER_PAGE = 2;
+    private static final float MIN_SIZE_RATIO = 1.1f;
+    private static final float MIN_AVERAGE_LENGTH = 2.0f;
+    private static final float MIN_LEVEL_SIZE_STEP = 0.5f;
+    private static final int MIN_RUNNING_PAGES = 3;
+
+    private float sizeTolerance;
+    private HashMap<String, List<Usage>> usage = new HashMap<String, List<Usage>> ();
+    private ArrayList<PDFTextFinder.PDFText> candidates = new ArrayList<PDFTextFinder.PDFText> ();
+    private ArrayList<Usage> candidateUsage = new ArrayList<Usage> ();
+    private HashMap<String, int[]> repeats = new HashMap<String, int[]> ();
+    private int pageCount = 0;
+    private int lastPage = 0;
+    private List<PDFTextFinder.Font> headingFonts = null;
+
+    /**
+     * Usage of a font name and size, with the heading level once detected.
+     */
+    private static class Usage {
+        String font;
+        float size;
+        long characters = 0;
+        int fragments = 0;
+        int headingFragments = 0;
+        boolean frequent = false;
+        int level = 0;
+
+        Usage (String font, float size) {
+            this.font = font;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sizeTolerance Font sizes within the tolerance of each other, or
+     * within 0.5 points, are given the same heading level.
+     */
+    public HeadingDetector (float sizeTolerance) {
+        this.sizeTolerance = sizeTolerance;
+    }
+
+    /**
+     * Record a text fragment, keeping it if its font may be a heading font.
+     *
+     * @param text Text element, with font and size.
+     */
+    public void onText (PDFTextFinder.PDFText text) {
+        if (text.pageNumber != lastPage) {
+            pageCount ++;
+            lastPage = text.pageNumber;
+        }
+        Usage entry = getUsage (text.font, text.fontSize);
+        entry.characters += text.text.length ();
+        entry.fragments ++;
+        if (entry.frequent == false) {
+            if (entry.fragments > MIN_CANDIDATES + CANDIDATES_PER_PAGE * text.pageNumber) {
+                entry.frequent = true;
+            } else {
+                candidates.add (text);
+                candidateUsage.add (entry);
+
+                // count the pages with the same text at the same position
+                String key = getRepeatKey (text);
+                int repeat[] = repeats.get (key);
+                if (repeat == null) {
+                    repeats.put (key, new int[] { 1, text.pageNumber });
+                } else if (repeat[1] != text.pageNumber) {
+                    repeat[0] ++;
+                    repeat[1] = text.pageNumber;
+                }
+            }
+        }
+        headingFonts = null;
+    }
+
+    /**
+     * Get usage entry for a font name and size, creating it if new.
+     *
+     * @param font Font name.
+     * @param size Font size.
+     * @return Usage entry.
+     */
+    private Usage getUsage (String font, float size) {
+        List<Usage> sizes = usage.get (font);
+        if (sizes == null) {
+            sizes = new ArrayList<Usage> ();
+            usage.put (font, sizes);
+        }
+        for (int index = 0; index < sizes.size (); index ++) {
+            if (sizes.get (index).size == size) {
+                return (sizes.get (index));
+            }
+        }
+        Usage entry = new Usage (font, size);
+        sizes.add (entry);
+        return (entry);
+    }
+
+    /**
+     * Get the key of a text fragment for finding repeated text, from its
+     * font, position to the nearest point, and text.
+     *
+     * @param text Text element.
+     * @return Key.
+     */
+    private static String getRepeatKey (PDFTextFinder.PDFText text) {
+        return (text.font + ":" + text.fontSize + "@" + Math.round (text.x) + "," + Math.round (text.y) +
+            ":" + text.text);
+    }
+
+    /**
+     * Check if a kept text fragment is running text, repeated in the same
+     * font and position on most pages.
+     *
+     * @param text Text element.
+     * @return True if running text.
+     */
+    private boolean isRunning (PDFTextFinder.PDFText text) {
+        int pages = repeats.get (getRepeatKey (text))[0];
+        return ((pages >= MIN_RUNNING_PAGES) && (pages * 2 > pageCount));
+    }
+
+    /**
+     * Get the detected heading fonts, in the form of a toc configuration,
+     * with the heading level as the tag of each font.
+     *
+     * @return Heading fonts, largest first, empty if none detected.
+     */
+    public List<PDFTextFinder.Font> getHeadingFonts () {
+        if (headingFonts == null) {
+            headingFonts = detect ();
+        }
+        return (headingFonts);
+    }
+
+    /**
+     * Get the text fragments in the detected heading fonts, in the order
+     * they were passed in, with the heading level as the tag of each.
+     *
+     * @param maxHeadings Maximum number of headings, 0 for no limit.
+     * @return Heading text elements.
+     */
+    public List<PDFTextFinder.PDFText> getHeadings (int maxHeadings) {
+        getHeadingFonts ();
+        ArrayList<PDFTextFinder.PDFText> headings = new ArrayList<PDFTextFinder.PDFText> ();
+        for (int index = 0; index < candidates.size (); index ++) {
+            Usage entry = candidateUsage.get (index);
+            PDFTextFinder.PDFText text = candidates.get (index);
+            if ((entry.level > 0) && (entry.frequent == false) && (isRunning (text) == false)) {
+                headings.add (new PDFTextFinder.PDFText (text.pageNumber, text.x, text.y, text.text,
+                    entry.level, text.font, text.fontSize));
+                if ((maxHeadings > 0) && (headings.size () >= maxHeadings)) {
+                    break;
+                }
+            }
+        }
+        return (headings);
+    }
+
+    /**
+     * Detect heading fonts, setting the level of each in its usage entry.
+     *
+     * @return Heading fonts, largest first.
+     */
+    private List<PDFTextFinder.Font> detect () {
+        // body font, with the most characters
+        Usage body = null;
+        ArrayList<Usage> all = new ArrayList<Usage> ();
+        for (List<Usage> sizes : usage.values ()) {
+            for (Usage entry : sizes) {
+                entry.level = 0;
+                all.add (entry);
+                if ((body == null) || (entry.characters > body.characters)) {
+                    body = entry;
+                }
+            }
+        }
+
+        List<PDFTextFinder.Font> fonts = new ArrayList<PDFTextFinder.Font> ();
+        if (body == null) {
+            return (fonts);
+        }
+
+        // kept fragments of each font other than running text
+        for (Usage entry : all) {
+            entry.headingFragments = 0;
+        }
+        for (int index = 0; index < candidates.size (); index ++) {
+            if (isRunning (candidates.get (index)) == false) {
+                candidateUsage.get (index).headingFragments ++;
+            }
+        }
+
+        // rare fonts larger than the body font, not only running text,
+        // largest first
+        ArrayList<Usage> headings = new ArrayList<Usage> ();
+        for (Usage entry : all) {
+            if ((entry.frequent == false) && (entry.headingFragments > 0) &&
+                    (entry.size >= body.size * MIN_SIZE_RATIO) &&
+                    (entry.characters >= entry.fragments * MIN_AVERAGE_LENGTH)) {
+                headings.add (entry);
+            }
+        }
+        Collections.sort (headings, new Comparator<Usage> () {
+            public int compare (Usage a, Usage b) {
+                int result = Float.compare (b.size, a.size);
+                return ((result != 0) ? result : a.font.compareTo (b.font));
+            }
+        });
+
+        // a new level starts at each drop in size beyond the tolerance
+        float step = Math.max (sizeTolerance, MIN_LEVEL_SIZE_STEP);
+        int level = 0;
+        float levelSize = Float.MAX_VALUE;
+        for (Usage entry : headings) {
+            if (entry.size < levelSize - step) {
+                level ++;
+                levelSize = entry.size;
+            }
+            if (level > MAX_LEVELS) {
+                break;
+            }
+            entry.level = level;
+            fonts.add (new PDFTextFinder.Font (entry.font, entry.size, level));
+        }
+        return (fonts);
+    }
+}
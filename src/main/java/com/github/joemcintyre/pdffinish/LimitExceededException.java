@@ -0,0 +1,28 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when processing a document exceeds one of its resource
+ * limits, such as its deadline or maximum number of pages.
+ */
+public class LimitExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param message Description of the limit exceeded.
+     */
+    public LimitExceededException (String message) {
+        super (message);
+    }
+}
@@ -8,15 +8,32 @@
  */
 package com.github.joemcintyre.pdffinish;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
 import org.apache.commons.cli.*;
 
+import com.grack.nanojson.*;
+
 /**
  * Process command line and initiate application.
  */
 public class Main {
     public final static int NO_ERROR = 0;
     public final static int GENERAL_ERROR = 1;
+    public final static String VERSION = "0.1.0";
+
+    /**
+     * File name for stdin or stdout.
+     */
+    public final static String STANDARD_STREAM = "-";
     
     private static Options options = null;
 
@@ -59,11 +76,71 @@ public class Main {
         }
 
         if (cmd.hasOption ("v")) {
-            System.out.println ("Version 0.1.0");
+            System.out.println ("Version " + VERSION);
             return (NO_ERROR);
         } else if (cmd.hasOption ("h")) {
             printUsage ();
             return (NO_ERROR);
+        } else if (cmd.hasOption ("stop-daemon")) {
+            return (stopDaemon ());
+        }
+
+        long memoryBudget = 0;
+        if (cmd.hasOption ("memory-budget")) {
+            memoryBudget = PDFLoader.parseSize (cmd.getOptionValue ("memory-budget"));
+            if (memoryBudget < 0) {
+                System.out.println ("Invalid memory budget");
+                printUsage ();
+                return (GENERAL_ERROR);
+            }
+        }
+
+        int threads = 0;
+        if (cmd.hasOption ("threads")) {
+            threads = parseCount (cmd.getOptionValue ("threads"));
+            if (threads < 1) {
+                System.out.println ("Invalid number of threads");
+                printUsage ();
+                return (GENERAL_ERROR);
+            }
+        }
+
+        int samplePages = 0;
+        if (cmd.hasOption ("sample")) {
+            samplePages = parseCount (cmd.getOptionValue ("sample"));
+            if ((samplePages < 1) || (cmd.hasOption ("s") == false)) {
+                System.out.println ("Invalid sample, a number of pages in show mode");
+                printUsage ();
+                return (GENERAL_ERROR);
+            }
+        }
+
+        ExtractionCache cache = null;
+        if (cmd.hasOption ("no-cache") == false) {
+            long cacheSize = ExtractionCache.DEFAULT_MAX_SIZE;
+            if (cmd.hasOption ("cache-size")) {
+                cacheSize = PDFLoader.parseSize (cmd.getOptionValue ("cache-size"));
+                if (cacheSize < 0) {
+                    System.out.println ("Invalid cache size");
+                    printUsage ();
+                    return (GENERAL_ERROR);
+                }
+            }
+            File dirCache = cmd.hasOption ("cache-dir") ?
+                new File (cmd.getOptionValue ("cache-dir")) : ExtractionCache.getDefaultDirectory ();
+            cache = new ExtractionCache (dirCache, cacheSize);
+            try {
+                cache.checkDirectory ();
+            } catch (IOException e) {
+                System.out.println ("Text cache not used: " + e.getMessage ());
+                cache = null;
+            }
+        }
+
+        if (cmd.hasOption ("daemon")) {
+            return (runDaemon (cmd, cache));
+        } else if (cmd.hasOption ("b")) {
+            return (invokeBatch (cmd, memoryBudget, threads, cache));
         }
 
         String filenameInput = cmd.getOptionValue ("i");
@@ -71,7 +148,7 @@ public class Main {
             System.out.println ("PDF input file not specified");
             printUsage ();
             return (GENERAL_ERROR);
-        } else {
+        } else if (filenameInput.equals (STANDARD_STREAM) == false) {
             fileInput = new File (filenameInput);
             if (fileInput.exists () == false) {
                 System.out.println ("PDF input file does not exist");
@@ -81,8 +158,28 @@ public class Main {
         }
 
         PDFFinish finish = new PDFFinish ();
+        finish.setMemoryBudget (memoryBudget);
+        finish.setIncremental (cmd.hasOption ("incremental"));
+        finish.setOptimize (cmd.hasOption ("optimize"));
+        finish.setLinearize (cmd.hasOption ("linearize"));
+        finish.setMetadataOnly (cmd.hasOption ("m"));
+        finish.setSample (samplePages);
+        finish.setThreads (threads);
+        finish.setSortByPosition (cmd.hasOption ("no-sort") == false);
+        finish.setCache (cache);
         if (cmd.hasOption ("s")) {
-            result = finish.showInfo (fileInput);
+            result = -1;
+            if (fileInput != null) {
+                JsonObject job = new JsonObject ();
+                job.put ("show", true);
+                job.put ("metadataOnly", cmd.hasOption ("m"));
+                job.put ("sample", samplePages);
+                result = forward (cmd, job, fileInput, null, memoryBudget, threads);
+            }
+            if (result == -1) {
+                result = (fileInput == null) ? finish.showInfo (System.in) : finish.showInfo (fileInput);
+                result = writeMetrics (cmd, finish.getMetrics ().toJson (), result);
+            }
         } else {
             filenameOutput = cmd.getOptionValue ("o");
             if (filenameOutput == null) {
@@ -91,11 +188,21 @@ public class Main {
                 return (GENERAL_ERROR);
             }
 
+            // configuration from a file, stdin, or inline JSON
+            JsonObject config = null;
             String filenameConfig = cmd.getOptionValue ("c");
             if (filenameConfig == null) {
                 System.out.println ("Configuration file not specified");
                 printUsage ();
                 return (GENERAL_ERROR);
+            } else if (filenameConfig.equals (STANDARD_STREAM) || filenameConfig.trim ().startsWith ("{")) {
+                try {
+                    config = JsonParser.object ().from (filenameConfig.equals (STANDARD_STREAM) ?
+                        readStream (System.in) : filenameConfig);
+                } catch (Exception e) {
+                    System.out.println ("Error reading configuration: " + e);
+                    return (PDFFinish.READ_ERROR_CONFIG);
+                }
             } else {
                 fileConfig = new File (filenameConfig);
                 if (fileConfig.exists () == false) {
@@ -104,11 +211,379 @@ public class Main {
                     return (GENERAL_ERROR);
                 }
             }
-            result = finish.generatePDF (fileConfig, fileInput, filenameOutput);
+
+            if ((fileInput == null) || filenameOutput.equals (STANDARD_STREAM)) {
+                result = generateStreams (finish, config, fileConfig, fileInput, filenameOutput);
+                result = writeMetrics (cmd, finish.getMetrics ().toJson (), result);
+            } else {
+                BuildManifest.Entry entry = null;
+                if (cmd.hasOption ("skip-unchanged")) {
+                    entry = getManifestEntry (finish, config, fileConfig, fileInput, filenameOutput);
+                    if ((entry != null) && entry.isUpToDate ()) {
+                        System.out.println ("Unchanged: " + filenameOutput);
+                        finish.getMetrics ().add (PDFMetrics.DOCUMENTS, 1);
+                        finish.getMetrics ().add (PDFMetrics.SKIPPED, 1);
+                        return (writeMetrics (cmd, finish.getMetrics ().toJson (), NO_ERROR));
+                    }
+                }
+
+                result = -1;
+                JsonObject job = (config == null) ? readConfig (fileConfig) : config;
+                if (job != null) {
+                    result = forward (cmd, job, fileInput, filenameOutput, memoryBudget, threads);
+                }
+                if (result == -1) {
+                    result = (config == null) ? finish.generatePDF (fileConfig, fileInput, filenameOutput) :
+                        finish.generatePDF (config, fileInput, filenameOutput);
+                    result = writeMetrics (cmd, finish.getMetrics ().toJson (), result);
+                }
+                if ((entry != null) && (result == NO_ERROR)) {
+                    try {
+                        entry.commit ();
+                    } catch (IOException e) {
+                        System.out.println ("Error writing build manifest: " + e);
+                    }
+                }
+            }
+        }
+        return (result);
+    }
+
+    /**
+     * Get the build manifest entry of an output, in the manifest of the
+     * output directory.
+     * @param finish PDFFinish instance, with command line settings.
+     * @param config Configuration, or null for the configuration file.
+     * @param fileConfig Configuration file.
+     * @param fileInput PDF input file.
+     * @param filenameOutput PDF output file name.
+     * @return Manifest entry, or null if the manifest cannot be read.
+     */
+    private static BuildManifest.Entry getManifestEntry (PDFFinish finish, JsonObject config, File fileConfig,
+            File fileInput, String filenameOutput) {
+        File fileOutput = new File (filenameOutput);
+        try {
+            byte data[] = (config == null) ? Files.readAllBytes (fileConfig.toPath ()) :
+                JsonWriter.string (config).getBytes ("UTF-8");
+            BuildManifest manifest = new BuildManifest (fileOutput.getAbsoluteFile ().getParentFile ());
+            return (manifest.get (fileInput, BuildManifest.getConfigHash (data, finish.getOutputSettings ()),
+                fileOutput));
+        } catch (IOException e) {
+            System.out.println ("Error reading build manifest: " + e);
+            return (null);
+        }
+    }
+
+    /**
+     * Send a job to a running daemon, if there is one, printing its output.
+     * Command line settings are added to the job. Jobs with a cache directory
+     * or size are processed locally, as the daemon uses its own cache.
+     * @param cmd Command object.
+     * @param job Job, with configuration fields for update.
+     * @param fileInput PDF input file.
+     * @param filenameOutput PDF output file name, null for show.
+     * @param memoryBudget Memory budget, 0 for configuration setting.
+     * @param threads Threads for finding text, 0 for configuration setting.
+     * @return Result code of the job, or -1 if there is no daemon.
+     */
+    private static int forward (CommandLine cmd, JsonObject job, File fileInput, String filenameOutput,
+            long memoryBudget, int threads) {
+        if (cmd.hasOption ("no-daemon") || cmd.hasOption ("cache-dir") || cmd.hasOption ("cache-size")) {
+            return (-1);
+        }
+        PDFClient client = PDFClient.connect (PDFServer.getDefaultPortFile ());
+        if (client == null) {
+            return (-1);
+        }
+
+        job.put ("input", fileInput.getAbsolutePath ());
+        if (filenameOutput != null) {
+            job.put ("output", new File (filenameOutput).getAbsolutePath ());
+        }
+        if (memoryBudget > 0) {
+            job.put ("memoryBudget", memoryBudget);
+        }
+        if (threads > 0) {
+            job.put ("threads", threads);
+        }
+        if (cmd.hasOption ("incremental")) {
+            job.put ("incremental", true);
+        }
+        if (cmd.hasOption ("optimize")) {
+            job.put ("optimize", true);
+        }
+        if (cmd.hasOption ("linearize")) {
+            job.put ("linearize", true);
+        }
+        if (cmd.hasOption ("no-sort")) {
+            job.put ("sort", false);
+        }
+        if (cmd.hasOption ("no-cache")) {
+            job.put ("cache", false);
+        }
+
+        try {
+            JsonObject response = client.submit (job);
+            System.out.print (response.getString ("output", ""));
+            int result = response.getInt ("result", GENERAL_ERROR);
+            if (response.has ("metrics")) {
+                result = writeMetrics (cmd, response.getObject ("metrics"), result);
+            }
+            return (result);
+        } catch (IOException e) {
+            // daemon not running, process locally
+            return (-1);
+        }
+    }
+
+    /**
+     * Update PDF read from stdin or written to stdout, processing locally.
+     * When the output is stdout, messages are printed to stderr.
+     * @param finish PDFFinish instance, with command line settings.
+     * @param config Configuration, or null to read the configuration file.
+     * @param fileConfig Configuration file.
+     * @param fileInput PDF input file, null for stdin.
+     * @param filenameOutput PDF output file name, "-" for stdout.
+     * @return Exit code.
+     */
+    private static int generateStreams (PDFFinish finish, JsonObject config, File fileConfig,
+            File fileInput, String filenameOutput) {
+        if (config == null) {
+            config = readConfig (fileConfig);
+            if (config == null) {
+                System.out.println ("Error reading configuration file: " + fileConfig);
+                return (PDFFinish.READ_ERROR_CONFIG);
+            }
+        }
+
+        boolean toStdout = filenameOutput.equals (STANDARD_STREAM);
+        if (toStdout) {
+            finish.setOutput (System.err);
+        }
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            input = (fileInput == null) ? System.in : new FileInputStream (fileInput);
+            output = toStdout ? System.out : new FileOutputStream (filenameOutput);
+            return (finish.generatePDF (config, input, output));
+        } catch (IOException e) {
+            System.out.println ("Error opening PDF file: " + e);
+            return ((input == null) ? PDFFinish.READ_ERROR_INPUT_PDF : PDFFinish.WRITE_ERROR_OUTPUT_PDF);
+        } finally {
+            try {
+                if ((input != null) && (fileInput != null)) {
+                    input.close ();
+                }
+                if ((output != null) && (toStdout == false)) {
+                    output.close ();
+                }
+            } catch (IOException e) {
+                System.out.println ("Error closing PDF file: " + e);
+            }
+        }
+    }
+
+    /**
+     * Write metrics to the file given by the metrics option, if set. The
+     * file name "-" writes the metrics to stdout, or to stderr when the PDF
+     * output is written to stdout.
+     * @param cmd Command object.
+     * @param metrics Metrics.
+     * @param result Exit code of the run the metrics are for.
+     * @return Exit code, GENERAL_ERROR if the metrics could not be written.
+     */
+    private static int writeMetrics (CommandLine cmd, JsonObject metrics, int result) {
+        String filenameMetrics = cmd.getOptionValue ("metrics");
+        if (filenameMetrics == null) {
+            return (result);
+        }
+        String content = JsonWriter.indent ("  ").string ().value (metrics).done () + "\n";
+        try {
+            if (filenameMetrics.equals (STANDARD_STREAM)) {
+                PrintStream out = STANDARD_STREAM.equals (cmd.getOptionValue ("o")) ? System.err : System.out;
+                out.print (content);
+            } else {
+                FileOutputStream fos = new FileOutputStream (filenameMetrics);
+                try {
+                    fos.write (content.getBytes ("UTF-8"));
+                } finally {
+                    fos.close ();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println ("Error writing metrics: " + e);
+            return ((result == NO_ERROR) ? GENERAL_ERROR : result);
         }
         return (result);
     }
 
+    /**
+     * Read configuration file.
+     * @param fileConfig Configuration file.
+     * @return Configuration, or null if not valid.
+     */
+    private static JsonObject readConfig (File fileConfig) {
+        try {
+            byte data[] = Files.readAllBytes (fileConfig.toPath ());
+            return (JsonParser.object ().from (new String (data, "UTF-8")));
+        } catch (Exception e) {
+            return (null);
+        }
+    }
+
+    /**
+     * Read all of a stream as UTF-8 text.
+     * @param in Input stream.
+     * @return Text.
+     * @throws IOException On error reading the stream.
+     */
+    private static String readStream (InputStream in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream ();
+        byte buffer[] = new byte[4096];
+        int length;
+        while ((length = in.read (buffer)) != -1) {
+            data.write (buffer, 0, length);
+        }
+        return (data.toString ("UTF-8"));
+    }
+
+    /**
+     * Run daemon, processing jobs sent by other invocations until stopped.
+     * @param cmd Command object.
+     * @param cache Extraction cache, null for none.
+     * @return Exit code.
+     */
+    private static int runDaemon (CommandLine cmd, ExtractionCache cache) {
+        int workers = Runtime.getRuntime ().availableProcessors ();
+        if (cmd.hasOption ("w")) {
+            workers = parseCount (cmd.getOptionValue ("w"));
+            if (workers < 1) {
+                System.out.println ("Invalid number of workers");
+                printUsage ();
+                return (GENERAL_ERROR);
+            }
+        }
+
+        final PDFServer server;
+        try {
+            server = new PDFServer (0, workers);
+            server.setCache (cache);
+            server.start (PDFServer.getDefaultPortFile ());
+        } catch (IOException e) {
+            System.out.println ("Error starting daemon: " + e);
+            return (GENERAL_ERROR);
+        }
+        Runtime.getRuntime ().addShutdownHook (new Thread () {
+            public void run () {
+                server.stop ();
+            }
+        });
+        System.out.println ("Daemon listening on port " + server.getPort ());
+
+        try {
+            server.await ();
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+        return (writeMetrics (cmd, server.getMetrics ().toJson (), NO_ERROR));
+    }
+
+    /**
+     * Stop the running daemon.
+     * @return Exit code.
+     */
+    private static int stopDaemon () {
+        PDFClient client = PDFClient.connect (PDFServer.getDefaultPortFile ());
+        if (client == null) {
+            System.out.println ("Daemon not running");
+            return (GENERAL_ERROR);
+        }
+        try {
+            client.stop ();
+        } catch (IOException e) {
+            System.out.println ("Error stopping daemon: " + e);
+            return (GENERAL_ERROR);
+        }
+        return (NO_ERROR);
+    }
+
+    /**
+     * Run batch mode, processing a directory of PDF files or a manifest.
+     * @param cmd Command object.
+     * @param memoryBudget Memory budget for loading each document, 0 for no limit.
+     * @param threads Threads for finding text in each document, 0 for configuration setting.
+     * @param cache Extraction cache, null for none.
+     * @return Exit code.
+     */
+    private static int invokeBatch (CommandLine cmd, long memoryBudget, int threads, ExtractionCache cache) {
+        File fileBatch = new File (cmd.getOptionValue ("b"));
+        if (fileBatch.exists () == false) {
+            System.out.println ("Batch directory or manifest does not exist");
+            printUsage ();
+            return (GENERAL_ERROR);
+        }
+
+        int workers = 0;
+        if (cmd.hasOption ("w")) {
+            workers = parseCount (cmd.getOptionValue ("w"));
+            if (workers < 1) {
+                System.out.println ("Invalid number of workers");
+                printUsage ();
+                return (GENERAL_ERROR);
+            }
+        }
+
+        String filenameConfig = cmd.getOptionValue ("c");
+        File fileConfig = (filenameConfig == null) ? null : new File (filenameConfig);
+
+        List<PDFBatch.Job> jobs = null;
+        try {
+            if (fileBatch.isDirectory ()) {
+                String filenameOutput = cmd.getOptionValue ("o");
+                if ((filenameOutput == null) || (fileConfig == null)) {
+                    System.out.println ("Must specify output directory and configuration file for batch directory");
+                    printUsage ();
+                    return (GENERAL_ERROR);
+                }
+                jobs = PDFBatch.fromDirectory (fileBatch, new File (filenameOutput), fileConfig);
+            } else {
+                jobs = PDFBatch.fromManifest (fileBatch, fileConfig);
+            }
+        } catch (IOException e) {
+            System.out.println ("Error reading batch: " + e.getMessage ());
+            return (GENERAL_ERROR);
+        }
+
+        if (jobs.size () == 0) {
+            System.out.println ("No PDF files to process");
+            return (NO_ERROR);
+        }
+        PDFBatch batch = new PDFBatch (jobs, workers);
+        batch.setMemoryBudget (memoryBudget);
+        batch.setIncremental (cmd.hasOption ("incremental"));
+        batch.setOptimize (cmd.hasOption ("optimize"));
+        batch.setLinearize (cmd.hasOption ("linearize"));
+        batch.setThreads (threads);
+        batch.setSortByPosition (cmd.hasOption ("no-sort") == false);
+        batch.setCache (cache);
+        batch.setSkipUnchanged (cmd.hasOption ("skip-unchanged"));
+        int result = batch.run ();
+        return (writeMetrics (cmd, batch.getMetrics ().toJson (), result));
+    }
+
+    /**
+     * Parse a count option value.
+     * @param value Option value.
+     * @return Count, or -1 if not a number.
+     */
+    private static int parseCount (String value) {
+        try {
+            return (Integer.parseInt (value));
+        } catch (NumberFormatException e) {
+            return (-1);
+        }
+    }
+
     /**
      * Populate command line options, making available for command line
      * processing and usage message functions.
@@ -118,21 +593,106 @@ public class Main {
         options.addOption ("s", "show", false, "Show PDF metadata and ToC");
         options.addOption ("v", "version", false, "Show version number");
         options.addOption ("h", "help", false, "Print this message");
+        options.addOption ("m", "metadata-only", false, "Show PDF metadata and ToC only, without fonts");
         
         OptionBuilder.withArgName ("inputFile");
         OptionBuilder.hasArg ();
-        OptionBuilder.withDescription ("input PDF file");
+        OptionBuilder.withDescription ("input PDF file, - for stdin");
         options.addOption (OptionBuilder.create ("i"));
         
         OptionBuilder.withArgName ("outputFile");
         OptionBuilder.hasArg ();
-        OptionBuilder.withDescription ("output PDF file");
+        OptionBuilder.withDescription ("output PDF file, - for stdout");
         options.addOption (OptionBuilder.create ("o"));
 
         OptionBuilder.withArgName ("configFile");
         OptionBuilder.hasArg ();
-        OptionBuilder.withDescription ("configuration file (JSON)");
+        OptionBuilder.withDescription ("configuration file (JSON), - for stdin, or inline JSON object");
         options.addOption (OptionBuilder.create ("c"));
+
+        OptionBuilder.withLongOpt ("batch");
+        OptionBuilder.withArgName ("dir|manifest");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("process all PDF files in directory, or listed in manifest (JSON)");
+        options.addOption (OptionBuilder.create ("b"));
+
+        OptionBuilder.withLongOpt ("workers");
+        OptionBuilder.withArgName ("count");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("number of batch worker threads (default: processors)");
+        options.addOption (OptionBuilder.create ("w"));
+
+        OptionBuilder.withLongOpt ("sample");
+        OptionBuilder.withArgName ("pages");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("show estimated font use from a sample of pages, first, last and evenly spaced");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("memory-budget");
+        OptionBuilder.withArgName ("size");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("load PDF files larger than size (bytes, or k/m/g suffix) using a scratch file");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("threads");
+        OptionBuilder.withArgName ("count");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("number of threads finding text in each PDF file");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("incremental");
+        OptionBuilder.withDescription ("write output as incremental update of input PDF file");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("optimize");
+        OptionBuilder.withDescription ("merge duplicate streams and recompress streams in output PDF file");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("linearize");
+        OptionBuilder.withDescription ("write output PDF file linearized for fast web view");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("skip-unchanged");
+        OptionBuilder.withDescription ("skip PDF files whose input, configuration and version match the output manifest");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("no-sort");
+        OptionBuilder.withDescription ("find text in content stream order, without sorting by position");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("daemon");
+        OptionBuilder.withDescription ("run as daemon, processing show and update jobs from other invocations");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("stop-daemon");
+        OptionBuilder.withDescription ("stop the running daemon");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("no-daemon");
+        OptionBuilder.withDescription ("process locally, even if a daemon is running");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("metrics");
+        OptionBuilder.withArgName ("file");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("write phase times and counts as JSON to file, - for stdout");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("no-cache");
+        OptionBuilder.withDescription ("find text in PDF files without using the text cache");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("cache-dir");
+        OptionBuilder.withArgName ("dir");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("directory of text cache, private to the user (default: ~/.pdffinish/cache)");
+        options.addOption (OptionBuilder.create ());
+
+        OptionBuilder.withLongOpt ("cache-size");
+        OptionBuilder.withArgName ("size");
+        OptionBuilder.hasArg ();
+        OptionBuilder.withDescription ("maximum size of text cache (bytes, or k/m/g suffix, default: 256m)");
+        options.addOption (OptionBuilder.create ());
     }
 
     /**
@@ -159,7 +719,31 @@ public class Main {
             if (cmd.hasOption ("v") || cmd.hasOption ("h")) {
                 return (cmd);
             } else {
-                if (cmd.hasOption ("s")) {
+                if (cmd.hasOption ("daemon") || cmd.hasOption ("stop-daemon")) {
+                    if (cmd.hasOption ("s") || cmd.hasOption ("i") || cmd.hasOption ("o") ||
+                            cmd.hasOption ("c") || cmd.hasOption ("b")) {
+                        System.out.println ("Cannot specify show, batch or file options with daemon options");
+                    } else {
+                        valid = true;
+                    }
+                } else if (cmd.hasOption ("b")) {
+                    if (cmd.hasOption ("s") || cmd.hasOption ("i")) {
+                        System.out.println ("Cannot specify show option or input file with batch option");
+                    } else {
+                        valid = true;
+                    }
+                } else if (cmd.hasOption ("w")) {
+                    System.out.println ("Workers option requires batch or daemon option");
+                } else if (STANDARD_STREAM.equals (cmd.getOptionValue ("i")) &&
+                        STANDARD_STREAM.equals (cmd.getOptionValue ("c"))) {
+                    System.out.println ("Cannot read both input PDF and configuration from stdin");
+                } else if (cmd.hasOption ("skip-unchanged") && (cmd.hasOption ("s") ||
+                        STANDARD_STREAM.equals (cmd.getOptionValue ("i")) ||
+                        STANDARD_STREAM.equals (cmd.getOptionValue ("o")))) {
+                    System.out.println ("Skip unchanged option requires input and output files");
+                } else if (cmd.hasOption ("m") && (cmd.hasOption ("s") == false)) {
+                    System.out.println ("Metadata only option requires show option");
+                } else if (cmd.hasOption ("s")) {
                     if (cmd.hasOption ("i")) {
                         if (cmd.hasOption ("o") || cmd.hasOption ("c")) {
                             System.out.println ("Cannot specify config or output file with show option");
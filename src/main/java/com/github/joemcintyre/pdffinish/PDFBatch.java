@@ -0,0 +1,460 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.grack.nanojson.*;
+
+/**
+ * Batch processing of PDF files. Run the update for a set of documents,
+ * taken from a directory or a manifest file, across a pool of workers
+ * within a single JVM. The messages of each document are held until it
+ * completes, then printed together under the name of its input file, so
+ * the output of documents processed at the same time is not interleaved.
+ */
+public class PDFBatch {
+    private List<Job> jobs = null;
+    private int workers = 1;
+    private long memoryBudget = 0;
+    private boolean incremental = false;
+    private boolean optimize = false;
+    private boolean linearize = false;
+    private int threads = 0;
+    private boolean sortByPosition = true;
+    private ExtractionCache cache = null;
+    private boolean skipUnchanged = false;
+    private HashMap<File, BuildManifest> manifests = new HashMap<File, BuildManifest> ();
+    private PDFMetrics metrics = new PDFMetrics ();
+
+    /**
+     * Single document to process: input, output and configuration files,
+     * with the result once processed.
+     */
+    public static class Job {
+        public File input;
+        public File output;
+        public File config;
+        public int result;
+
+        /**
+         * Constructor.
+         *
+         * @param input PDF input file.
+         * @param output PDF output file.
+         * @param config Configuration file.
+         */
+        public Job (File input, File output, File config) {
+            this.input = input;
+            this.output = output;
+            this.config = config;
+            this.result = PDFFinish.NO_ERROR;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param jobs Documents to process.
+     * @param workers Number of worker threads, 0 to size to available processors.
+     */
+    public PDFBatch (List<Job> jobs, int workers) {
+        this.jobs = jobs;
+        if (workers < 1) {
+            workers = Runtime.getRuntime ().availableProcessors ();
+        }
+        this.workers = Math.max (1, Math.min (workers, jobs.size ()));
+    }
+
+    /**
+     * Set the memory budget for loading each document.
+     *
+     * @param memoryBudget Memory budget in bytes, 0 for no limit.
+     */
+    public void setMemoryBudget (long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set incremental output for all documents.
+     *
+     * @param incremental True to write incremental output.
+     */
+    public void setIncremental (boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Set optimization of the output of all documents.
+     *
+     * @param optimize True to optimize the output.
+     */
+    public void setOptimize (boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Set linearized output for all documents.
+     *
+     * @param linearize True to write linearized output.
+     */
+    public void setLinearize (boolean linearize) {
+        this.linearize = linearize;
+    }
+
+    /**
+     * Set the number of threads finding text in each document.
+     *
+     * @param threads Number of threads, 0 to use configuration setting.
+     */
+    public void setThreads (int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set whether text is sorted by position when finding text in each
+     * document.
+     *
+     * @param sortByPosition False to process text in content stream order.
+     */
+    public void setSortByPosition (boolean sortByPosition) {
+        this.sortByPosition = sortByPosition;
+    }
+
+    /**
+     * Set the cache of text found in PDF files, shared by all documents.
+     *
+     * @param cache Extraction cache, null for none.
+     */
+    public void setCache (ExtractionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Set whether documents are skipped when their output is up to date,
+     * according to the build manifest of the output directory. Outputs
+     * written are added to the manifest.
+     *
+     * @param skipUnchanged True to skip documents with up to date output.
+     */
+    public void setSkipUnchanged (boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * Get the metrics of all documents processed.
+     *
+     * @return Metrics, totals of all documents.
+     */
+    public PDFMetrics getMetrics () {
+        return (metrics);
+    }
+
+    /**
+     * Create job list for all PDF files in a directory, using the same
+     * configuration file for each, writing outputs to another directory
+     * with the same file names.
+     *
+     * @param dirInput Directory containing PDF input files.
+     * @param dirOutput Directory for PDF output files.
+     * @param fileConfig Configuration file.
+     * @return List of jobs.
+     * @throws IOException On error accessing directories.
+     */
+    public static List<Job> fromDirectory (File dirInput, File dirOutput, File fileConfig) throws IOException {
+        if (dirInput.getCanonicalFile ().equals (dirOutput.getCanonicalFile ())) {
+            throw new IOException ("Output directory must differ from input directory");
+        }
+        if ((dirOutput.exists () == false) && (dirOutput.mkdirs () == false)) {
+            throw new IOException ("Unable to create output directory " + dirOutput);
+        }
+
+        File files[] = dirInput.listFiles ();
+        if (files == null) {
+            throw new IOException ("Unable to list input directory " + dirInput);
+        }
+        Arrays.sort (files);
+
+        ArrayList<Job> jobs = new ArrayList<Job> ();
+        for (File file : files) {
+            if (file.isFile () && file.getName ().toLowerCase ().endsWith (".pdf")) {
+                jobs.add (new Job (file, new File (dirOutput, file.getName ()), fileConfig));
+            }
+        }
+        return (jobs);
+    }
+
+    /**
+     * Create job list from a JSON manifest file. The manifest is an array
+     * of objects with "input", "output" and "config" fields. Relative paths
+     * are resolved against the directory containing the manifest.
+     *
+     * @param fileManifest Manifest file.
+     * @param fileConfig Configuration file for entries without "config", may be null.
+     * @return List of jobs.
+     * @throws IOException On error reading or invalid content in the manifest.
+     */
+    public static List<Job> fromManifest (File fileManifest, File fileConfig) throws IOException {
+        JsonArray entries = null;
+        try {
+            byte data[] = Files.readAllBytes (fileManifest.toPath ());
+            entries = JsonParser.array ().from (new String (data, "UTF-8"));
+        } catch (JsonParserException e) {
+            throw new IOException ("Invalid manifest: " + e.getMessage ());
+        }
+
+        File base = fileManifest.getAbsoluteFile ().getParentFile ();
+        ArrayList<Job> jobs = new ArrayList<Job> ();
+        for (int index = 0; index < entries.size (); index ++) {
+            JsonObject entry = entries.getObject (index);
+            if (entry == null) {
+                throw new IOException ("Invalid manifest entry " + index);
+            }
+            String input = entry.getString ("input");
+            String output = entry.getString ("output");
+            String config = entry.getString ("config");
+            if ((input == null) || (output == null)) {
+                throw new IOException ("Missing input or output in manifest entry " + index);
+            } else if ((config == null) && (fileConfig == null)) {
+                throw new IOException ("Missing config in manifest entry " + index);
+            }
+            jobs.add (new Job (resolve (base, input), resolve (base, output),
+                (config == null) ? fileConfig : resolve (base, config)));
+        }
+        return (jobs);
+    }
+
+    /**
+     * Resolve a manifest path relative to the manifest directory.
+     *
+     * @param base Manifest directory.
+     * @param path Path from manifest.
+     * @return File for path.
+     */
+    private static File resolve (File base, String path) {
+        File file = new File (path);
+        return (file.isAbsolute () ? file : new File (base, path));
+    }
+
+    /**
+     * Process all jobs, then print a summary of the results.
+     *
+     * @return NO_ERROR if all documents were processed successfully.
+     */
+    public int run () {
+        ExecutorService pool = Executors.newFixedThreadPool (workers);
+        ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>> ();
+        for (final Job job : jobs) {
+            results.add (pool.submit (new Callable<Integer> () {
+                public Integer call () {
+                    return (process (job));
+                }
+            }));
+        }
+        pool.shutdown ();
+
+        for (int index = 0; index < jobs.size (); index ++) {
+            Job job = jobs.get (index);
+            try {
+                job.result = results.get (index).get ();
+            } catch (InterruptedException e) {
+                Thread.currentThread ().interrupt ();
+                job.result = Main.GENERAL_ERROR;
+            } catch (ExecutionException e) {
+                job.result = Main.GENERAL_ERROR;
+            }
+        }
+
+        return (showSummary ());
+    }
+
+    /**
+     * Process a single job, printing its messages once it completes.
+     *
+     * @param job Job to process.
+     * @return Error code.
+     */
+    private int process (Job job) {
+        ByteArrayOutputStream messages = new ByteArrayOutputStream ();
+        PrintStream out = null;
+        try {
+            out = new PrintStream (messages, true, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException (e);
+        }
+        out.println (job.input + ":");
+        try {
+            return (process (job, out));
+        } finally {
+            out.close ();
+            try {
+                System.out.print (messages.toString ("UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException (e);
+            }
+        }
+    }
+
+    /**
+     * Process a single job. Each job uses its own PDFFinish instance, as the
+     * configuration is held in the instance. The metrics of the job are added
+     * to the batch metrics.
+     *
+     * @param job Job to process.
+     * @param out Stream for the messages of the job.
+     * @return Error code.
+     */
+    private int process (Job job, PrintStream out) {
+        if (job.input.exists () == false) {
+            return (fail (out, "PDF input file does not exist: " + job.input, PDFFinish.READ_ERROR_INPUT_PDF));
+        } else if (job.config.exists () == false) {
+            return (fail (out, "Configuration file does not exist: " + job.config, PDFFinish.READ_ERROR_CONFIG));
+        }
+
+        PDFFinish finish = new PDFFinish ();
+        try {
+            finish.setOutput (out);
+            if (memoryBudget > 0) {
+                finish.setMemoryBudget (memoryBudget);
+            }
+            finish.setIncremental (incremental);
+            finish.setOptimize (optimize);
+            finish.setLinearize (linearize);
+            finish.setThreads (threads);
+            finish.setSortByPosition (sortByPosition);
+            finish.setCache (cache);
+            BuildManifest.Entry entry = null;
+            if (skipUnchanged) {
+                try {
+                    entry = getManifest (job.output).get (job.input, BuildManifest.getConfigHash (
+                        Files.readAllBytes (job.config.toPath ()), finish.getOutputSettings ()), job.output);
+                    if (entry.isUpToDate ()) {
+                        out.println ("Unchanged: " + job.output);
+                        metrics.add (PDFMetrics.DOCUMENTS, 1);
+                        metrics.add (PDFMetrics.SKIPPED, 1);
+                        return (PDFFinish.NO_ERROR);
+                    }
+                } catch (IOException e) {
+                    out.println ("Error reading build manifest, processing " + job.input + ": " + e);
+                    entry = null;
+                }
+            }
+
+            int result = finish.generatePDF (job.config, job.input, job.output.getPath ());
+            if ((entry != null) && (result == PDFFinish.NO_ERROR)) {
+                try {
+                    entry.commit ();
+                } catch (IOException e) {
+                    out.println ("Error writing build manifest for " + job.output + ": " + e);
+                }
+            }
+            return (result);
+        } catch (Exception e) {
+            return (fail (out, "Uncaught exception processing " + job.input + ": " + e, Main.GENERAL_ERROR));
+        } finally {
+            metrics.addAll (finish.getMetrics ());
+        }
+    }
+
+    /**
+     * Get the build manifest of the directory of an output file, shared by
+     * all jobs with outputs in the directory.
+     *
+     * @param output PDF output file.
+     * @return Build manifest.
+     * @throws IOException On error reading the manifest.
+     */
+    private BuildManifest getManifest (File output) throws IOException {
+        File directory = output.getAbsoluteFile ().getParentFile ();
+        synchronized (manifests) {
+            BuildManifest manifest = manifests.get (directory);
+            if (manifest == null) {
+                manifest = new BuildManifest (directory);
+                manifests.put (directory, manifest);
+            }
+            return (manifest);
+        }
+    }
+
+    /**
+     * Print the error message of a job that could not be processed, counting
+     * it as a failed document in the batch metrics.
+     *
+     * @param out Stream for the messages of the job.
+     * @param message Error message.
+     * @param error Error code.
+     * @return Error code.
+     */
+    private int fail (PrintStream out, String message, int error) {
+        out.println (message);
+        metrics.add (PDFMetrics.DOCUMENTS, 1);
+        metrics.add (PDFMetrics.FAILURES, 1);
+        metrics.add (PDFMetrics.ERRORS, 1);
+        return (error);
+    }
+
+    /**
+     * Print per-document results and totals.
+     *
+     * @return NO_ERROR if all documents were processed successfully.
+     */
+    private int showSummary () {
+        int failed = 0;
+        System.out.println ("\nBatch Summary\n");
+        for (Job job : jobs) {
+            if (job.result != PDFFinish.NO_ERROR) {
+                failed ++;
+            }
+            System.out.println (getResultName (job.result) + " (" + job.result + "): " + job.input);
+        }
+        System.out.println ("\nProcessed " + jobs.size () + " files, " +
+            (jobs.size () - failed) + " succeeded, " + failed + " failed");
+        return ((failed == 0) ? Main.NO_ERROR : Main.GENERAL_ERROR);
+    }
+
+    /**
+     * Get name for result code.
+     *
+     * @param result Result code.
+     * @return Name of result code.
+     */
+    public static String getResultName (int result) {
+        switch (result) {
+        case PDFFinish.NO_ERROR:
+            return ("OK");
+        case PDFFinish.READ_ERROR_INPUT_PDF:
+            return ("READ_ERROR_INPUT_PDF");
+        case PDFFinish.READ_ERROR_CONFIG:
+            return ("READ_ERROR_CONFIG");
+        case PDFFinish.INVALID_CONFIG:
+            return ("INVALID_CONFIG");
+        case PDFFinish.PROCESS_ERROR_PDF:
+            return ("PROCESS_ERROR_PDF");
+        case PDFFinish.WRITE_ERROR_OUTPUT_PDF:
+            return ("WRITE_ERROR_OUTPUT_PDF");
+        case PDFFinish.LIMIT_EXCEEDED:
+            return ("LIMIT_EXCEEDED");
+        default:
+            return ("GENERAL_ERROR");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+
+import com.grack.nanojson.*;
+
+/**
+ * Client sending jobs to a running PDFServer daemon, found through the port
+ * file written by the daemon.
+ */
+public class PDFClient {
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    private int port;
+    private String token;
+
+    /**
+     * Constructor.
+     *
+     * @param port Daemon port.
+     * @param token Daemon access token.
+     */
+    private PDFClient (int port, String token) {
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * Create client for the daemon announced in a port file. The port file is
+     * only used if it is a regular file owned by the user, and readable and
+     * writable only by the user, so a port file created by another user
+     * cannot direct jobs to their server.
+     *
+     * @param portFile Port file written by the daemon.
+     * @return Client, or null if there is no valid port file.
+     */
+    public static PDFClient connect (File portFile) {
+        Path path = portFile.toPath ();
+        if (Files.isRegularFile (path, LinkOption.NOFOLLOW_LINKS) == false) {
+            return (null);
+        }
+        try {
+            if (isPrivate (path) == false) {
+                return (null);
+            }
+            String content = new String (Files.readAllBytes (path), "UTF-8").trim ();
+            String fields[] = content.split (" ");
+            if (fields.length != 2) {
+                return (null);
+            }
+            return (new PDFClient (Integer.parseInt (fields[0]), fields[1]));
+        } catch (IOException e) {
+            return (null);
+        } catch (NumberFormatException e) {
+            return (null);
+        }
+    }
+
+    /**
+     * Check if a file is owned by the user, and on file systems with POSIX
+     * permissions, has no permissions other than read and write by the owner.
+     *
+     * @param path File path.
+     * @return True if the file is private to the user.
+     * @throws IOException On error reading the file attributes.
+     */
+    private static boolean isPrivate (Path path) throws IOException {
+        String owner = Files.getOwner (path, LinkOption.NOFOLLOW_LINKS).getName ();
+        if (owner.equals (FileSystems.getDefault ().getUserPrincipalLookupService ()
+                .lookupPrincipalByName (System.getProperty ("user.name")).getName ()) == false) {
+            return (false);
+        }
+        if (FileSystems.getDefault ().supportedFileAttributeViews ().contains ("posix")) {
+            return (Files.getPosixFilePermissions (path, LinkOption.NOFOLLOW_LINKS).equals (
+                EnumSet.of (PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        }
+        return (true);
+    }
+
+    /**
+     * Send a job to the daemon and wait for its result.
+     *
+     * @param job Job, with configuration fields and input and output paths.
+     * @return Result, with result code, name and output messages.
+     * @throws IOException On error communicating with the daemon, such as
+     * the daemon not running.
+     */
+    public JsonObject submit (JsonObject job) throws IOException {
+        try {
+            return (JsonParser.object ().from (post ("/job", JsonWriter.string (job))));
+        } catch (JsonParserException e) {
+            throw new IOException ("Invalid response from daemon: " + e.getMessage ());
+        }
+    }
+
+    /**
+     * Stop the daemon, once its running jobs complete.
+     *
+     * @throws IOException On error communicating with the daemon.
+     */
+    public void stop () throws IOException {
+        post ("/stop", "{}");
+    }
+
+    /**
+     * Send a request to the daemon.
+     *
+     * @param path Request path.
+     * @param body Request body.
+     * @return Response body.
+     * @throws IOException On error communicating with the daemon.
+     */
+    private String post (String path, String body) throws IOException {
+        URL url = new URL ("http", InetAddress.getLoopbackAddress ().getHostAddress (), port, path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection ();
+        try {
+            connection.setConnectTimeout (CONNECT_TIMEOUT);
+            connection.setRequestMethod ("POST");
+            connection.setRequestProperty (PDFServer.TOKEN_HEADER, token);
+            connection.setRequestProperty ("Content-Type", "application/json; charset=utf-8");
+            connection.setDoOutput (true);
+            OutputStream out = connection.getOutputStream ();
+            out.write (body.getBytes ("UTF-8"));
+            out.close ();
+
+            if (connection.getResponseCode () != HttpURLConnection.HTTP_OK) {
+                throw new IOException ("Daemon request failed: " + connection.getResponseCode ());
+            }
+            InputStream in = connection.getInputStream ();
+            ByteArrayOutputStream data = new ByteArrayOutputStream ();
+            byte buffer[] = new byte[4096];
+            int length;
+            while ((length = in.read (buffer)) != -1) {
+                data.write (buffer, 0, length);
+            }
+            in.close ();
+            return (data.toString ("UTF-8"));
+        } finally {
+            connection.disconnect ();
+        }
+    }
+}
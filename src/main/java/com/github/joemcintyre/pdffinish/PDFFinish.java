@@ -8,13 +8,23 @@
  */
 package com.github.joemcintyre.pdffinish;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.ArrayList;
 
 import com.grack.nanojson.*;
+import org.apache.pdfbox.pdfwriter.COSWriter;
 import org.apache.pdfbox.pdmodel.*;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.*;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageXYZDestination;
@@ -28,12 +38,91 @@ public class PDFFinish {
     public final static int READ_ERROR_INPUT_PDF = 100;
     public final static int READ_ERROR_CONFIG = 101;
     public final static int INVALID_CONFIG = 102;
+    public final static int PROCESS_ERROR_PDF = 103;
+    public final static int WRITE_ERROR_OUTPUT_PDF = 104;
+    public final static int LIMIT_EXCEEDED = 105;
 
     private String title;
     private String author;
     private String subject;
     private String keywords;
+    private long memoryBudget = 0;
+    private boolean incremental = false;
+    private boolean metadataOnly = false;
+    private boolean optimize = false;
+    private boolean linearize = false;
+    private DocumentLimits limits = new DocumentLimits (0, 0, 0, 0);
+    private int threads = 0;
+    private float sizeTolerance = 0.0f;
+    private PageRange pageRange = null;
+    private int maxHeadings = 0;
+    private int samplePages = 0;
+    private boolean sortByPosition = true;
+    private ExtractionCache cache = null;
+    private PrintStream out = System.out;
+    private PDFMetrics metrics = new PDFMetrics ();
     ArrayList<PDFTextFinder.Font> fontList = null;
+    private boolean autoTOC = false;
+
+    /**
+     * Input stream counting the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream (InputStream in) {
+            super (in);
+        }
+
+        public int read () throws IOException {
+            int b = super.read ();
+            if (b != -1) {
+                count ++;
+            }
+            return (b);
+        }
+
+        public int read (byte buffer[], int offset, int length) throws IOException {
+            int read = super.read (buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return (read);
+        }
+
+        public long skip (long length) throws IOException {
+            long skipped = super.skip (length);
+            count += skipped;
+            return (skipped);
+        }
+    }
+
+    /**
+     * Output stream counting the bytes written, that flushes rather than
+     * closes the underlying stream when closed, so a stream such as stdout
+     * remains open after a document is saved to it.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream (OutputStream out) {
+            super (out);
+        }
+
+        public void write (int b) throws IOException {
+            out.write (b);
+            count ++;
+        }
+
+        public void write (byte buffer[], int offset, int length) throws IOException {
+            out.write (buffer, offset, length);
+            count += length;
+        }
+
+        public void close () throws IOException {
+            out.flush ();
+        }
+    }
 
     /**
      * Constructor.
@@ -41,29 +130,200 @@ public class PDFFinish {
     public PDFFinish () {
     }
 
+    /**
+     * Set the stream that information and error messages are printed to.
+     *
+     * @param out Output stream, System.out by default.
+     */
+    public void setOutput (PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Set the memory budget for loading PDF documents. Documents larger than
+     * the budget are loaded using a scratch file. Overrides the memoryBudget
+     * field of the configuration file.
+     *
+     * @param memoryBudget Memory budget in bytes, 0 for no limit.
+     */
+    public void setMemoryBudget (long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set incremental output, where the output file is a copy of the input
+     * file with the updated objects appended. Overrides the incremental field
+     * of the configuration file when set.
+     *
+     * @param incremental True to write incremental output.
+     */
+    public void setIncremental (boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Set optimization of the output, merging duplicate streams and
+     * recompressing streams before saving. Overrides the optimize field of
+     * the configuration file when set.
+     *
+     * @param optimize True to optimize the output.
+     */
+    public void setOptimize (boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Set linearized output, for fast web view, where the first page,
+     * outline and hint tables come first so viewers can show them before the
+     * rest of the file is read. Overrides the linearize field of the
+     * configuration file when set.
+     *
+     * @param linearize True to write linearized output.
+     */
+    public void setLinearize (boolean linearize) {
+        this.linearize = linearize;
+    }
+
+    /**
+     * Set the number of threads used to find text in the pages. Overrides
+     * the threads field of the configuration file when set.
+     *
+     * @param threads Number of threads, 0 to use configuration setting.
+     */
+    public void setThreads (int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set whether text is sorted by position on each page when finding text,
+     * or processed in content stream order, which avoids sorting all the text
+     * of each page. Overrides the sort field of the configuration file when
+     * turned off.
+     *
+     * @param sortByPosition False to process text in content stream order.
+     */
+    public void setSortByPosition (boolean sortByPosition) {
+        this.sortByPosition = sortByPosition;
+    }
+
+    /**
+     * Set the cache of text found in PDF files. Show mode adds the text of
+     * each document to the cache, which is then used for the fonts shown and
+     * the table of contents generated for the same file content, rather than
+     * finding the text again.
+     *
+     * @param cache Extraction cache, null for none.
+     */
+    public void setCache (ExtractionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Set metadata only display for show mode, showing metadata and ToC
+     * without reading the pages for font info.
+     *
+     * @param metadataOnly True to show metadata and ToC only.
+     */
+    public void setMetadataOnly (boolean metadataOnly) {
+        this.metadataOnly = metadataOnly;
+    }
+
+    /**
+     * Set the number of pages to sample for font info in show mode, with the
+     * use of each font estimated from the first, last, and evenly spaced
+     * pages.
+     *
+     * @param samplePages Number of pages to sample, 0 to read all pages.
+     */
+    public void setSample (int samplePages) {
+        this.samplePages = samplePages;
+    }
+
+    /**
+     * Get the metrics of the documents processed by this instance.
+     *
+     * @return Metrics.
+     */
+    public PDFMetrics getMetrics () {
+        return (metrics);
+    }
+
+    /**
+     * Get the settings that change the output for the same configuration,
+     * for checking whether an output is up to date. Settings that only
+     * change how the output is produced, such as threads, are not included.
+     *
+     * @return Settings, as text.
+     */
+    public String getOutputSettings () {
+        return ("incremental=" + incremental + ",optimize=" + optimize + ",linearize=" + linearize +
+            ",sort=" + sortByPosition);
+    }
+
     /**
      * Show PDF metadata. ToC, and font info.
      * 
      * @param fileInput PDF input file.
      */
     public int showInfo (File fileInput) {
+        return (complete (show (fileInput, null)));
+    }
+
+    /**
+     * Show PDF metadata. ToC, and font info, of a PDF document read from a
+     * stream, such as stdin. The text cache is not used.
+     * 
+     * @param input PDF input stream, closed once read.
+     * @return Error code, NO_ERROR if shown.
+     */
+    public int showInfo (InputStream input) {
+        return (complete (show (null, input)));
+    }
+
+    /**
+     * Show PDF metadata. ToC, and font info.
+     * 
+     * @param fileInput PDF input file, null to read from the input stream.
+     * @param input PDF input stream, used when there is no input file.
+     * @return Error code, NO_ERROR if shown.
+     */
+    private int show (File fileInput, InputStream input) {
+        PDFLoader loader = new PDFLoader ();
+        loader.setMemoryBudget (memoryBudget);
+        // with the text read from the cache, the pages are not needed
+        String cacheKey = getCacheKey (fileInput);
+        FontInventory inventory = null;
         PDDocument document = null;
         try {
-            document = PDDocument.load (fileInput);
+            if ((metadataOnly == false) && (cacheKey != null)) {
+                inventory = readInventory (cacheKey);
+            }
+            document = load (loader, fileInput, input, metadataOnly || (inventory != null));
         } catch (IOException e) {
-            System.out.println ("Error reading input PDF: " + e);
+            reportError ("Error reading input PDF: " + e);
             return (READ_ERROR_INPUT_PDF);
         }
 
+        int error = NO_ERROR;
         try {
             showMetadata (document);
+            showTOC (document);
+            if (inventory != null) {
+                showInventory (inventory);
+            } else if (metadataOnly == false) {
+                showFonts (document, fileInput, cacheKey);
+            }
         } catch (IOException e) {
-            System.out.println ("Error reading metadata: " + e);
-            return (READ_ERROR_INPUT_PDF);
+            reportError ("Error reading metadata: " + e);
+            error = READ_ERROR_INPUT_PDF;
         }
-        showTOC (document);
-        showFonts (document);
-        return (NO_ERROR);
+
+        try {
+            loader.close (document);
+        } catch (IOException e) {
+            reportError ("Error closing document: " + e);
+        }
+        return (error);
     }
 
     /**
@@ -75,42 +335,183 @@ public class PDFFinish {
      */
     public int generatePDF (File fileConfig, File fileInput, String filenameOutput) {
         JsonObject config = null;
-        File fileOutput = new File (filenameOutput);
-
         try {
-            FileInputStream fis = new FileInputStream (fileConfig);
-            byte data[] = new byte[(int) fileConfig.length ()];
-            fis.read (data);
-            fis.close ();
-
+            byte data[] = Files.readAllBytes (fileConfig.toPath ());
             String content = new String (data, "UTF-8");
             config = JsonParser.object ().from (content);
         } catch (Exception e) {
-            System.out.println ("Error reading configuration file: " + e);
-            return (READ_ERROR_CONFIG);
+            reportError ("Error reading configuration file: " + e);
+            return (complete (READ_ERROR_CONFIG));
+        }
+        return (generatePDF (config, fileInput, filenameOutput));
+    }
+
+    /**
+     * Create new PDF with updated metadata and/or ToC, from a configuration
+     * object with the same fields as the configuration file.
+     * 
+     * @param config Configuration.
+     * @param fileInput PDF input file.
+     * @param filenameOutput PDF output file name.
+     * @return Error code, NO_ERROR if output file written.
+     */
+    public int generatePDF (JsonObject config, File fileInput, String filenameOutput) {
+        File fileOutput = new File (filenameOutput);
+        int error = processConfig (config);
+        if (error == NO_ERROR) {
+            error = processPDF (fileInput, null, fileOutput, null);
         }
+        return (complete (error));
+    }
 
+    /**
+     * Create new PDF with updated metadata and/or ToC, reading the PDF from
+     * an input stream and writing it to an output stream, such as stdin and
+     * stdout. The text cache is not used, text is found using a single
+     * thread, and incremental output is not supported, as it needs the input
+     * and output files.
+     * 
+     * @param config Configuration.
+     * @param input PDF input stream, closed once read.
+     * @param output PDF output stream, flushed but not closed once written.
+     * @return Error code, NO_ERROR if output written.
+     */
+    public int generatePDF (JsonObject config, InputStream input, OutputStream output) {
         int error = processConfig (config);
+        if ((error == NO_ERROR) && incremental) {
+            reportError ("Incremental output requires input and output files");
+            error = INVALID_CONFIG;
+        }
         if (error == NO_ERROR) {
-            processPDF (fileInput, fileOutput);
+            error = processPDF (null, input, null, output);
+        }
+        return (complete (error));
+    }
+
+    /**
+     * Count a processed document in the metrics.
+     *
+     * @param error Error code of the document.
+     * @return Error code.
+     */
+    private int complete (int error) {
+        metrics.add (PDFMetrics.DOCUMENTS, 1);
+        if (error != NO_ERROR) {
+            metrics.add (PDFMetrics.FAILURES, 1);
         }
         return (error);
     }
 
+    /**
+     * Print an error message, counting it in the metrics.
+     *
+     * @param message Error message.
+     */
+    private void reportError (String message) {
+        metrics.add (PDFMetrics.ERRORS, 1);
+        out.println (message);
+    }
+
     /**
      * Get configuration information from file.
      * 
      * @param config JSON configuration object.
      */
-    private int processConfig (JsonObject config) {
+    int processConfig (JsonObject config) {
         title = config.getString ("title");
         author = config.getString ("author");
         subject = config.getString ("subject");
         keywords = config.getString ("keywords");
 
-        // heading fonts
+        // memory budget, command line setting takes precedence
+        if (memoryBudget == 0) {
+            memoryBudget = getSize (config, "memoryBudget");
+            if (memoryBudget < 0) {
+                reportError ("Invalid memoryBudget");
+                return (INVALID_CONFIG);
+            }
+        }
+        if (incremental == false) {
+            incremental = config.getBoolean ("incremental", false);
+        }
+        if (optimize == false) {
+            optimize = config.getBoolean ("optimize", false);
+        }
+        if (optimize && incremental) {
+            reportError ("Optimize requires full output, not incremental");
+            return (INVALID_CONFIG);
+        }
+        if (linearize == false) {
+            linearize = config.getBoolean ("linearize", false);
+        }
+        if (linearize && incremental) {
+            reportError ("Linearize requires full output, not incremental");
+            return (INVALID_CONFIG);
+        }
+        if (threads == 0) {
+            threads = config.getInt ("threads", 1);
+            if (threads < 1) {
+                reportError ("Invalid threads");
+                return (INVALID_CONFIG);
+            }
+        }
+
+        if (sortByPosition) {
+            sortByPosition = config.getBoolean ("sort", true);
+        }
+        sizeTolerance = config.getFloat ("sizeTolerance", 0.0f);
+        if (sizeTolerance < 0.0f) {
+            reportError ("Invalid sizeTolerance");
+            return (INVALID_CONFIG);
+        }
+
+        // pages to find headings in, and number of headings to find
+        if (config.has ("pages")) {
+            pageRange = PageRange.parse (config.getString ("pages"));
+            if (pageRange == null) {
+                reportError ("Invalid pages");
+                return (INVALID_CONFIG);
+            }
+        }
+        maxHeadings = config.getInt ("maxHeadings", 0);
+        if (maxHeadings < 0) {
+            reportError ("Invalid maxHeadings");
+            return (INVALID_CONFIG);
+        }
+
+        // resource limits of the document
+        double timeLimit = config.getDouble ("timeLimit", 0.0);
+        int maxPages = config.getInt ("maxPages", 0);
+        long maxOperators = config.getNumber ("maxOperators", 0).longValue ();
+        long maxHeap = getSize (config, "maxHeap");
+        if (timeLimit < 0.0) {
+            reportError ("Invalid timeLimit");
+            return (INVALID_CONFIG);
+        } else if (maxPages < 0) {
+            reportError ("Invalid maxPages");
+            return (INVALID_CONFIG);
+        } else if (maxOperators < 0) {
+            reportError ("Invalid maxOperators");
+            return (INVALID_CONFIG);
+        } else if (maxHeap < 0) {
+            reportError ("Invalid maxHeap");
+            return (INVALID_CONFIG);
+        }
+        limits = new DocumentLimits ((long) Math.ceil (timeLimit * 1000.0), maxPages, maxOperators, maxHeap);
+
+        // heading fonts, or "auto" to detect them
+        Object toc = config.get ("toc");
+        if ("auto".equals (toc)) {
+            autoTOC = true;
+        } else if ((toc != null) && ((toc instanceof JsonArray) == false)) {
+            reportError ("Invalid toc");
+            return (INVALID_CONFIG);
+        }
         JsonArray headings = config.getArray ("toc");
-        if (headings != null) {
+        if ((headings != null) && (headings.size () == 0)) {
+            reportError ("Empty toc, omit toc for no table of contents");
+            return (INVALID_CONFIG);
+        } else if (headings != null) {
             fontList = new ArrayList<PDFTextFinder.Font> ();
             for (int index = 0; index < headings.size (); index ++) {
                 JsonObject h = (JsonObject) headings.get (index);
@@ -119,13 +520,13 @@ public class PDFFinish {
                 int level = h.getInt ("level");
                 
                 if (font == null) {
-                    System.out.println ("Missing font in toc element " + index);
+                    reportError ("Missing font in toc element " + index);
                     return (INVALID_CONFIG);
                 } else if (size == 0.0) {
-                    System.out.println ("Invalid font size in toc element " + index);
+                    reportError ("Invalid font size in toc element " + index);
                     return (INVALID_CONFIG);
                 } else if (level < 1) {
-                    System.out.println ("invalid level in toc element " + index);
+                    reportError ("invalid level in toc element " + index);
                     return (INVALID_CONFIG);
                 }
                 fontList.add (new PDFTextFinder.Font (font, size, level));
@@ -135,45 +536,242 @@ public class PDFFinish {
     }
 
     /**
-     * Process the PDF input file, producing the output file.
+     * Get a size from the configuration, in bytes or as a string with a k, m
+     * or g suffix.
+     *
+     * @param config Configuration.
+     * @param key Field name.
+     * @return Size in bytes, 0 if not set, or -1 if not a valid size.
+     */
+    private static long getSize (JsonObject config, String key) {
+        Object value = config.get (key);
+        if (value == null) {
+            return (0);
+        }
+        return ((value instanceof Number) ? ((Number) value).longValue () : PDFLoader.parseSize (String.valueOf (value)));
+    }
+
+    /**
+     * Process the PDF input, producing the output.
      * 
-     * @param fileInput PDF input file.
-     * @param fileOutput PDF output file.
+     * @param fileInput PDF input file, null to read from the input stream.
+     * @param input PDF input stream, used when there is no input file.
+     * @param fileOutput PDF output file, null to write to the output stream.
+     * @param output PDF output stream, used when there is no output file.
+     * @return Error code, NO_ERROR if output written.
      */
-    private void processPDF (File fileInput, File fileOutput) {
+    private int processPDF (File fileInput, InputStream input, File fileOutput, OutputStream output) {
+        limits.start ();
+        PDFLoader loader = new PDFLoader ();
+        loader.setMemoryBudget (memoryBudget);
+        // without ToC generation, an incremental update only needs the
+        // catalog and information dictionary, so the pages are not loaded
         PDDocument document = null;
         try {
-            document = PDDocument.load (fileInput);
+            if ((fileInput != null) && ((memoryBudget == 0) || (fileInput.length () <= memoryBudget))) {
+                limits.checkLoad (fileInput.length ());
+            }
+            document = load (loader, fileInput, input, (hasTOC () == false) && incremental);
+        } catch (LimitExceededException e) {
+            reportError ("Limit exceeded: " + e.getMessage ());
+            return (LIMIT_EXCEEDED);
+        } catch (IOException e) {
+            reportError ("Error reading PDF: " + e);
+            return (READ_ERROR_INPUT_PDF);
+        }
+
+        int error = NO_ERROR;
+        try {
+            limits.checkPages (document.getNumberOfPages ());
+            limits.check ();
+            updateMetadata (document);
+            if (hasTOC ()) {
+                updateTOC (document, fileInput);
+                limits.check ();
+            }
+            if (optimize) {
+                optimize (document);
+                limits.check ();
+            }
+        } catch (LimitExceededException e) {
+            reportError ("Limit exceeded: " + e.getMessage ());
+            error = LIMIT_EXCEEDED;
         } catch (IOException e) {
-            System.out.println ("Error reading PDF: " + e);
+            reportError ("Error processing PDF: " + e);
+            error = PROCESS_ERROR_PDF;
         }
 
-        if (document != null) {
-            boolean save = true;
+        if (error == NO_ERROR) {
+            long start = System.nanoTime ();
             try {
-                updateMetadata (document);
-                if (fontList != null) {
-                    updateTOC (document);
+                if (fileOutput == null) {
+                    CountingOutputStream counter = new CountingOutputStream (new BufferedOutputStream (output));
+                    if (linearize) {
+                        saveLinearized (document, counter);
+                    } else {
+                        document.save (counter);
+                    }
+                    metrics.add (PDFMetrics.OUTPUT_BYTES, counter.count);
+                } else {
+                    if (incremental) {
+                        saveIncremental (document, fileInput, fileOutput);
+                    } else if (linearize) {
+                        OutputStream fos = new BufferedOutputStream (new FileOutputStream (fileOutput));
+                        try {
+                            saveLinearized (document, fos);
+                        } finally {
+                            fos.close ();
+                        }
+                    } else {
+                        document.save (fileOutput);
+                    }
+                    metrics.add (PDFMetrics.OUTPUT_BYTES, fileOutput.length ());
                 }
-            } catch (IOException e) {
-                System.out.println ("Error processing PDF: " + e);
-                save = false;
+                out.println ("Write complete");
+            } catch (Exception e) {
+                reportError ("Error writing PDF: " + e);
+                error = WRITE_ERROR_OUTPUT_PDF;
+            } finally {
+                metrics.addTime (PDFMetrics.SAVE, System.nanoTime () - start);
             }
+        }
 
-            if (save) {
+        try {
+            loader.close (document);
+        } catch (Exception e) {
+            reportError ("Error closing document: " + e);
+        }
+        return (error);
+    }
+
+    /**
+     * Optimize the document before saving, reporting the savings.
+     *
+     * @param document PDF document.
+     * @throws IOException On error reading stream content.
+     */
+    private void optimize (PDDocument document) throws IOException {
+        long start = System.nanoTime ();
+        try {
+            PDFOptimizer optimizer = new PDFOptimizer ();
+            if (optimizer.optimize (document) == false) {
+                out.println ("Encrypted document not optimized");
+                return;
+            }
+            metrics.add (PDFMetrics.BYTES_SAVED, optimizer.getBytesSaved ());
+            out.println ("Optimized: " + optimizer.getStreamsMerged () + " duplicate streams merged, " +
+                optimizer.getStreamsRecompressed () + " streams recompressed, " +
+                optimizer.getObjectsUnreferenced () + " unreferenced objects found, " +
+                optimizer.getBytesSaved () + " bytes saved");
+        } finally {
+            metrics.addTime (PDFMetrics.OPTIMIZE, System.nanoTime () - start);
+        }
+    }
+
+    /**
+     * Check if the configuration generates a table of contents, from a font
+     * list or detected heading fonts.
+     *
+     * @return True if a table of contents is generated.
+     */
+    private boolean hasTOC () {
+        return ((fontList != null) || autoTOC);
+    }
+
+    /**
+     * Load the PDF document from the input file or stream, adding the time
+     * taken and the bytes read to the metrics.
+     *
+     * @param loader Loader to load the document with.
+     * @param fileInput PDF input file, null to read from the input stream.
+     * @param input PDF input stream, used when there is no input file.
+     * @param metadata True to load only the metadata and outline, when
+     * reading from a file.
+     * @return Loaded document.
+     * @throws IOException On error reading the document.
+     */
+    private PDDocument load (PDFLoader loader, File fileInput, InputStream input, boolean metadata)
+            throws IOException {
+        long start = System.nanoTime ();
+        try {
+            if (fileInput == null) {
+                CountingInputStream counter = new CountingInputStream (input);
                 try {
-                    document.save (fileOutput);
-                    System.out.println ("Write complete");
-                } catch (Exception e) {
-                    System.out.println ("Error writing PDF: " + e);
+                    return (loader.load (counter));
+                } finally {
+                    metrics.add (PDFMetrics.INPUT_BYTES, counter.count);
                 }
             }
+            PDDocument document = metadata ? loader.loadMetadata (fileInput) : loader.load (fileInput);
+            metrics.add (PDFMetrics.INPUT_BYTES, fileInput.length ());
+            return (document);
+        } finally {
+            metrics.addTime (PDFMetrics.LOAD, System.nanoTime () - start);
+        }
+    }
 
-            try {
-                document.close ();
-            } catch (Exception e) {
-                System.out.println ("Error closing document: " + e);
+    /**
+     * Save document linearized. The document is saved to a temporary file
+     * and loaded again, so every object written is an indirect object of
+     * the parser, then written in linearized order. Encrypted documents are
+     * saved without linearization.
+     *
+     * @param document Loaded PDF document.
+     * @param output Output stream, flushed but not closed once written.
+     * @throws Exception On error writing the output.
+     */
+    private void saveLinearized (PDDocument document, OutputStream output) throws Exception {
+        if (document.isEncrypted ()) {
+            out.println ("Encrypted document not linearized");
+            document.save (output);
+            return;
+        }
+        File fileSaved = File.createTempFile ("pdffinish", ".pdf");
+        PDFLoader loader = new PDFLoader ();
+        loader.setMemoryBudget (memoryBudget);
+        PDDocument saved = null;
+        try {
+            document.save (fileSaved);
+            saved = loader.load (fileSaved);
+            new PDFLinearizer ().write (saved, output);
+        } finally {
+            if (saved != null) {
+                loader.close (saved);
             }
+            fileSaved.delete ();
+        }
+    }
+
+    /**
+     * Save document as an incremental update. The input file is copied to the
+     * output file, then the document catalog, information dictionary and any
+     * new objects, such as the outline, are appended with a new xref section.
+     * Unchanged objects are not written again. The page count is not
+     * recalculated before writing, as the pages may not be loaded.
+     *
+     * @param document Loaded PDF document.
+     * @param fileInput PDF input file, that the document was loaded from.
+     * @param fileOutput PDF output file.
+     * @throws Exception On error writing the output file.
+     */
+    private static void saveIncremental (PDDocument document, File fileInput, File fileOutput) throws Exception {
+        document.getDocumentCatalog ().getCOSDictionary ().setNeedToBeUpdate (true);
+        document.getDocumentInformation ().getDictionary ().setNeedToBeUpdate (true);
+
+        Files.copy (fileInput.toPath (), fileOutput.toPath (), StandardCopyOption.REPLACE_EXISTING);
+        FileInputStream fis = new FileInputStream (fileInput);
+        FileOutputStream fos = new FileOutputStream (fileOutput, true);
+        COSWriter writer = null;
+        try {
+            fos.write ("\r\n".getBytes ("ISO-8859-1"));
+            writer = new COSWriter (fos, fis);
+            writer.write (document);
+        } finally {
+            if (writer != null) {
+                writer.close ();
+            }
+            fis.close ();
+            fos.close ();
         }
     }
 
@@ -182,16 +780,16 @@ public class PDFFinish {
      * 
      * @param document Loaded PDF document.
      */
-    private static void showMetadata (PDDocument document) throws IOException {
+    private void showMetadata (PDDocument document) throws IOException {
         PDDocumentInformation info = document.getDocumentInformation ();
-        System.out.println ("Title: " + info.getTitle ());
-        System.out.println ("Author: " + info.getAuthor ());
-        System.out.println ("Subject: " + info.getSubject ());
-        System.out.println ("Keywords: " + info.getKeywords ());
-        System.out.println ("Creator: " + info.getCreator ());
-        System.out.println ("Producer: " + info.getProducer ());
-        System.out.println ("Creation Date: " + info.getCreationDate ());
-        System.out.println ("Modification Date: " + info.getModificationDate ());
+        out.println ("Title: " + info.getTitle ());
+        out.println ("Author: " + info.getAuthor ());
+        out.println ("Subject: " + info.getSubject ());
+        out.println ("Keywords: " + info.getKeywords ());
+        out.println ("Creator: " + info.getCreator ());
+        out.println ("Producer: " + info.getProducer ());
+        out.println ("Creation Date: " + info.getCreationDate ());
+        out.println ("Modification Date: " + info.getModificationDate ());
     }
 
     /**
@@ -200,7 +798,7 @@ public class PDFFinish {
      * @param document Loaded PDF document.
      * @throws IOException
      */
-    private void updateMetadata (PDDocument document) throws IOException {
+    void updateMetadata (PDDocument document) throws IOException {
         PDDocumentInformation info = document.getDocumentInformation ();
         if (title != null) {
             info.setTitle (title);
@@ -221,8 +819,8 @@ public class PDFFinish {
      * 
      * @param document Loaded PDF document.
      */
-    private static void showTOC (PDDocument document) {
-        System.out.println ("Table of Contents");
+    private void showTOC (PDDocument document) {
+        out.println ("Table of Contents");
         PDDocumentOutline outline = document.getDocumentCatalog ().getDocumentOutline ();
         if (outline != null) {
             showEntry (outline, "");
@@ -236,74 +834,288 @@ public class PDFFinish {
      * @param entry Starting node.
      * @param indent Spaces to precede output text.
      */
-    private static void showEntry (PDOutlineNode entry, String spaces) {
+    private void showEntry (PDOutlineNode entry, String spaces) {
         PDOutlineItem node = entry.getFirstChild ();
         while (node != null) {
-            System.out.println (spaces + node.getTitle ());
+            out.println (spaces + node.getTitle ());
             showEntry (node, spaces + "  ");
             node = node.getNextSibling ();
         }
     }
 
     /**
-     * Update table of contents in destination document.
+     * Find text in document matching the font filter, passing each text
+     * element to the listener in page order. Only pages in the configured
+     * page range are processed, stopping once the given number of text
+     * elements is found. The pages are split across threads if more than one
+     * thread is set, and the document was loaded from a file. The time taken
+     * is added to the metrics.
+     *
+     * @param document PDF document.
+     * @param fileInput PDF file the document was loaded from, null if loaded
+     * from a stream.
+     * @param fontFilterList List of fonts to match, null for all text.
+     * @param inventory Font inventory to record all text in, null for none.
+     * @param listener Receiver of text elements, null for none.
+     * @param maxMatches Maximum number of text elements, 0 for no limit.
+     * @throws IOException On error accessing PDF content.
+     */
+    private void findText (PDDocument document, File fileInput, List<PDFTextFinder.Font> fontFilterList,
+            FontInventory inventory, PDFTextFinder.Listener listener, int maxMatches) throws IOException {
+        long start = System.nanoTime ();
+        try {
+            if ((threads > 1) && (fileInput != null)) {
+                PDFParallelTextFinder finder = new PDFParallelTextFinder (fontFilterList, threads);
+                finder.setMemoryBudget (memoryBudget);
+                finder.setSizeTolerance (sizeTolerance);
+                finder.setInventory (inventory);
+                finder.setPageRange (pageRange);
+                finder.setMaxMatches (maxMatches);
+                finder.setSortByPosition (sortByPosition);
+                finder.setMetrics (metrics);
+                finder.setLimits (limits);
+                finder.process (fileInput, document.getNumberOfPages (), listener);
+            } else {
+                PDFTextFinder finder = new PDFTextFinder (fontFilterList);
+                finder.setSizeTolerance (sizeTolerance);
+                finder.setInventory (inventory);
+                finder.setPageRange (pageRange);
+                finder.setMaxMatches (maxMatches);
+                finder.setSortByPosition (sortByPosition);
+                finder.setMetrics (metrics);
+                finder.setLimits (limits);
+                finder.process (document, listener);
+            }
+        } finally {
+            metrics.addTime (PDFMetrics.EXTRACT, System.nanoTime () - start);
+        }
+    }
+
+    /**
+     * Read the text of a PDF file from the cache, adding the time taken to
+     * the metrics.
+     *
+     * @param cacheKey Cache key of the file.
+     * @param listener Receiver of text elements.
+     * @return True if the text was read from the cache, false if not in the
+     * cache or the entry could not be read.
+     * @throws IOException On error from listener.
+     */
+    private boolean readCache (String cacheKey, PDFTextFinder.Listener listener) throws IOException {
+        long start = System.nanoTime ();
+        try {
+            if (cache.read (cacheKey, listener)) {
+                metrics.add (PDFMetrics.CACHE_HITS, 1);
+                return (true);
+            }
+            return (false);
+        } finally {
+            metrics.addTime (PDFMetrics.EXTRACT, System.nanoTime () - start);
+        }
+    }
+
+    /**
+     * Get the cache key of a PDF file.
+     *
+     * @param fileInput PDF file, null if loaded from a stream.
+     * @return Cache key, null if there is no cache, no file, or the file cannot
+     * be read.
+     */
+    private String getCacheKey (File fileInput) {
+        if ((cache != null) && (fileInput != null)) {
+            try {
+                return (cache.getKey (fileInput, sortByPosition));
+            } catch (IOException e) {
+                reportError ("Error reading PDF for cache: " + e);
+            }
+        }
+        return (null);
+    }
+
+    /**
+     * Update table of contents in destination document. Each heading is added
+     * under the closest preceding heading of a higher level, or the top item
+     * if there is none. With automatic detection, the heading fonts are
+     * detected from all the text, found in a single pass. The time taken,
+     * other than finding the text, is added to the metrics as the outline
+     * time.
      * 
      * @param document PDF document to update.
+     * @param fileInput PDF file the document was loaded from, null if loaded
+     * from a stream.
      */
-    private void updateTOC (PDDocument document) {
+    void updateTOC (PDDocument document, File fileInput) {
+        long start = System.nanoTime ();
+        long extractStart = metrics.getTime (PDFMetrics.EXTRACT);
         PDDocumentOutline outline = new PDDocumentOutline ();
         document.getDocumentCatalog ().setDocumentOutline (outline);
         PDOutlineItem topItem = new PDOutlineItem ();
         topItem.setTitle (title);
         outline.appendChild (topItem);
 
-        try {
-            PDFTextFinder finder = new PDFTextFinder (fontList);
-            List<PDFTextFinder.PDFText> headings = finder.getTextList (document);
-            PDOutlineItem level[] = { topItem, null, null, null };
-            for (PDFTextFinder.PDFText heading : headings) {
+        // add bookmark for each heading as found, the last bookmark at each
+        // level is kept as the parent of the following lower level headings
+        final List<?> pages = document.getDocumentCatalog ().getAllPages ();
+        int maxLevel = HeadingDetector.MAX_LEVELS;
+        if (autoTOC == false) {
+            for (PDFTextFinder.Font font : fontList) {
+                maxLevel = Math.max (maxLevel, font.tag);
+            }
+        }
+        final PDOutlineItem level[] = new PDOutlineItem[maxLevel + 1];
+        level[0] = topItem;
+        PDFTextFinder.Listener listener = new PDFTextFinder.Listener () {
+            public void onText (PDFTextFinder.PDFText heading) {
                 PDPageXYZDestination dest = new PDPageXYZDestination ();
-                dest.setPage (heading.page);
+                dest.setPage ((PDPage) pages.get (heading.pageNumber - 1));
 
                 PDOutlineItem bookmark = new PDOutlineItem ();
                 bookmark.setDestination (dest);
                 bookmark.setTitle (heading.text);
-                level[heading.tag - 1].appendChild (bookmark);
+                int parent = heading.tag - 1;
+                while (level[parent] == null) {
+                    parent --;
+                }
+                level[parent].appendChild (bookmark);
                 level[heading.tag] = bookmark;
+                for (int index = heading.tag + 1; index < level.length; index ++) {
+                    level[index] = null;
+                }
+                metrics.add (PDFMetrics.HEADINGS, 1);
+            }
+        };
+        try {
+            // use the text from the cache if available, matching the fonts
+            String cacheKey = getCacheKey (fileInput);
+            if (autoTOC) {
+                HeadingDetector detector = new HeadingDetector (sizeTolerance);
+                if ((cacheKey == null) || (readCache (cacheKey, new PDFTextFinder.Filter (null,
+                        sizeTolerance, pageRange, 0, detector)) == false)) {
+                    findText (document, fileInput, null, null, detector, 0);
+                }
+                for (PDFTextFinder.Font font : detector.getHeadingFonts ()) {
+                    out.println ("Heading font: " + font.name + ":" + font.size + " level " + font.tag);
+                }
+                for (PDFTextFinder.PDFText heading : detector.getHeadings (maxHeadings)) {
+                    listener.onText (heading);
+                }
+            } else if ((cacheKey == null) || (readCache (cacheKey, new PDFTextFinder.Filter (fontList,
+                    sizeTolerance, pageRange, maxHeadings, listener)) == false)) {
+                findText (document, fileInput, fontList, null, listener, maxHeadings);
             }
+        } catch (LimitExceededException e) {
+            // reported by processPDF, which stops processing the document
         } catch (IOException e) {
-            System.out.println ("Error :" + e);
+            reportError ("Error :" + e);
         }
 
         topItem.openNode ();
         outline.openNode ();
+        metrics.addTime (PDFMetrics.OUTLINE, (System.nanoTime () - start) -
+            (metrics.getTime (PDFMetrics.EXTRACT) - extractStart));
     }
 
     /**
-     * Show list of fonts used in PDF document.
+     * Show list of fonts used in PDF document, with the number of characters
+     * and text fragments in each font, and the range of pages it is used on.
      * 
      * @param document PDF document.
+     * @param fileInput PDF file the document was loaded from, null if loaded
+     * from a stream.
+     * @param cacheKey Cache key of the file, null if not cached.
      */
-    private void showFonts (PDDocument document) {
+    void showFonts (PDDocument document, File fileInput, String cacheKey) {
         try {
-            PDFTextFinder finder = new PDFTextFinder (null);
-            List<PDFTextFinder.PDFText> elements = finder.getTextList (document);
-            
-            ArrayList<String> fontList = new ArrayList<String> ();
-            for (PDFTextFinder.PDFText element : elements) {
-                String font = element.font + ":" + element.fontSize;
-                if (fontList.indexOf (font) == -1) {
-                    fontList.add (font);
+            FontInventory inventory = (cacheKey == null) ? null : readInventory (cacheKey);
+            if (inventory == null) {
+                // survey a sample of the pages
+                int pageCount = document.getNumberOfPages ();
+                if ((samplePages > 0) && (samplePages < pageCount)) {
+                    showFontSurvey (document, fileInput, new FontSurvey (pageCount, samplePages));
+                    return;
+                }
+
+                // find the text, adding it to the cache
+                inventory = new FontInventory ();
+                if (cacheKey == null) {
+                    findText (document, fileInput, null, inventory, null, 0);
+                } else {
+                    ExtractionCache.Entry entry = cache.create (cacheKey);
+                    try {
+                        findText (document, fileInput, null, inventory, entry, 0);
+                        entry.commit ();
+                    } catch (IOException e) {
+                        entry.abort ();
+                        throw e;
+                    }
                 }
             }
-            
-            System.out.println ("\nFonts\n");
-            java.util.Collections.sort (fontList);
-            for (String font : fontList) {
-                System.out.println (font);
-            }
+            showInventory (inventory);
         } catch (IOException e) {
-            System.out.println ("Error :" + e);
+            reportError ("Error :" + e);
+        }
+    }
+
+    /**
+     * Read the font use of a PDF file from the text in the cache.
+     *
+     * @param cacheKey Cache key of the file.
+     * @return Font inventory, or null if the text could not be read from the
+     * cache.
+     * @throws IOException On error reading the cache.
+     */
+    private FontInventory readInventory (String cacheKey) throws IOException {
+        final FontInventory inventory = new FontInventory ();
+        PDFTextFinder.Listener counter = new PDFTextFinder.Listener () {
+            public void onText (PDFTextFinder.PDFText text) {
+                inventory.add (text.font, text.fontSize, text.text.length (), text.pageNumber);
+            }
+        };
+        return (readCache (cacheKey, counter) ? inventory : null);
+    }
+
+    /**
+     * Show list of fonts in a font inventory, with the number of characters
+     * and text fragments in each font, and the range of pages it is used on.
+     *
+     * @param inventory Font inventory.
+     */
+    private void showInventory (FontInventory inventory) {
+        out.println ("\nFonts (characters, fragments, pages)\n");
+        for (FontInventory.Entry entry : inventory.getEntries ()) {
+            out.println (entry.font + ":" + entry.size + "  " + entry.characters + "  " +
+                entry.fragments + "  " + entry.firstPage + "-" + entry.lastPage);
+        }
+    }
+
+    /**
+     * Show the estimated use of the fonts in a PDF document from a sample of
+     * its pages, with the range of pages each font is likely used on. The
+     * text of the sample is not added to the cache.
+     *
+     * @param document PDF document.
+     * @param fileInput PDF file the document was loaded from, null if loaded
+     * from a stream.
+     * @param survey Font survey, with the pages to sample.
+     * @throws IOException On error accessing PDF content.
+     */
+    private void showFontSurvey (PDDocument document, File fileInput, FontSurvey survey) throws IOException {
+        PageRange allPages = pageRange;
+        pageRange = survey.getPageRange ();
+        try {
+            findText (document, fileInput, null, null, survey, 0);
+        } finally {
+            pageRange = allPages;
+        }
+
+        out.println ("\nFonts, sampled " + survey.getSampledPages () + " of " +
+            document.getNumberOfPages () + " pages (estimated characters, fragments, pages [95% range])\n");
+        for (FontSurvey.Estimate estimate : survey.getEstimates ()) {
+            out.println (estimate.font + ":" + estimate.size + "  " + estimate.characters + "  " +
+                estimate.fragments + "  " + estimate.pages + " [" + estimate.pagesLow + "-" +
+                estimate.pagesHigh + "]  " + estimate.firstPage + "-" + estimate.lastPage);
         }
+        out.println ("\nFonts used on fewer than " + (int) Math.ceil (survey.getDetectionLimit () * 100) +
+            "% of pages may not be listed, show without a sample for all fonts");
     }
 }
@@ -0,0 +1,826 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Write a PDF document linearized for fast web view, as described in Annex F
+ * of the PDF specification. The objects needed to show the first page come
+ * first, after the linearization parameters and the first page cross
+ * reference table, followed by the objects of each other page in page order,
+ * the objects shared by those pages, and all other objects. The hint stream
+ * gives the offset and length of each page and shared object, so a viewer
+ * can request the objects of any page without reading the whole file.
+ *
+ * The catalog, outline and document information are placed ahead of the
+ * first page, so the table of contents can be shown as soon as the first
+ * page.
+ *
+ * The document must have been loaded by the parser, so every indirect
+ * object is a COSObject. Streams are written with their data unchanged, and
+ * the document must not be encrypted.
+ */
+public class PDFLinearizer {
+    private static final COSName DOCUMENT_KEYS[] = {
+        COSName.OUTLINES, COSName.VIEWER_PREFERENCES, COSName.OPEN_ACTION, COSName.PAGE_LABELS
+    };
+    private static final byte BINARY_COMMENT[] = { '%', (byte) 0xe2, (byte) 0xe3, (byte) 0xcf, (byte) 0xd3, '\n' };
+    private static final int BUFFER_SIZE = 16384;
+
+    // object numbers, and objects of each part of the file, in file order
+    private IdentityHashMap<COSObject, Integer> numbers = new IdentityHashMap<COSObject, Integer> ();
+    private List<COSObject> pages = new ArrayList<COSObject> ();
+    private List<COSObject> documentObjects = new ArrayList<COSObject> ();
+    private List<COSObject> firstPageObjects = new ArrayList<COSObject> ();
+    private List<List<COSObject>> pageObjects = new ArrayList<List<COSObject>> ();
+    private List<COSObject> sharedObjects = new ArrayList<COSObject> ();
+    private List<COSObject> otherObjects = new ArrayList<COSObject> ();
+    private List<List<COSObject>> pageSharedObjects = new ArrayList<List<COSObject>> ();
+    private IdentityHashMap<COSObject, Boolean> shared = new IdentityHashMap<COSObject, Boolean> ();
+    private COSDictionary trailer;
+    private int mainSize;
+    private int linearizationNumber;
+    private int hintNumber;
+    private int size;
+
+    /**
+     * Counting output stream, discarding the data when used to find the
+     * length of objects.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private OutputStream out;
+        long count = 0;
+
+        CountingOutputStream (OutputStream out) {
+            this.out = out;
+        }
+
+        public void write (int b) throws IOException {
+            if (out != null) {
+                out.write (b);
+            }
+            count ++;
+        }
+
+        public void write (byte b[], int offset, int length) throws IOException {
+            if (out != null) {
+                out.write (b, offset, length);
+            }
+            count += length;
+        }
+
+        public void flush () throws IOException {
+            if (out != null) {
+                out.flush ();
+            }
+        }
+    }
+
+    /**
+     * Writer of bit packed hint table values, most significant bit first.
+     */
+    private static class BitWriter {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+        int bits = 0;
+        int bitCount = 0;
+
+        void write (long value, int count) {
+            for (int bit = count - 1; bit >= 0; bit --) {
+                bits = (bits << 1) | (int) ((value >> bit) & 1);
+                if (++ bitCount == 8) {
+                    bytes.write (bits);
+                    bits = 0;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        void align () {
+            if (bitCount > 0) {
+                write (0, 8 - bitCount);
+            }
+        }
+    }
+
+
+    /**
+     * Constructor.
+     */
+    public PDFLinearizer () {
+    }
+
+    /**
+     * Write the document linearized.
+     *
+     * @param document PDF document loaded by the parser.
+     * @param output Output stream, flushed but not closed once written.
+     * @throws IOException On error reading the document or writing the output.
+     */
+    public void write (PDDocument document, OutputStream output) throws IOException {
+        if (document.isEncrypted ()) {
+            throw new IOException ("Cannot linearize encrypted document");
+        }
+        trailer = document.getDocument ().getTrailer ();
+        COSBase root = trailer.getItem (COSName.ROOT);
+        COSBase info = trailer.getItem (COSName.INFO);
+        if ((root instanceof COSObject) == false) {
+            throw new IOException ("Catalog is not an indirect object");
+        }
+        assign ((COSObject) root, (info instanceof COSObject) ? (COSObject) info : null);
+        number ();
+
+        IdentityHashMap<COSObject, Long> lengths = new IdentityHashMap<COSObject, Long> ();
+        CountingOutputStream counter = new CountingOutputStream (null);
+        for (COSObject object : numbers.keySet ()) {
+            counter.count = 0;
+            writeObject (object, counter);
+            lengths.put (object, counter.count);
+        }
+
+        // layout of the objects as if the hint stream were not present, which
+        // is how the hint tables give offsets, then moved past the hint stream
+        byte header[] = ("%PDF-" + document.getDocument ().getVersion () + "\n").getBytes ("ISO-8859-1");
+        IdentityHashMap<COSObject, Long> offsets = new IdentityHashMap<COSObject, Long> ();
+        long offsetLinearization = header.length + BINARY_COMMENT.length;
+        long offsetFirstXref = offsetLinearization + formatLinearization (0, 0, 0, 0, 0).length;
+        long offsetHint = layout (documentObjects, offsetFirstXref + formatFirstXref (0, offsets, 0, 0).length,
+            lengths, offsets);
+        long offset = layout (firstPageObjects, offsetHint, lengths, offsets);
+        for (List<COSObject> objects : pageObjects) {
+            offset = layout (objects, offset, lengths, offsets);
+        }
+        offset = layout (sharedObjects, offset, lengths, offsets);
+        offset = layout (otherObjects, offset, lengths, offsets);
+        byte hint[] = formatHintStream (offsets, lengths);
+        for (COSObject object : offsets.keySet ()) {
+            if (offsets.get (object) >= offsetHint) {
+                offsets.put (object, offsets.get (object) + hint.length);
+            }
+        }
+        long endFirstPage = offsetHint + hint.length + getLength (firstPageObjects, lengths);
+        long offsetMainXref = offset + hint.length;
+        byte mainXref[] = formatMainXref (offsets, offsetFirstXref);
+        long length = offsetMainXref + mainXref.length;
+
+        CountingOutputStream out = new CountingOutputStream (output);
+        out.write (header);
+        out.write (BINARY_COMMENT);
+        out.write (formatLinearization (length, offsetHint, hint.length, endFirstPage,
+            offsetMainXref + ("xref\n0 " + mainSize).length ()));
+        out.write (formatFirstXref (offsetMainXref, offsets, offsetLinearization, offsetHint));
+        writeObjects (documentObjects, out, offsets);
+        out.write (hint);
+        writeObjects (firstPageObjects, out, offsets);
+        for (List<COSObject> objects : pageObjects) {
+            writeObjects (objects, out, offsets);
+        }
+        writeObjects (sharedObjects, out, offsets);
+        writeObjects (otherObjects, out, offsets);
+        out.write (mainXref);
+        if (out.count != length) {
+            throw new IOException ("Linearized file length " + out.count + " does not match layout " + length);
+        }
+        out.flush ();
+    }
+
+    /**
+     * Assign each object to a part of the file. Objects used by the first
+     * page are written with it, objects used only by one other page are
+     * written with that page, and objects used by several pages are written
+     * after the pages.
+     *
+     * @param root Catalog.
+     * @param info Document information, may be null.
+     * @throws IOException If the page tree is not valid.
+     */
+    private void assign (COSObject root, COSObject info) throws IOException {
+        IdentityHashMap<COSObject, Boolean> stop = new IdentityHashMap<COSObject, Boolean> ();
+        stop.put (root, Boolean.TRUE);
+        if (info != null) {
+            stop.put (info, Boolean.TRUE);
+        }
+        if ((root.getObject () instanceof COSDictionary) == false) {
+            throw new IOException ("Invalid catalog");
+        }
+        COSDictionary catalog = (COSDictionary) root.getObject ();
+        COSBase pageTree = catalog.getItem (COSName.PAGES);
+        if ((pageTree instanceof COSObject) == false) {
+            throw new IOException ("Page tree is not an indirect object");
+        }
+        addPages ((COSObject) pageTree, stop, 0);
+        if (pages.size () == 0) {
+            throw new IOException ("Document has no pages");
+        }
+
+        // objects used by each page, without following other pages, the page
+        // tree, catalog or document information
+        IdentityHashMap<COSObject, Integer> users = new IdentityHashMap<COSObject, Integer> ();
+        List<List<COSObject>> used = new ArrayList<List<COSObject>> ();
+        for (int index = 0; index < pages.size (); index ++) {
+            List<COSObject> objects = walk (pages.get (index), stop);
+            for (COSObject object : objects) {
+                Integer user = users.get (object);
+                if (user == null) {
+                    users.put (object, index);
+                } else if (user != index) {
+                    shared.put (object, Boolean.TRUE);
+                }
+            }
+            used.add (objects);
+        }
+        firstPageObjects.addAll (used.get (0));
+        for (int index = 0; index < pages.size (); index ++) {
+            List<COSObject> objects = new ArrayList<COSObject> ();
+            List<COSObject> sharedUsed = new ArrayList<COSObject> ();
+            for (COSObject object : used.get (index)) {
+                if (shared.containsKey (object)) {
+                    sharedUsed.add (object);
+                    if ((index > 0) && (users.get (object) == index)) {
+                        sharedObjects.add (object);
+                    }
+                } else if (index > 0) {
+                    objects.add (object);
+                }
+            }
+            if (index > 0) {
+                pageObjects.add (objects);
+            }
+            pageSharedObjects.add (sharedUsed);
+        }
+
+        // catalog, outline and document information ahead of the first page
+        documentObjects.add (root);
+        users.put (root, -1);
+        for (COSName key : DOCUMENT_KEYS) {
+            addUnassigned (walk (catalog.getItem (key), stop), users, documentObjects);
+        }
+        if (info != null) {
+            addUnassigned (walk (info, stop), users, documentObjects);
+        }
+
+        // all other objects, such as the page tree
+        addUnassigned (walk (trailer, new IdentityHashMap<COSObject, Boolean> ()), users, otherObjects);
+    }
+
+    /**
+     * Add the pages under a page tree node, in page order, adding the page
+     * tree nodes and pages to the stop set.
+     *
+     * @param node Page tree node or page.
+     * @param stop Objects not followed when finding the objects of a page.
+     * @param depth Depth of the node, to detect cycles.
+     * @throws IOException If the page tree is not valid.
+     */
+    private void addPages (COSObject node, IdentityHashMap<COSObject, Boolean> stop, int depth) throws IOException {
+        COSBase value = node.getObject ();
+        if (((value instanceof COSDictionary) == false) || stop.containsKey (node) || (depth > 64)) {
+            throw new IOException ("Invalid page tree");
+        }
+        stop.put (node, Boolean.TRUE);
+        COSBase kids = ((COSDictionary) value).getDictionaryObject (COSName.KIDS);
+        if (kids instanceof COSArray) {
+            for (int index = 0; index < ((COSArray) kids).size (); index ++) {
+                COSBase kid = ((COSArray) kids).get (index);
+                if ((kid instanceof COSObject) == false) {
+                    throw new IOException ("Page is not an indirect object");
+                }
+                addPages ((COSObject) kid, stop, depth + 1);
+            }
+        } else {
+            pages.add (node);
+        }
+    }
+
+    /**
+     * Find the indirect objects reachable from a value, without following
+     * objects in the stop set, other than the value itself. The length of a
+     * stream is not followed, as it is written as a direct object.
+     *
+     * @param start Starting value, may be null.
+     * @param stop Objects not followed.
+     * @return Objects reached, starting with the value if indirect.
+     */
+    private static List<COSObject> walk (COSBase start, IdentityHashMap<COSObject, Boolean> stop) {
+        List<COSObject> reached = new ArrayList<COSObject> ();
+        IdentityHashMap<COSBase, Boolean> visited = new IdentityHashMap<COSBase, Boolean> ();
+        ArrayList<COSBase> pending = new ArrayList<COSBase> ();
+        if (start != null) {
+            pending.add (start);
+        }
+        while (pending.size () > 0) {
+            COSBase base = pending.remove (pending.size () - 1);
+            if (visited.put (base, Boolean.TRUE) != null) {
+                continue;
+            }
+            if (base instanceof COSObject) {
+                if ((base == start) || (stop.containsKey (base) == false)) {
+                    reached.add ((COSObject) base);
+                    if (((COSObject) base).getObject () != null) {
+                        pending.add (((COSObject) base).getObject ());
+                    }
+                }
+            } else if (base instanceof COSDictionary) {
+                // added in reverse, so values are reached in dictionary order
+                ArrayList<COSName> keys = new ArrayList<COSName> (((COSDictionary) base).keySet ());
+                for (int index = keys.size () - 1; index >= 0; index --) {
+                    COSBase value = ((COSDictionary) base).getItem (keys.get (index));
+                    boolean length = (base instanceof COSStream) && COSName.LENGTH.equals (keys.get (index));
+                    if ((value != null) && (length == false)) {
+                        pending.add (value);
+                    }
+                }
+            } else if (base instanceof COSArray) {
+                for (int index = ((COSArray) base).size () - 1; index >= 0; index --) {
+                    COSBase value = ((COSArray) base).get (index);
+                    if (value != null) {
+                        pending.add (value);
+                    }
+                }
+            }
+        }
+        return (reached);
+    }
+
+    /**
+     * Add objects not yet assigned to a part of the file.
+     *
+     * @param objects Objects reached.
+     * @param users Objects assigned to a part of the file.
+     * @param part Part to add the objects to.
+     */
+    private static void addUnassigned (List<COSObject> objects, IdentityHashMap<COSObject, Integer> users,
+            List<COSObject> part) {
+        for (COSObject object : objects) {
+            if (users.containsKey (object) == false) {
+                users.put (object, -1);
+                part.add (object);
+            }
+        }
+    }
+
+    /**
+     * Number the objects. The main section, of the pages after the first,
+     * the shared objects and other objects, is numbered from 1. The first
+     * page section follows, with the linearization parameters, the document
+     * objects, the hint stream and the objects of the first page.
+     */
+    private void number () {
+        size = 1;
+        for (List<COSObject> objects : pageObjects) {
+            addNumbers (objects);
+        }
+        addNumbers (sharedObjects);
+        addNumbers (otherObjects);
+        mainSize = size;
+        linearizationNumber = size ++;
+        addNumbers (documentObjects);
+        hintNumber = size ++;
+        addNumbers (firstPageObjects);
+    }
+
+    /**
+     * Number a list of objects.
+     *
+     * @param objects Objects.
+     */
+    private void addNumbers (List<COSObject> objects) {
+        for (COSObject object : objects) {
+            numbers.put (object, size ++);
+        }
+    }
+
+    /**
+     * Lay out a list of objects.
+     *
+     * @param objects Objects.
+     * @param offset Offset of the first object.
+     * @param lengths Length of each object.
+     * @param offsets Offset of each object, updated.
+     * @return Offset following the objects.
+     */
+    private static long layout (List<COSObject> objects, long offset, IdentityHashMap<COSObject, Long> lengths,
+            IdentityHashMap<COSObject, Long> offsets) {
+        for (COSObject object : objects) {
+            offsets.put (object, offset);
+            offset += lengths.get (object);
+        }
+        return (offset);
+    }
+
+    /**
+     * Get total length of a list of objects.
+     *
+     * @param objects Objects.
+     * @param lengths Length of each object.
+     * @return Total length in bytes.
+     */
+    private static long getLength (List<COSObject> objects, IdentityHashMap<COSObject, Long> lengths) {
+        long length = 0;
+        for (COSObject object : objects) {
+            length += lengths.get (object);
+        }
+        return (length);
+    }
+
+    /**
+     * Format the linearization parameter dictionary, with fixed width
+     * numbers so its length does not depend on the layout.
+     *
+     * @param length File length.
+     * @param offsetHint Offset of the hint stream.
+     * @param lengthHint Length of the hint stream.
+     * @param endFirstPage Offset of the end of the first page.
+     * @param offsetMainEntries Offset of the white space before the first
+     * entry of the main cross reference table.
+     * @return Formatted object.
+     * @throws IOException On encoding error.
+     */
+    private byte[] formatLinearization (long length, long offsetHint, long lengthHint, long endFirstPage,
+            long offsetMainEntries) throws IOException {
+        return (String.format ("%d 0 obj\n<< /Linearized 1 /L %10d /H [ %10d %10d ] /O %d /E %10d /N %d /T %10d >>\n" +
+            "endobj\n", linearizationNumber, length, offsetHint, lengthHint, numbers.get (pages.get (0)), endFirstPage,
+            pages.size (), offsetMainEntries).getBytes ("ISO-8859-1"));
+    }
+
+    /**
+     * Format the first page cross reference table and trailer, with a fixed
+     * width offset of the main cross reference table.
+     *
+     * @param offsetMainXref Offset of the main cross reference table.
+     * @param offsets Offset of each object, empty to find the length only.
+     * @param offsetLinearization Offset of the linearization parameters.
+     * @param offsetHint Offset of the hint stream.
+     * @return Formatted table and trailer.
+     * @throws IOException On error formatting the trailer.
+     */
+    private byte[] formatFirstXref (long offsetMainXref, IdentityHashMap<COSObject, Long> offsets,
+            long offsetLinearization, long offsetHint) throws IOException {
+        long entries[] = new long[size - mainSize];
+        entries[0] = offsetLinearization;
+        entries[hintNumber - mainSize] = offsetHint;
+        for (COSObject object : offsets.keySet ()) {
+            int number = numbers.get (object);
+            if (number >= mainSize) {
+                entries[number - mainSize] = offsets.get (object);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        out.write (("xref\n" + mainSize + " " + entries.length + "\n").getBytes ("ISO-8859-1"));
+        for (long entry : entries) {
+            out.write (String.format ("%010d 00000 n\r\n", entry).getBytes ("ISO-8859-1"));
+        }
+        out.write (("trailer\n<< /Size " + size).getBytes ("ISO-8859-1"));
+        COSName keys[] = { COSName.ROOT, COSName.INFO, COSName.ID };
+        for (COSName key : keys) {
+            if (trailer.getItem (key) != null) {
+                out.write (' ');
+                writeValue (key, out);
+                out.write (' ');
+                writeValue (trailer.getItem (key), out);
+            }
+        }
+        out.write (String.format (" /Prev %10d >>\nstartxref\n0\n%%%%EOF\n", offsetMainXref).getBytes ("ISO-8859-1"));
+        return (out.toByteArray ());
+    }
+
+    /**
+     * Format the main cross reference table and trailer.
+     *
+     * @param offsets Offset of each object.
+     * @param offsetFirstXref Offset of the first page cross reference table.
+     * @return Formatted table and trailer.
+     * @throws IOException On encoding error.
+     */
+    private byte[] formatMainXref (IdentityHashMap<COSObject, Long> offsets, long offsetFirstXref) throws IOException {
+        long entries[] = new long[mainSize];
+        for (COSObject object : offsets.keySet ()) {
+            int number = numbers.get (object);
+            if (number < mainSize) {
+                entries[number] = offsets.get (object);
+            }
+        }
+        StringBuilder out = new StringBuilder ();
+        out.append ("xref\n0 ").append (mainSize).append ("\n0000000000 65535 f\r\n");
+        for (int number = 1; number < mainSize; number ++) {
+            out.append (String.format ("%010d 00000 n\r\n", entries[number]));
+        }
+        out.append ("trailer\n<< /Size ").append (mainSize).append (" >>\nstartxref\n").append (offsetFirstXref);
+        out.append ("\n%%EOF\n");
+        return (out.toString ().getBytes ("ISO-8859-1"));
+    }
+
+    /**
+     * Format the hint stream, with the page offset hint table and the shared
+     * object hint table. The offsets are those of the objects as if the hint
+     * stream were not present, as the hint tables require.
+     *
+     * @param offsets Offset of each object, without the hint stream.
+     * @param lengths Length of each object.
+     * @return Formatted hint stream object.
+     * @throws IOException On error compressing the stream.
+     */
+    private byte[] formatHintStream (IdentityHashMap<COSObject, Long> offsets, IdentityHashMap<COSObject, Long> lengths)
+            throws IOException {
+        // number of objects and length of each page, the first page including
+        // the shared objects it uses
+        long pageCounts[] = new long[pages.size ()];
+        long pageLengths[] = new long[pages.size ()];
+        pageCounts[0] = firstPageObjects.size ();
+        pageLengths[0] = getLength (firstPageObjects, lengths);
+        for (int index = 1; index < pages.size (); index ++) {
+            pageCounts[index] = pageObjects.get (index - 1).size ();
+            pageLengths[index] = getLength (pageObjects.get (index - 1), lengths);
+        }
+
+        // offset of the content streams of each page from the start of the
+        // page, and their length, 0 if they are not written with the page
+        long contentOffsets[] = new long[pages.size ()];
+        long contentLengths[] = new long[pages.size ()];
+        for (int index = 0; index < pages.size (); index ++) {
+            long start = offsets.get ((index == 0) ? firstPageObjects.get (0) : pageObjects.get (index - 1).get (0));
+            long first = -1;
+            long end = -1;
+            for (COSObject content : getContents (pages.get (index))) {
+                Long offset = offsets.get (content);
+                if ((offset != null) && (offset >= start) && (offset < start + pageLengths[index])) {
+                    first = (first < 0) ? offset : Math.min (first, offset);
+                    end = Math.max (end, offset + lengths.get (content));
+                }
+            }
+            if (first >= 0) {
+                contentOffsets[index] = first - start;
+                contentLengths[index] = end - first;
+            }
+        }
+
+        // shared object identifiers, first page objects followed by shared objects
+        List<COSObject> groups = new ArrayList<COSObject> (firstPageObjects);
+        groups.addAll (sharedObjects);
+        IdentityHashMap<COSObject, Integer> identifiers = new IdentityHashMap<COSObject, Integer> ();
+        long groupLengths[] = new long[groups.size ()];
+        int maxShared = 0;
+        for (int index = 0; index < groups.size (); index ++) {
+            identifiers.put (groups.get (index), index);
+            groupLengths[index] = lengths.get (groups.get (index));
+        }
+        for (List<COSObject> objects : pageSharedObjects) {
+            maxShared = Math.max (maxShared, objects.size ());
+        }
+
+        // page offset hint table, each item for all pages starting on a byte
+        // boundary
+        BitWriter hint = new BitWriter ();
+        long minCount = min (pageCounts);
+        long minLength = min (pageLengths);
+        long minContentOffset = min (contentOffsets);
+        long minContentLength = min (contentLengths);
+        int bitsCount = bits (max (pageCounts) - minCount);
+        int bitsLength = bits (max (pageLengths) - minLength);
+        int bitsContentOffset = bits (max (contentOffsets) - minContentOffset);
+        int bitsContentLength = bits (max (contentLengths) - minContentLength);
+        int bitsShared = bits (maxShared);
+        int bitsIdentifier = bits (groups.size () - 1);
+        hint.write (minCount, 32);
+        hint.write (offsets.get (firstPageObjects.get (0)), 32);
+        hint.write (bitsCount, 16);
+        hint.write (minLength, 32);
+        hint.write (bitsLength, 16);
+        hint.write (minContentOffset, 32);
+        hint.write (bitsContentOffset, 16);
+        hint.write (minContentLength, 32);
+        hint.write (bitsContentLength, 16);
+        hint.write (bitsShared, 16);
+        hint.write (bitsIdentifier, 16);
+        hint.write (0, 16);
+        hint.write (1, 16);
+        writeItems (hint, pageCounts, minCount, bitsCount);
+        writeItems (hint, pageLengths, minLength, bitsLength);
+        for (List<COSObject> objects : pageSharedObjects) {
+            hint.write (objects.size (), bitsShared);
+        }
+        hint.align ();
+        for (List<COSObject> objects : pageSharedObjects) {
+            for (COSObject object : objects) {
+                hint.write (identifiers.get (object), bitsIdentifier);
+            }
+        }
+        hint.align ();
+        writeItems (hint, contentOffsets, minContentOffset, bitsContentOffset);
+        writeItems (hint, contentLengths, minContentLength, bitsContentLength);
+
+        // shared object hint table, with a group for each object
+        int offsetShared = hint.bytes.size ();
+        long minGroupLength = min (groupLengths);
+        int bitsGroupLength = bits (max (groupLengths) - minGroupLength);
+        boolean hasShared = sharedObjects.size () > 0;
+        hint.write (hasShared ? numbers.get (sharedObjects.get (0)) : 0, 32);
+        hint.write (hasShared ? offsets.get (sharedObjects.get (0)) : 0, 32);
+        hint.write (firstPageObjects.size (), 32);
+        hint.write (groups.size (), 32);
+        hint.write (0, 16);
+        hint.write (minGroupLength, 32);
+        hint.write (bitsGroupLength, 16);
+        writeItems (hint, groupLengths, minGroupLength, bitsGroupLength);
+        writeItems (hint, new long[groups.size ()], 0, 1);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream ();
+        DeflaterOutputStream deflater = new DeflaterOutputStream (compressed);
+        hint.bytes.writeTo (deflater);
+        deflater.close ();
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        out.write ((hintNumber + " 0 obj\n<< /Filter /FlateDecode /Length " + compressed.size () + " /S " +
+            offsetShared + " >>\nstream\r\n").getBytes ("ISO-8859-1"));
+        compressed.writeTo (out);
+        out.write ("\r\nendstream\nendobj\n".getBytes ("ISO-8859-1"));
+        return (out.toByteArray ());
+    }
+
+    /**
+     * Get the content streams of a page.
+     *
+     * @param page Page.
+     * @return Indirect content streams, in page order.
+     */
+    private static List<COSObject> getContents (COSObject page) {
+        List<COSObject> contents = new ArrayList<COSObject> ();
+        COSBase value = ((COSDictionary) page.getObject ()).getItem (COSName.CONTENTS);
+        if (value instanceof COSObject) {
+            if (((COSObject) value).getObject () instanceof COSArray) {
+                value = ((COSObject) value).getObject ();
+            } else {
+                contents.add ((COSObject) value);
+            }
+        }
+        if (value instanceof COSArray) {
+            for (int index = 0; index < ((COSArray) value).size (); index ++) {
+                if (((COSArray) value).get (index) instanceof COSObject) {
+                    contents.add ((COSObject) ((COSArray) value).get (index));
+                }
+            }
+        }
+        return (contents);
+    }
+
+    /**
+     * Write a hint table item for each page or group, as the difference
+     * from the least value, ending on a byte boundary.
+     *
+     * @param hint Hint table writer.
+     * @param values Value for each page or group.
+     * @param min Least value.
+     * @param bits Number of bits for each difference.
+     */
+    private static void writeItems (BitWriter hint, long values[], long min, int bits) {
+        for (long value : values) {
+            hint.write (value - min, bits);
+        }
+        hint.align ();
+    }
+
+    /**
+     * @param values Values.
+     * @return Least value, 0 if none.
+     */
+    private static long min (long values[]) {
+        long min = (values.length > 0) ? values[0] : 0;
+        for (long value : values) {
+            min = Math.min (min, value);
+        }
+        return (min);
+    }
+
+    /**
+     * @param values Values.
+     * @return Greatest value, 0 if none.
+     */
+    private static long max (long values[]) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max (max, value);
+        }
+        return (max);
+    }
+
+    /**
+     * @param value Value, at least 0.
+     * @return Number of bits needed to represent the value.
+     */
+    private static int bits (long value) {
+        return (64 - Long.numberOfLeadingZeros (value));
+    }
+
+    /**
+     * Write a list of objects, checking each is at its laid out offset.
+     *
+     * @param objects Objects.
+     * @param out Output stream.
+     * @param offsets Offset of each object.
+     * @throws IOException On error writing, or if an object is not at its offset.
+     */
+    private void writeObjects (List<COSObject> objects, CountingOutputStream out,
+            IdentityHashMap<COSObject, Long> offsets) throws IOException {
+        for (COSObject object : objects) {
+            if (out.count != offsets.get (object)) {
+                throw new IOException ("Linearized object offset " + out.count + " does not match layout " +
+                    offsets.get (object));
+            }
+            writeObject (object, out);
+        }
+    }
+
+    /**
+     * Write an indirect object.
+     *
+     * @param object Object.
+     * @param out Output stream.
+     * @throws IOException On error writing.
+     */
+    private void writeObject (COSObject object, OutputStream out) throws IOException {
+        out.write ((numbers.get (object) + " 0 obj\n").getBytes ("ISO-8859-1"));
+        writeValue ((object.getObject () != null) ? object.getObject () : COSNull.NULL, out);
+        out.write ("\nendobj\n".getBytes ("ISO-8859-1"));
+    }
+
+    /**
+     * Write a direct value, writing references to indirect objects by their
+     * new object number. Streams are written with their length as a direct
+     * object.
+     *
+     * @param value Value.
+     * @param out Output stream.
+     * @throws IOException On error writing.
+     */
+    private void writeValue (COSBase value, OutputStream out) throws IOException {
+        if (value instanceof COSObject) {
+            Integer number = numbers.get (value);
+            out.write (((number != null) ? number + " 0 R" : "null").getBytes ("ISO-8859-1"));
+        } else if (value instanceof COSDictionary) {
+            COSDictionary dictionary = (COSDictionary) value;
+            boolean stream = value instanceof COSStream;
+            out.write ("<<".getBytes ("ISO-8859-1"));
+            for (COSName key : dictionary.keySet ()) {
+                COSBase item = dictionary.getItem (key);
+                if ((item != null) && ((stream && COSName.LENGTH.equals (key)) == false)) {
+                    out.write (' ');
+                    key.writePDF (out);
+                    out.write (' ');
+                    writeValue (item, out);
+                }
+            }
+            if (stream) {
+                out.write ((" /Length " + ((COSStream) value).getFilteredLength ()).getBytes ("ISO-8859-1"));
+            }
+            out.write (" >>".getBytes ("ISO-8859-1"));
+            if (stream) {
+                out.write ("\nstream\r\n".getBytes ("ISO-8859-1"));
+                InputStream in = ((COSStream) value).getFilteredStream ();
+                try {
+                    byte buffer[] = new byte[BUFFER_SIZE];
+                    int length;
+                    while ((length = in.read (buffer)) != -1) {
+                        out.write (buffer, 0, length);
+                    }
+                } finally {
+                    in.close ();
+                }
+                out.write ("\r\nendstream".getBytes ("ISO-8859-1"));
+            }
+        } else if (value instanceof COSArray) {
+            out.write ('[');
+            for (int index = 0; index < ((COSArray) value).size (); index ++) {
+                out.write (' ');
+                writeValue (((COSArray) value).get (index), out);
+            }
+            out.write (" ]".getBytes ("ISO-8859-1"));
+        } else if (value instanceof COSName) {
+            ((COSName) value).writePDF (out);
+        } else if (value instanceof COSString) {
+            ((COSString) value).writePDF (out);
+        } else if (value instanceof COSInteger) {
+            ((COSInteger) value).writePDF (out);
+        } else if (value instanceof COSFloat) {
+            ((COSFloat) value).writePDF (out);
+        } else if (value instanceof COSBoolean) {
+            ((COSBoolean) value).writePDF (out);
+        } else {
+            COSNull.NULL.writePDF (out);
+        }
+    }
+}
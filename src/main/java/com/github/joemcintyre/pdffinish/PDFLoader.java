@@ -0,0 +1,182 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.io.RandomAccessFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Load PDF documents within a memory budget. Documents larger than the
+ * budget are loaded with a scratch file holding the stream data, rather
+ * than holding it on the heap, so heap use does not grow with the size of
+ * the page content. Each loader handles a single document at a time.
+ */
+public class PDFLoader {
+    private long memoryBudget = 0;
+    private File scratchFile = null;
+
+    /**
+     * Constructor.
+     */
+    public PDFLoader () {
+    }
+
+    /**
+     * Set the memory budget.
+     *
+     * @param memoryBudget Memory budget in bytes, 0 for no limit.
+     */
+    public void setMemoryBudget (long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Get the memory budget.
+     *
+     * @return Memory budget in bytes, 0 for no limit.
+     */
+    public long getMemoryBudget () {
+        return (memoryBudget);
+    }
+
+    /**
+     * Load PDF document, using a scratch file if the document exceeds the
+     * memory budget.
+     *
+     * @param file PDF file.
+     * @return Loaded document.
+     * @throws IOException On error reading the document.
+     */
+    public PDDocument load (File file) throws IOException {
+        try {
+            return (PDDocument.load (file, createScratchFile (file.length ())));
+        } catch (IOException e) {
+            deleteScratchFile ();
+            throw e;
+        }
+    }
+
+    /**
+     * Load PDF document from a stream, such as stdin. As the size of the
+     * document is not known in advance, a scratch file is used whenever a
+     * memory budget is set.
+     *
+     * @param input PDF input stream, closed once read.
+     * @return Loaded document.
+     * @throws IOException On error reading the document.
+     */
+    public PDDocument load (InputStream input) throws IOException {
+        try {
+            return (PDDocument.load (input, createScratchFile (Long.MAX_VALUE)));
+        } catch (IOException e) {
+            deleteScratchFile ();
+            throw e;
+        }
+    }
+
+    /**
+     * Load only the metadata and outline of a PDF document, parsing objects
+     * on demand so pages and their content are never read. Falls back to
+     * loading the full document if the file cannot be parsed this way,
+     * including when the parser fails with a runtime exception on a damaged
+     * file.
+     *
+     * @param file PDF file.
+     * @return Loaded document, with catalog, information and outline only.
+     * @throws IOException On error reading the document.
+     */
+    public PDDocument loadMetadata (File file) throws IOException {
+        try {
+            return (PDFMetadataParser.load (file, createScratchFile (file.length ())));
+        } catch (IOException e) {
+            deleteScratchFile ();
+            return (load (file));
+        } catch (RuntimeException e) {
+            deleteScratchFile ();
+            return (load (file));
+        }
+    }
+
+    /**
+     * Create scratch file if the document exceeds the memory budget.
+     *
+     * @param length Length of the PDF document in bytes.
+     * @return Scratch file, or null if the document fits the budget.
+     * @throws IOException On error creating the scratch file.
+     */
+    private RandomAccess createScratchFile (long length) throws IOException {
+        if ((memoryBudget > 0) && (length > memoryBudget)) {
+            scratchFile = File.createTempFile ("pdffinish", ".scratch");
+            scratchFile.deleteOnExit ();
+            return (new RandomAccessFile (scratchFile, "rw"));
+        }
+        return (null);
+    }
+
+    /**
+     * Close document loaded by this loader, removing any scratch file.
+     *
+     * @param document Loaded document.
+     * @throws IOException On error closing the document.
+     */
+    public void close (PDDocument document) throws IOException {
+        try {
+            document.close ();
+        } finally {
+            deleteScratchFile ();
+        }
+    }
+
+    /**
+     * Remove scratch file, if one was created.
+     */
+    private void deleteScratchFile () {
+        if (scratchFile != null) {
+            scratchFile.delete ();
+            scratchFile = null;
+        }
+    }
+
+    /**
+     * Parse a size, in bytes or with a k, m or g suffix.
+     *
+     * @param value Size, such as 1048576, 512k, 256m or 1g.
+     * @return Size in bytes, or -1 if not a valid size.
+     */
+    public static long parseSize (String value) {
+        if ((value == null) || (value.length () == 0)) {
+            return (-1);
+        }
+
+        long multiplier = 1;
+        char suffix = Character.toLowerCase (value.charAt (value.length () - 1));
+        if (suffix == 'k') {
+            multiplier = 1024L;
+        } else if (suffix == 'm') {
+            multiplier = 1024L * 1024L;
+        } else if (suffix == 'g') {
+            multiplier = 1024L * 1024L * 1024L;
+        }
+        if (multiplier > 1) {
+            value = value.substring (0, value.length () - 1);
+        }
+
+        try {
+            long size = Long.parseLong (value.trim ());
+            return ((size < 0) ? -1 : size * multiplier);
+        } catch (NumberFormatException e) {
+            return (-1);
+        }
+    }
+}
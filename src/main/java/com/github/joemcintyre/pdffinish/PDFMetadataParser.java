@@ -0,0 +1,149 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.pdfparser.NonSequentialPDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Parser reading only the trailer, document catalog, information dictionary
+ * and outline of a PDF file. Objects are parsed on demand from the xref
+ * table, so the page tree, page content streams, fonts and images are not
+ * read. The resulting document can be used to show metadata and ToC, and to
+ * write an incremental update of the catalog and information dictionary.
+ *
+ * PDFBox only takes the minimal catalog parse mode from a system property,
+ * which would change the parse mode of parsers created on other threads, so
+ * the mode is set in the parser instance instead.
+ */
+public class PDFMetadataParser extends NonSequentialPDFParser {
+    private static final String PARSE_MINIMAL_FIELD = "parseMinimalCatalog";
+
+    /**
+     * Constructor, setting the minimal catalog parse mode.
+     *
+     * @param file PDF file.
+     * @param scratchFile Scratch file for stream data, null to use memory.
+     * @throws IOException On error opening the file, or if the parse mode
+     * cannot be set.
+     */
+    private PDFMetadataParser (File file, RandomAccess scratchFile) throws IOException {
+        super (file, scratchFile, "");
+        try {
+            Field field = NonSequentialPDFParser.class.getDeclaredField (PARSE_MINIMAL_FIELD);
+            field.setAccessible (true);
+            field.setBoolean (this, true);
+        } catch (Exception e) {
+            pdfSource.close ();
+            document.close ();
+            throw new IOException ("Unable to set minimal parse mode: " + e);
+        }
+    }
+
+    /**
+     * Load the metadata and outline of a PDF file.
+     *
+     * @param file PDF file.
+     * @param scratchFile Scratch file for stream data, null to use memory.
+     * @return Document with catalog, information dictionary and outline loaded.
+     * @throws IOException On error reading the file.
+     */
+    public static PDDocument load (File file, RandomAccess scratchFile) throws IOException {
+        PDFMetadataParser parser = new PDFMetadataParser (file, scratchFile);
+        try {
+            parser.parseHeader ();
+            parser.pdfSource.seek (0);
+            parser.initialParse ();
+            parser.parseMetadata ();
+            return (parser.getPDDocument ());
+        } catch (IOException e) {
+            parser.document.close ();
+            throw e;
+        } catch (RuntimeException e) {
+            parser.document.close ();
+            throw e;
+        } finally {
+            parser.pdfSource.close ();
+        }
+    }
+
+    /**
+     * Parse the entries of the catalog and information dictionary, and the
+     * outline tree. Entries are parsed one level deep, so the page tree root
+     * is available, but not the pages.
+     *
+     * @throws IOException On error parsing objects.
+     */
+    private void parseMetadata () throws IOException {
+        COSDictionary trailer = document.getTrailer ();
+        COSDictionary catalog = (COSDictionary) parse (trailer.getItem (COSName.ROOT));
+        parseEntries (catalog);
+        parseEntries ((COSDictionary) parse (trailer.getItem (COSName.INFO)));
+
+        // outline items, following first child and next sibling links
+        IdentityHashMap<COSDictionary, Boolean> parsed = new IdentityHashMap<COSDictionary, Boolean> ();
+        LinkedList<COSDictionary> pending = new LinkedList<COSDictionary> ();
+        COSBase outline = parse (catalog.getItem (COSName.OUTLINES));
+        if (outline instanceof COSDictionary) {
+            pending.add ((COSDictionary) outline);
+        }
+        while (pending.size () > 0) {
+            COSDictionary item = pending.removeFirst ();
+            if (parsed.put (item, Boolean.TRUE) == null) {
+                parse (item.getItem (COSName.TITLE));
+                for (COSName link : new COSName[] { COSName.FIRST, COSName.NEXT }) {
+                    COSBase next = parse (item.getItem (link));
+                    if (next instanceof COSDictionary) {
+                        pending.add ((COSDictionary) next);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse the direct entries of a dictionary.
+     *
+     * @param dict Dictionary, may be null.
+     * @throws IOException On error parsing objects.
+     */
+    private void parseEntries (COSDictionary dict) throws IOException {
+        if (dict != null) {
+            for (COSBase value : dict.getValues ()) {
+                parse (value);
+            }
+        }
+    }
+
+    /**
+     * Parse an indirect object, if not already parsed.
+     *
+     * @param base Object, may be a reference or null.
+     * @return Parsed object, or null.
+     * @throws IOException On error parsing the object.
+     */
+    private COSBase parse (COSBase base) throws IOException {
+        if (base instanceof COSObject) {
+            COSObject object = (COSObject) base;
+            if (object.getObject () == null) {
+                parseObjectDynamically (object, false);
+            }
+            return (object.getObject ());
+        }
+        return (base);
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.grack.nanojson.*;
+
+/**
+ * Metrics of processing PDF documents: the wall time of each phase, and
+ * counts of pages, text fragments, headings, bytes and errors. Counts may be
+ * added from several threads, and the metrics of several documents may be
+ * added together for totals.
+ */
+public class PDFMetrics implements PDFMetricsMBean {
+    public static final int LOAD = 0;
+    public static final int EXTRACT = 1;
+    public static final int OUTLINE = 2;
+    public static final int SAVE = 3;
+    public static final int OPTIMIZE = 4;
+    private static final String PHASE_NAMES[] = { "load", "extract", "outline", "save", "optimize" };
+
+    public static final int DOCUMENTS = 0;
+    public static final int FAILURES = 1;
+    public static final int ERRORS = 2;
+    public static final int PAGES = 3;
+    public static final int FRAGMENTS = 4;
+    public static final int MATCHES = 5;
+    public static final int HEADINGS = 6;
+    public static final int CACHE_HITS = 7;
+    public static final int INPUT_BYTES = 8;
+    public static final int OUTPUT_BYTES = 9;
+    public static final int BYTES_SAVED = 10;
+    public static final int SKIPPED = 11;
+    private static final String COUNTER_NAMES[] = {
+        "documents", "failures", "errors", "pages", "fragments", "matches", "headings",
+        "cacheHits", "inputBytes", "outputBytes", "bytesSaved", "skipped"
+    };
+
+    private AtomicLongArray phaseNanos = new AtomicLongArray (PHASE_NAMES.length);
+    private AtomicLongArray counters = new AtomicLongArray (COUNTER_NAMES.length);
+
+    /**
+     * Constructor.
+     */
+    public PDFMetrics () {
+    }
+
+    /**
+     * Add time spent in a phase.
+     *
+     * @param phase Phase, LOAD, EXTRACT, OUTLINE, SAVE or OPTIMIZE.
+     * @param nanos Wall time in nanoseconds.
+     */
+    public void addTime (int phase, long nanos) {
+        phaseNanos.addAndGet (phase, nanos);
+    }
+
+    /**
+     * Add to a counter.
+     *
+     * @param counter Counter, such as PAGES.
+     * @param value Value to add.
+     */
+    public void add (int counter, long value) {
+        counters.addAndGet (counter, value);
+    }
+
+    /**
+     * Add all times and counts of other metrics, such as those of a single
+     * document, to these.
+     *
+     * @param other Metrics to add.
+     */
+    public void addAll (PDFMetrics other) {
+        for (int index = 0; index < PHASE_NAMES.length; index ++) {
+            phaseNanos.addAndGet (index, other.phaseNanos.get (index));
+        }
+        for (int index = 0; index < COUNTER_NAMES.length; index ++) {
+            counters.addAndGet (index, other.counters.get (index));
+        }
+    }
+
+    /**
+     * Get time spent in a phase.
+     *
+     * @param phase Phase, LOAD, EXTRACT, OUTLINE, SAVE or OPTIMIZE.
+     * @return Wall time in nanoseconds.
+     */
+    public long getTime (int phase) {
+        return (phaseNanos.get (phase));
+    }
+
+    /**
+     * Get counter value.
+     *
+     * @param counter Counter, such as PAGES.
+     * @return Counter value.
+     */
+    public long get (int counter) {
+        return (counters.get (counter));
+    }
+
+    /**
+     * Get the metrics as a JSON object, with the counters as fields, and the
+     * time of each phase in milliseconds in a "phases" object.
+     *
+     * @return JSON object.
+     */
+    public JsonObject toJson () {
+        JsonObject json = new JsonObject ();
+        for (int index = 0; index < COUNTER_NAMES.length; index ++) {
+            json.put (COUNTER_NAMES[index], counters.get (index));
+        }
+        JsonObject phases = new JsonObject ();
+        for (int index = 0; index < PHASE_NAMES.length; index ++) {
+            phases.put (PHASE_NAMES[index], getMillis (index));
+        }
+        json.put ("phases", phases);
+        return (json);
+    }
+
+    /**
+     * Get time spent in a phase in milliseconds, to the microsecond.
+     *
+     * @param phase Phase.
+     * @return Wall time in milliseconds.
+     */
+    private double getMillis (int phase) {
+        return ((phaseNanos.get (phase) / 1000) / 1000.0);
+    }
+
+    // attributes of the JMX management interface, see PDFMetricsMBean
+
+    public long getDocuments () {
+        return (get (DOCUMENTS));
+    }
+
+    public long getFailures () {
+        return (get (FAILURES));
+    }
+
+    public long getErrors () {
+        return (get (ERRORS));
+    }
+
+    public long getPages () {
+        return (get (PAGES));
+    }
+
+    public long getFragments () {
+        return (get (FRAGMENTS));
+    }
+
+    public long getMatches () {
+        return (get (MATCHES));
+    }
+
+    public long getHeadings () {
+        return (get (HEADINGS));
+    }
+
+    public long getCacheHits () {
+        return (get (CACHE_HITS));
+    }
+
+    public long getInputBytes () {
+        return (get (INPUT_BYTES));
+    }
+
+    public long getOutputBytes () {
+        return (get (OUTPUT_BYTES));
+    }
+
+    public long getBytesSaved () {
+        return (get (BYTES_SAVED));
+    }
+
+    public long getSkipped () {
+        return (get (SKIPPED));
+    }
+
+    public double getLoadMillis () {
+        return (getMillis (LOAD));
+    }
+
+    public double getExtractMillis () {
+        return (getMillis (EXTRACT));
+    }
+
+    public double getOutlineMillis () {
+        return (getMillis (OUTLINE));
+    }
+
+    public double getSaveMillis () {
+        return (getMillis (SAVE));
+    }
+
+    public double getOptimizeMillis () {
+        return (getMillis (OPTIMIZE));
+    }
+}
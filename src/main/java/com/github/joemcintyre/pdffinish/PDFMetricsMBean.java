@@ -0,0 +1,100 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+/**
+ * JMX management interface of PDFMetrics, exposing the totals of all
+ * documents processed by a daemon.
+ */
+public interface PDFMetricsMBean {
+    /**
+     * @return Number of documents processed.
+     */
+    public long getDocuments ();
+
+    /**
+     * @return Number of documents that failed.
+     */
+    public long getFailures ();
+
+    /**
+     * @return Number of error messages reported.
+     */
+    public long getErrors ();
+
+    /**
+     * @return Number of pages text was found in.
+     */
+    public long getPages ();
+
+    /**
+     * @return Number of text fragments scanned.
+     */
+    public long getFragments ();
+
+    /**
+     * @return Number of text fragments matching the font list.
+     */
+    public long getMatches ();
+
+    /**
+     * @return Number of headings added to outlines.
+     */
+    public long getHeadings ();
+
+    /**
+     * @return Number of documents whose text was read from the cache.
+     */
+    public long getCacheHits ();
+
+    /**
+     * @return Bytes of PDF input read.
+     */
+    public long getInputBytes ();
+
+    /**
+     * @return Bytes of PDF output written.
+     */
+    public long getOutputBytes ();
+
+    /**
+     * @return Bytes saved by optimizing output.
+     */
+    public long getBytesSaved ();
+
+    /**
+     * @return Number of documents skipped as their output is up to date.
+     */
+    public long getSkipped ();
+
+    /**
+     * @return Time loading documents, in milliseconds.
+     */
+    public double getLoadMillis ();
+
+    /**
+     * @return Time finding text, in milliseconds.
+     */
+    public double getExtractMillis ();
+
+    /**
+     * @return Time building outlines, in milliseconds.
+     */
+    public double getOutlineMillis ();
+
+    /**
+     * @return Time saving documents, in milliseconds.
+     */
+    public double getSaveMillis ();
+
+    /**
+     * @return Time optimizing documents, in milliseconds.
+     */
+    public double getOptimizeMillis ();
+}
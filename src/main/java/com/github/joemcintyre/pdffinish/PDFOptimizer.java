@@ -0,0 +1,344 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Reduce the size of a PDF document before a full save. Streams with the
+ * same content and dictionary, such as font programs and images embedded
+ * more than once, are merged so a single copy is written. Streams that are
+ * uncompressed, or compressed only with generic filters, are recompressed
+ * with Flate at the highest compression level, if that makes them smaller.
+ * XMP metadata streams are left as they are, as PDF/A requires them to be
+ * unfiltered, so that they can be read without PDF support.
+ *
+ * A full save only writes the objects reachable from the trailer, so objects
+ * that are no longer referenced, including the merged duplicates, are not
+ * written. These are counted, but left in the loaded document, as the save
+ * drops them.
+ */
+public class PDFOptimizer {
+    private static final int MAX_MERGE_PASSES = 4;
+    private static final HashSet<COSName> GENERIC_FILTERS = new HashSet<COSName> (Arrays.asList (
+        COSName.FLATE_DECODE, COSName.LZW_DECODE, COSName.ASCII85_DECODE, COSName.ASCII_HEX_DECODE,
+        COSName.RUN_LENGTH_DECODE));
+
+    private int streamsMerged = 0;
+    private int streamsRecompressed = 0;
+    private int objectsUnreferenced = 0;
+    private long bytesSaved = 0;
+    private IdentityHashMap<COSStream, String> contentDigests = new IdentityHashMap<COSStream, String> ();
+
+    /**
+     * Constructor.
+     */
+    public PDFOptimizer () {
+    }
+
+    /**
+     * Optimize document. Encrypted documents are left unchanged, as their
+     * streams cannot be compared or recompressed.
+     *
+     * @param document Fully loaded PDF document.
+     * @return True if optimized, false if the document is encrypted.
+     * @throws IOException On error reading stream content.
+     */
+    public boolean optimize (PDDocument document) throws IOException {
+        if (document.isEncrypted ()) {
+            return (false);
+        }
+        COSDictionary trailer = document.getDocument ().getTrailer ();
+        IdentityHashMap<COSObject, COSObject> replacements = new IdentityHashMap<COSObject, COSObject> ();
+        List<COSObject> reachable = walk (trailer, replacements);
+        objectsUnreferenced = Math.max (0, document.getDocument ().getObjects ().size () - reachable.size ());
+
+        // merge streams until no duplicates remain, as merging streams such
+        // as image masks can make the streams that use them identical
+        for (int pass = 0; pass < MAX_MERGE_PASSES; pass ++) {
+            HashMap<String, COSObject> unique = new HashMap<String, COSObject> ();
+            for (COSObject object : reachable) {
+                COSBase base = object.getObject ();
+                if ((base instanceof COSStream) && isOptimizable ((COSStream) base)) {
+                    String key = getKey ((COSStream) base);
+                    COSObject original = unique.get (key);
+                    if (original == null) {
+                        unique.put (key, object);
+                    } else if (original.getObject () != base) {
+                        replacements.put (object, original);
+                        bytesSaved += ((COSStream) base).getFilteredLength ();
+                    }
+                }
+            }
+            if (replacements.size () == 0) {
+                break;
+            }
+            streamsMerged += replacements.size ();
+            walk (trailer, replacements);
+            replacements.clear ();
+            reachable = walk (trailer, replacements);
+        }
+
+        for (COSObject object : reachable) {
+            COSBase base = object.getObject ();
+            if ((base instanceof COSStream) && isOptimizable ((COSStream) base)) {
+                recompress ((COSStream) base);
+            }
+        }
+        return (true);
+    }
+
+    /**
+     * @return Number of duplicate streams merged.
+     */
+    public int getStreamsMerged () {
+        return (streamsMerged);
+    }
+
+    /**
+     * @return Number of streams recompressed.
+     */
+    public int getStreamsRecompressed () {
+        return (streamsRecompressed);
+    }
+
+    /**
+     * @return Number of objects found not reachable from the trailer, which
+     * are not written by a full save.
+     */
+    public int getObjectsUnreferenced () {
+        return (objectsUnreferenced);
+    }
+
+    /**
+     * @return Estimate of bytes saved, from the length of merged streams and
+     * the reduction in length of recompressed streams.
+     */
+    public long getBytesSaved () {
+        return (bytesSaved);
+    }
+
+    /**
+     * Walk the objects reachable from a root object, replacing references
+     * to objects that have a replacement.
+     *
+     * @param root Root object, such as the trailer.
+     * @param replacements Replacement of each object, may be empty.
+     * @return Indirect objects reached, in the order first reached.
+     */
+    private static List<COSObject> walk (COSBase root, IdentityHashMap<COSObject, COSObject> replacements) {
+        List<COSObject> reached = new ArrayList<COSObject> ();
+        IdentityHashMap<COSBase, Boolean> visited = new IdentityHashMap<COSBase, Boolean> ();
+        ArrayList<COSBase> pending = new ArrayList<COSBase> ();
+        pending.add (root);
+        while (pending.size () > 0) {
+            COSBase base = pending.remove (pending.size () - 1);
+            if (visited.put (base, Boolean.TRUE) != null) {
+                continue;
+            }
+            if (base instanceof COSObject) {
+                reached.add ((COSObject) base);
+                if (((COSObject) base).getObject () != null) {
+                    pending.add (((COSObject) base).getObject ());
+                }
+            } else if (base instanceof COSDictionary) {
+                COSDictionary dictionary = (COSDictionary) base;
+                for (COSName key : new ArrayList<COSName> (dictionary.keySet ())) {
+                    COSBase value = dictionary.getItem (key);
+                    COSObject replacement = replacements.get (value);
+                    if (replacement != null) {
+                        dictionary.setItem (key, replacement);
+                        value = replacement;
+                    }
+                    if (value != null) {
+                        pending.add (value);
+                    }
+                }
+            } else if (base instanceof COSArray) {
+                COSArray array = (COSArray) base;
+                for (int index = 0; index < array.size (); index ++) {
+                    COSBase value = array.get (index);
+                    COSObject replacement = replacements.get (value);
+                    if (replacement != null) {
+                        array.set (index, replacement);
+                        value = replacement;
+                    }
+                    if (value != null) {
+                        pending.add (value);
+                    }
+                }
+            }
+        }
+        return (reached);
+    }
+
+    /**
+     * Check if a stream can be merged or recompressed. Cross reference and
+     * object streams are rebuilt by the writer, and external streams have
+     * no content in the document.
+     *
+     * @param stream Stream.
+     * @return True if the stream can be optimized.
+     */
+    private static boolean isOptimizable (COSStream stream) {
+        COSBase type = stream.getDictionaryObject (COSName.TYPE);
+        return ((COSName.XREF.equals (type) == false) && (COSName.OBJ_STM.equals (type) == false) &&
+            (stream.containsKey (COSName.F) == false));
+    }
+
+    /**
+     * Get the key identifying the content and dictionary of a stream. The
+     * digest of the content is kept, as the content does not change between
+     * merge passes, while the references in the dictionary can.
+     *
+     * @param stream Stream.
+     * @return Key.
+     * @throws IOException On error reading the stream.
+     */
+    private String getKey (COSStream stream) throws IOException {
+        String digest = contentDigests.get (stream);
+        if (digest == null) {
+            digest = FileDigest.sha256 (stream.getFilteredStream ());
+            contentDigests.put (stream, digest);
+        }
+        StringBuilder key = new StringBuilder (digest);
+        describe (stream, key);
+        return (key.toString ());
+    }
+
+    /**
+     * Append a description of a value to a key, with dictionary entries in
+     * name order, and indirect objects by object number. The stream length
+     * is left out, as it is covered by the content.
+     *
+     * @param value Value.
+     * @param key Key to append to.
+     */
+    private static void describe (COSBase value, StringBuilder key) {
+        if (value instanceof COSObject) {
+            COSObject object = (COSObject) value;
+            key.append (" R").append (object.getObjectNumber ()).append ('.').append (object.getGenerationNumber ());
+        } else if (value instanceof COSDictionary) {
+            COSDictionary dictionary = (COSDictionary) value;
+            ArrayList<String> names = new ArrayList<String> ();
+            for (COSName name : dictionary.keySet ()) {
+                names.add (name.getName ());
+            }
+            Collections.sort (names);
+            key.append (" <<");
+            for (String name : names) {
+                if (name.equals (COSName.LENGTH.getName ()) == false) {
+                    key.append (" /").append (name);
+                    describe (dictionary.getItem (COSName.getPDFName (name)), key);
+                }
+            }
+            key.append (" >>");
+        } else if (value instanceof COSArray) {
+            key.append (" [");
+            for (int index = 0; index < ((COSArray) value).size (); index ++) {
+                describe (((COSArray) value).get (index), key);
+            }
+            key.append (" ]");
+        } else if (value instanceof COSString) {
+            key.append (" <").append (((COSString) value).getHexString ()).append ('>');
+        } else {
+            key.append (' ').append (value);
+        }
+    }
+
+    /**
+     * Recompress a stream with Flate, if it is not compressed, or is
+     * compressed only with generic filters without parameters, and the
+     * result is smaller. Metadata streams are not recompressed.
+     *
+     * @param stream Stream.
+     * @throws IOException On error reading the stream.
+     */
+    private void recompress (COSStream stream) throws IOException {
+        COSBase filters = stream.getFilters ();
+        if (COSName.METADATA.equals (stream.getDictionaryObject (COSName.TYPE))) {
+            return;
+        }
+        if ((stream.containsKey (COSName.DECODE_PARMS)) || (stream.containsKey (COSName.DP))) {
+            return;
+        }
+        if (filters instanceof COSName) {
+            if (GENERIC_FILTERS.contains (filters) == false) {
+                return;
+            }
+        } else if (filters instanceof COSArray) {
+            for (int index = 0; index < ((COSArray) filters).size (); index ++) {
+                if (GENERIC_FILTERS.contains (((COSArray) filters).get (index)) == false) {
+                    return;
+                }
+            }
+        } else if (filters != null) {
+            return;
+        }
+
+        long length = stream.getFilteredLength ();
+        byte compressed[] = deflate (stream.getUnfilteredStream ());
+        if (compressed.length < length) {
+            stream.setItem (COSName.FILTER, COSName.FLATE_DECODE);
+            OutputStream out = stream.createFilteredStream ();
+            try {
+                out.write (compressed);
+            } finally {
+                out.close ();
+            }
+            streamsRecompressed ++;
+            bytesSaved += length - compressed.length;
+        }
+    }
+
+    /**
+     * Compress data with Flate at the highest compression level.
+     *
+     * @param in Data, closed once read.
+     * @return Compressed data.
+     * @throws IOException On error reading the data.
+     */
+    private static byte[] deflate (InputStream in) throws IOException {
+        Deflater deflater = new Deflater (Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        byte buffer[] = new byte[16384];
+        byte output[] = new byte[16384];
+        try {
+            int length;
+            while ((length = in.read (buffer)) != -1) {
+                deflater.setInput (buffer, 0, length);
+                while (deflater.needsInput () == false) {
+                    out.write (output, 0, deflater.deflate (output));
+                }
+            }
+            deflater.finish ();
+            while (deflater.finished () == false) {
+                out.write (output, 0, deflater.deflate (output));
+            }
+        } finally {
+            deflater.end ();
+            in.close ();
+        }
+        return (out.toByteArray ());
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Text finder for PDF content, splitting the pages across multiple threads.
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.pdfbox.pdmodel.*;
+
+/**
+ * Find text in a PDF file that matches one of a set of fonts, using a
+ * PDFTextFinder for each range of pages, run on a pool of threads. The
+ * results are passed on in page order, giving the same text elements as a
+ * single PDFTextFinder.
+ *
+ * PDFBox documents are not safe for use from multiple threads, so each
+ * thread loads its own copy of the document from the file, and processes
+ * page ranges from a shared queue until all pages have been processed. With
+ * a memory budget, the copies share the budget with the copy already loaded
+ * by the caller: the number of threads is limited to the number of further
+ * copies of the file that fit in it, and each copy is loaded with an equal
+ * share, using a scratch file if it does not fit.
+ */
+public class PDFParallelTextFinder {
+    private static final int MIN_CHUNK_PAGES = 8;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private List<PDFTextFinder.Font> fontFilterList = null;
+    private int threads = 1;
+    private long memoryBudget = 0;
+    private float sizeTolerance = 0.0f;
+    private FontInventory inventory = null;
+    private PageRange pageRange = null;
+    private int maxMatches = 0;
+    private boolean sortByPosition = true;
+    private PDFMetrics metrics = null;
+    private DocumentLimits limits = null;
+
+    /**
+     * Constructor. Create the instance with the font list to process with.
+     *
+     * @param fontFilterList List of Font objects.
+     * @param threads Number of threads.
+     */
+    public PDFParallelTextFinder (List<PDFTextFinder.Font> fontFilterList, int threads) {
+        this.fontFilterList = fontFilterList;
+        this.threads = Math.max (1, threads);
+    }
+
+    /**
+     * Set the memory budget shared by the copies of the document the threads
+     * load, and the copy already loaded by the caller.
+     *
+     * @param memoryBudget Memory budget in bytes, 0 for no limit.
+     */
+    public void setMemoryBudget (long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set the tolerance for matching font sizes against the font list.
+     *
+     * @param sizeTolerance Maximum difference in font size for a match.
+     */
+    public void setSizeTolerance (float sizeTolerance) {
+        this.sizeTolerance = sizeTolerance;
+    }
+
+    /**
+     * Set the inventory to record the font usage of all text in. Each thread
+     * records into its own inventory, added to this one when it completes.
+     *
+     * @param inventory Font inventory, null for none.
+     */
+    public void setInventory (FontInventory inventory) {
+        this.inventory = inventory;
+    }
+
+    /**
+     * Set the pages to find text in.
+     *
+     * @param pageRange Page range, null for all pages.
+     */
+    public void setPageRange (PageRange pageRange) {
+        this.pageRange = pageRange;
+    }
+
+    /**
+     * Set the maximum number of matching text elements to pass on. Once the
+     * limit is reached, the remaining ranges of pages are skipped.
+     *
+     * @param maxMatches Maximum number of text elements, 0 for no limit.
+     */
+    public void setMaxMatches (int maxMatches) {
+        this.maxMatches = maxMatches;
+    }
+
+    /**
+     * Set whether text is sorted by position on each page, or processed in
+     * content stream order.
+     *
+     * @param sortByPosition True to sort text by position.
+     */
+    public void setSortByPosition (boolean sortByPosition) {
+        this.sortByPosition = sortByPosition;
+    }
+
+    /**
+     * Set the metrics to add the number of pages processed, and text
+     * fragments scanned and matched to, as each range of pages completes.
+     *
+     * @param metrics Metrics, null for none.
+     */
+    public void setMetrics (PDFMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the resource limits of the document, shared by all threads.
+     *
+     * @param limits Document limits, null for none.
+     */
+    public void setLimits (DocumentLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Find text in the specified PDF file, passing each matching text element
+     * to the listener in page order. The results for each range of pages are
+     * held only until the preceding ranges have been passed on.
+     *
+     * @param file PDF file.
+     * @param pageCount Number of pages in the document.
+     * @param listener Receiver of text elements, null if only the inventory
+     * is needed.
+     * @throws IOException On error accessing PDF content, or from listener.
+     * All threads have completed when an error is thrown.
+     */
+    public void process (File file, int pageCount, PDFTextFinder.Listener listener) throws IOException {
+        // split only the pages within the page range
+        final int firstPage = (pageRange == null) ? 1 : pageRange.getFirst ();
+        int lastPage = (pageRange == null) ? pageCount : Math.min (pageCount, pageRange.getLast ());
+        int pages = lastPage - firstPage + 1;
+        if (pages < 1) {
+            return;
+        }
+        final int chunkPages = Math.max (MIN_CHUNK_PAGES,
+            (pages + threads * CHUNKS_PER_THREAD - 1) / (threads * CHUNKS_PER_THREAD));
+        final int chunks = (pages + chunkPages - 1) / chunkPages;
+        final List<List<PDFTextFinder.PDFText>> results = new ArrayList<List<PDFTextFinder.PDFText>> ();
+        final CountDownLatch done[] = new CountDownLatch[chunks];
+        for (int index = 0; index < chunks; index ++) {
+            results.add (null);
+            done[index] = new CountDownLatch (1);
+        }
+
+        // with a memory budget, only as many copies as fit in the budget are
+        // loaded, each with an equal share, the caller's copy among them
+        int workerCount = getWorkerCount (Math.min (threads, chunks), memoryBudget, file.length ());
+        final long copyBudget = (memoryBudget > 0) ? Math.max (1, memoryBudget / (workerCount + 1)) : 0;
+
+        // each worker takes the next chunk of pages until none remain, once
+        // an error occurs or the match limit is reached the remaining chunks
+        // are skipped
+        final File fileInput = file;
+        final boolean collect = (listener != null);
+        final AtomicBoolean stopped = new AtomicBoolean (false);
+        final AtomicInteger nextChunk = new AtomicInteger (0);
+        final AtomicReference<Exception> error = new AtomicReference<Exception> ();
+        ArrayList<Callable<Void>> workers = new ArrayList<Callable<Void>> ();
+        for (int index = 0; index < workerCount; index ++) {
+            workers.add (new Callable<Void> () {
+                public Void call () {
+                    PDFLoader loader = new PDFLoader ();
+                    loader.setMemoryBudget (copyBudget);
+                    PDDocument copy = null;
+                    FontInventory chunkInventory = (inventory == null) ? null : new FontInventory ();
+                    int chunk;
+                    while ((chunk = nextChunk.getAndIncrement ()) < chunks) {
+                        try {
+                            if ((error.get () == null) && (stopped.get () == false)) {
+                                if (copy == null) {
+                                    copy = loader.load (fileInput);
+                                    if (limits != null) {
+                                        limits.check ();
+                                    }
+                                }
+                                PDFTextFinder finder = new PDFTextFinder (fontFilterList);
+                                finder.setSizeTolerance (sizeTolerance);
+                                finder.setInventory (chunkInventory);
+                                finder.setPageRange (pageRange);
+                                finder.setMaxMatches (maxMatches);
+                                finder.setSortByPosition (sortByPosition);
+                                finder.setMetrics (metrics);
+                                finder.setLimits (limits);
+                                finder.setStartPage (firstPage + chunk * chunkPages);
+                                finder.setEndPage (firstPage + (chunk + 1) * chunkPages - 1);
+                                if (collect) {
+                                    results.set (chunk, finder.getTextList (copy));
+                                } else {
+                                    finder.process (copy, null);
+                                }
+                            }
+                        } catch (Exception e) {
+                            error.compareAndSet (null, e);
+                        } finally {
+                            done[chunk].countDown ();
+                        }
+                    }
+                    if (chunkInventory != null) {
+                        synchronized (inventory) {
+                            inventory.addAll (chunkInventory);
+                        }
+                    }
+                    if (copy != null) {
+                        try {
+                            loader.close (copy);
+                        } catch (IOException e) {
+                            error.compareAndSet (null, e);
+                        }
+                    }
+                    return (null);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool (workers.size ());
+        try {
+            ArrayList<Future<Void>> running = new ArrayList<Future<Void>> ();
+            for (Callable<Void> worker : workers) {
+                running.add (pool.submit (worker));
+            }
+
+            // pass on results in page order as each chunk completes
+            int count = 0;
+            for (int chunk = 0; (chunk < chunks) && (stopped.get () == false); chunk ++) {
+                done[chunk].await ();
+                if (error.get () != null) {
+                    break;
+                }
+                try {
+                    if (collect) {
+                        for (PDFTextFinder.PDFText text : results.get (chunk)) {
+                            listener.onText (text);
+                            count ++;
+                            if ((maxMatches > 0) && (count >= maxMatches)) {
+                                stopped.set (true);
+                                break;
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    error.compareAndSet (null, e);
+                    throw e;
+                }
+                results.set (chunk, null);
+            }
+            for (Future<Void> worker : running) {
+                worker.get ();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+            throw new IOException ("Text extraction interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException ("Error extracting text: " + e.getCause ());
+        } finally {
+            // on error the workers skip their remaining chunks, wait for them
+            // to finish the current one and close their copies
+            stopped.set (true);
+            pool.shutdown ();
+            try {
+                pool.awaitTermination (Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread ().interrupt ();
+            }
+        }
+
+        if (error.get () instanceof IOException) {
+            throw (IOException) error.get ();
+        } else if (error.get () != null) {
+            throw new IOException ("Error extracting text: " + error.get ());
+        }
+    }
+
+    /**
+     * Get the number of threads loading a copy of the document. With a
+     * memory budget, the copy already loaded by the caller is one of the
+     * copies that fit in the budget, and at least one thread is used.
+     *
+     * @param threads Number of threads without a memory budget.
+     * @param memoryBudget Memory budget in bytes, 0 for no limit.
+     * @param fileLength Length of the PDF file.
+     * @return Number of threads.
+     */
+    static int getWorkerCount (int threads, long memoryBudget, long fileLength) {
+        if (memoryBudget > 0) {
+            long copies = memoryBudget / Math.max (1, fileLength);
+            return ((int) Math.max (1, Math.min (threads, copies - 1)));
+        }
+        return (threads);
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.grack.nanojson.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Daemon running show and update jobs sent over HTTP on the loopback
+ * interface, so repeated runs avoid the JVM startup and class loading time,
+ * and run with code already compiled by the JIT. Jobs run on a fixed pool of
+ * worker threads.
+ *
+ * The daemon port and an access token are written to a port file, readable
+ * only by the user, which clients read to find the daemon. Requests without
+ * the token are rejected, so other users cannot run jobs as this user. The
+ * default port file is in a directory only the user can access, the user
+ * runtime directory if there is one, and is created as a new file, so
+ * another user cannot provide the port file and receive the jobs.
+ *
+ * A job is a JSON object with the same fields as the configuration file,
+ * plus "input" and "output" file paths, or "show":true to show the input file
+ * information, and "cache":false to find text without the cache. The
+ * response is a JSON object with the "result" code, its "name", the "output"
+ * messages and the "metrics" of the job.
+ *
+ * The totals of the metrics of all jobs are registered as a JMX MBean while
+ * the daemon is running, named
+ * com.github.joemcintyre.pdffinish:type=Metrics,port=(daemon port).
+ */
+public class PDFServer {
+    public static final String TOKEN_HEADER = "X-PDFFinish-Token";
+
+    private HttpServer server;
+    private ExecutorService pool;
+    private String token;
+    private File portFile = null;
+    private ExtractionCache cache = null;
+    private PDFMetrics metrics = new PDFMetrics ();
+    private ObjectName metricsName = null;
+    private CountDownLatch stopped = new CountDownLatch (1);
+
+    /**
+     * Constructor. Create the server, bound to a loopback port.
+     *
+     * @param port Port number, 0 for any free port.
+     * @param workers Number of worker threads.
+     * @throws IOException On error binding the port.
+     */
+    public PDFServer (int port, int workers) throws IOException {
+        server = HttpServer.create (new InetSocketAddress (InetAddress.getLoopbackAddress (), port), 0);
+        pool = Executors.newFixedThreadPool (Math.max (1, workers));
+        server.setExecutor (pool);
+
+        byte random[] = new byte[16];
+        new SecureRandom ().nextBytes (random);
+        token = FileDigest.toHex (random);
+
+        server.createContext ("/job", new HttpHandler () {
+            public void handle (HttpExchange exchange) throws IOException {
+                JsonObject response = null;
+                try {
+                    response = runJob (JsonParser.object ().from (readRequest (exchange)), cache, metrics);
+                } catch (JsonParserException e) {
+                    metrics.add (PDFMetrics.ERRORS, 1);
+                    response = new JsonObject ();
+                    response.put ("result", PDFFinish.INVALID_CONFIG);
+                    response.put ("name", PDFBatch.getResultName (PDFFinish.INVALID_CONFIG));
+                    response.put ("output", "Invalid job: " + e.getMessage () + "\n");
+                } catch (SecurityException e) {
+                    sendResponse (exchange, 403, e.getMessage ());
+                    return;
+                }
+                sendResponse (exchange, 200, JsonWriter.string (response));
+            }
+        });
+        server.createContext ("/stop", new HttpHandler () {
+            public void handle (HttpExchange exchange) throws IOException {
+                try {
+                    readRequest (exchange);
+                } catch (SecurityException e) {
+                    sendResponse (exchange, 403, e.getMessage ());
+                    return;
+                }
+                sendResponse (exchange, 200, "{}");
+                new Thread () {
+                    public void run () {
+                        PDFServer.this.stop ();
+                    }
+                }.start ();
+            }
+        });
+    }
+
+    /**
+     * Get the default port file, in the pdffinish directory of the user
+     * runtime directory (XDG_RUNTIME_DIR) if set, else in .pdffinish in the
+     * user home directory.
+     *
+     * @return Port file.
+     */
+    public static File getDefaultPortFile () {
+        String runtime = System.getenv ("XDG_RUNTIME_DIR");
+        File dir = ((runtime != null) && new File (runtime).isDirectory ()) ? new File (runtime, "pdffinish") :
+            new File (System.getProperty ("user.home"), ".pdffinish");
+        return (new File (dir, "daemon.port"));
+    }
+
+    /**
+     * Set the cache of text found in PDF files, shared by all jobs.
+     *
+     * @param cache Extraction cache, null for none.
+     */
+    public void setCache (ExtractionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the totals of the metrics of all jobs run.
+     *
+     * @return Metrics.
+     */
+    public PDFMetrics getMetrics () {
+        return (metrics);
+    }
+
+    /**
+     * Get the port the server is bound to.
+     *
+     * @return Port number.
+     */
+    public int getPort () {
+        return (server.getAddress ().getPort ());
+    }
+
+    /**
+     * Start accepting jobs, write the port file, and register the metrics
+     * MBean.
+     *
+     * @param portFile File to write the port and access token to.
+     * @throws IOException On error writing the port file, or registering the
+     * metrics.
+     */
+    public void start (File portFile) throws IOException {
+        writePortFile (portFile, (getPort () + " " + token + "\n").getBytes ("UTF-8"));
+        this.portFile = portFile;
+
+        try {
+            MBeanServer beans = ManagementFactory.getPlatformMBeanServer ();
+            metricsName = new ObjectName ("com.github.joemcintyre.pdffinish:type=Metrics,port=" + getPort ());
+            beans.registerMBean (metrics, metricsName);
+        } catch (JMException e) {
+            metricsName = null;
+            throw new IOException ("Error registering metrics: " + e);
+        }
+        server.start ();
+    }
+
+    /**
+     * Write the port file as a new file readable only by the user, creating
+     * its directory accessible only by the user if missing. A port file left
+     * by a daemon that did not stop is replaced, and a symbolic link in its
+     * place is removed rather than followed.
+     *
+     * @param portFile Port file.
+     * @param content Port file content.
+     * @throws IOException On error writing the port file.
+     */
+    private static void writePortFile (File portFile, byte content[]) throws IOException {
+        Path path = portFile.getAbsoluteFile ().toPath ();
+        boolean posix = FileSystems.getDefault ().supportedFileAttributeViews ().contains ("posix");
+        if (Files.isDirectory (path.getParent ()) == false) {
+            if (posix) {
+                Files.createDirectories (path.getParent (),
+                    PosixFilePermissions.asFileAttribute (PosixFilePermissions.fromString ("rwx------")));
+            } else {
+                Files.createDirectories (path.getParent ());
+            }
+        }
+        Files.deleteIfExists (path);
+        if (posix) {
+            Files.createFile (path, PosixFilePermissions.asFileAttribute (PosixFilePermissions.fromString ("rw-------")));
+        } else {
+            Files.createFile (path);
+        }
+        OutputStream out = Files.newOutputStream (path, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+        try {
+            out.write (content);
+        } finally {
+            out.close ();
+        }
+    }
+
+    /**
+     * Stop accepting jobs, waiting for running jobs to complete, and remove
+     * the port file and the metrics MBean. Has no effect if already stopped.
+     */
+    public synchronized void stop () {
+        if (stopped.getCount () == 0) {
+            return;
+        }
+        server.stop (1);
+        pool.shutdown ();
+        if (portFile != null) {
+            portFile.delete ();
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer ().unregisterMBean (metricsName);
+            } catch (JMException e) {
+                // already removed
+            }
+        }
+        stopped.countDown ();
+    }
+
+    /**
+     * Wait until the server is stopped.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void await () throws InterruptedException {
+        stopped.await ();
+    }
+
+    /**
+     * Read request body, checking the request method and access token.
+     *
+     * @param exchange HTTP exchange.
+     * @return Request body.
+     * @throws IOException On error reading the request.
+     * @throws SecurityException If the request is not an authorized POST.
+     */
+    private String readRequest (HttpExchange exchange) throws IOException {
+        if ((exchange.getRequestMethod ().equals ("POST") == false) ||
+                (token.equals (exchange.getRequestHeaders ().getFirst (TOKEN_HEADER)) == false)) {
+            throw new SecurityException ("Forbidden");
+        }
+        InputStream in = exchange.getRequestBody ();
+        ByteArrayOutputStream data = new ByteArrayOutputStream ();
+        byte buffer[] = new byte[4096];
+        int length;
+        while ((length = in.read (buffer)) != -1) {
+            data.write (buffer, 0, length);
+        }
+        in.close ();
+        return (data.toString ("UTF-8"));
+    }
+
+    /**
+     * Send response.
+     *
+     * @param exchange HTTP exchange.
+     * @param status HTTP status code.
+     * @param body Response body.
+     * @throws IOException On error sending the response.
+     */
+    private static void sendResponse (HttpExchange exchange, int status, String body) throws IOException {
+        byte data[] = body.getBytes ("UTF-8");
+        exchange.getResponseHeaders ().set ("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders (status, data.length);
+        OutputStream out = exchange.getResponseBody ();
+        out.write (data);
+        out.close ();
+    }
+
+    /**
+     * Run a show or update job, capturing its messages and metrics.
+     *
+     * @param job Job, with configuration fields and input and output paths.
+     * @param cache Extraction cache, null for none.
+     * @param totals Metrics to add the metrics of the job to.
+     * @return Result, with result code, name, output messages and metrics.
+     */
+    static JsonObject runJob (JsonObject job, ExtractionCache cache, PDFMetrics totals) {
+        ByteArrayOutputStream messages = new ByteArrayOutputStream ();
+        PrintStream out = null;
+        try {
+            out = new PrintStream (messages, true, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException (e);
+        }
+
+        int result = PDFFinish.NO_ERROR;
+        PDFMetrics metrics = new PDFMetrics ();
+        String input = job.getString ("input");
+        String output = job.getString ("output");
+        if ((input == null) || (new File (input).exists () == false)) {
+            out.println ("PDF input file does not exist: " + input);
+            result = PDFFinish.READ_ERROR_INPUT_PDF;
+        } else if ((job.getBoolean ("show", false) == false) && (output == null)) {
+            out.println ("PDF output file not specified");
+            result = PDFFinish.INVALID_CONFIG;
+        } else {
+            PDFFinish finish = new PDFFinish ();
+            try {
+                finish.setOutput (out);
+                finish.setCache (job.getBoolean ("cache", true) ? cache : null);
+                if (job.getBoolean ("show", false)) {
+                    finish.setMemoryBudget (job.getNumber ("memoryBudget", 0).longValue ());
+                    finish.setMetadataOnly (job.getBoolean ("metadataOnly", false));
+                    finish.setSample (job.getInt ("sample", 0));
+                    finish.setThreads (job.getInt ("threads", 0));
+                    finish.setSortByPosition (job.getBoolean ("sort", true));
+                    result = finish.showInfo (new File (input));
+                } else {
+                    result = finish.generatePDF (job, new File (input), output);
+                }
+            } catch (Exception e) {
+                out.println ("Uncaught exception processing " + input + ": " + e);
+                result = Main.GENERAL_ERROR;
+            }
+            metrics.addAll (finish.getMetrics ());
+        }
+        if (metrics.get (PDFMetrics.DOCUMENTS) == 0) {
+            // job rejected, or failed without completing
+            metrics.add (PDFMetrics.DOCUMENTS, 1);
+            metrics.add (PDFMetrics.FAILURES, 1);
+            metrics.add (PDFMetrics.ERRORS, 1);
+        }
+        totals.addAll (metrics);
+
+        JsonObject response = new JsonObject ();
+        response.put ("result", result);
+        response.put ("name", PDFBatch.getResultName (result));
+        try {
+            response.put ("output", messages.toString ("UTF-8"));
+        } catch (IOException e) {
+            response.put ("output", "");
+        }
+        response.put ("metrics", metrics.toJson ());
+        return (response);
+    }
+}
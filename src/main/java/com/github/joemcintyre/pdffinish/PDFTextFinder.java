@@ -7,20 +7,49 @@
 package com.github.joemcintyre.pdffinish;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.*;
+import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.util.*;
 
 /**
  * Find text in the PDF document that matches one of a set of fonts
- * indicated, making the list of text elements available.
+ * indicated. Matching text elements are delivered to a listener as each page
+ * is processed, or collected into a list.
  */
 public class PDFTextFinder extends PDFTextStripper {
-    private List<PDFTextFinder.PDFText> textList = new ArrayList<PDFTextFinder.PDFText> ();
+    private static final float SIZE_QUANTUM = 0.01f;
+    private static final String NO_FONT = new String ("");
+
     private List<PDFTextFinder.Font> fontFilterList = null;
-    private PDPage currentPage = null;
+    private FontIndex fontIndex = null;
+    private float sizeTolerance = 0.0f;
+    private IdentityHashMap<PDFont, String> baseFontNames = new IdentityHashMap<PDFont, String> ();
+    private Listener listener = null;
+    private FontInventory inventory = null;
+    private PageRange pageRange = null;
+    private int maxMatches = 0;
+    private int matchCount = 0;
+    private PDFMetrics metrics = null;
+    private int pageCount = 0;
+    private int fragmentCount = 0;
+    private DocumentLimits limits = null;
+    private int operatorCount = 0;
+    private List<PDFText> pageMatches = new ArrayList<PDFText> ();
+    private IdentityHashMap<COSDictionary, Boolean> candidateResources = new IdentityHashMap<COSDictionary, Boolean> ();
+    private List<Font> matches = new ArrayList<Font> ();
+    private StringBuilder fragment = new StringBuilder ();
 
     /**
      * Font name and size;
@@ -45,40 +74,237 @@ public class PDFTextFinder extends PDFTextStripper {
     }
 
     /**
-     * Text element: text, page, position and tag. The tag allows the text
-     * to be identified within a grouping based on its font, allowing
+     * Text element: text, page number, position and tag. The tag allows the
+     * text to be identified within a grouping based on its font, allowing
      * multiple font matches to be grouped, or tags to be used to indicate
-     * hierarchical relationships.
+     * hierarchical relationships. Holds no references to the PDF document,
+     * so elements may be kept after the document is closed.
      */
-    public class PDFText {
-        public PDPage page;
-        public TextPosition metadata;
-        public String text;
-        public int tag;
-        public String font;
-        public float fontSize;
+    public static final class PDFText {
+        public final int pageNumber;
+        public final float x;
+        public final float y;
+        public final String text;
+        public final int tag;
+        public final String font;
+        public final float fontSize;
 
         /**
          * Constructor.
-         * 
-         * @param page Page heading belongs to.
-         * @param metadata Text metadata, including position.
-         * @param text Heading text.
+         *
+         * @param pageNumber Page number text is on, starting at 1.
+         * @param x Horizontal position of start of text.
+         * @param y Vertical position of start of text, from top of page.
+         * @param text Text.
+         * @param tag Tag of matching font, 0 if not matched to a font.
          * @param font Font of text.
          * @param fontSize Size of font.
          */
-        private PDFText (PDPage page, TextPosition metadata, String text, String font, float fontSize) {
-            this.page = page;
-            this.metadata = metadata;
+        public PDFText (int pageNumber, float x, float y, String text, int tag, String font, float fontSize) {
+            this.pageNumber = pageNumber;
+            this.x = x;
+            this.y = y;
             this.text = text;
-            this.tag = 0;
+            this.tag = tag;
             this.font = font;
             this.fontSize = fontSize;
         }
     }
 
+    /**
+     * Font list indexed by font name, then by font size quantized to the size
+     * tolerance, for matching text fragments without scanning the list.
+     */
+    private static class FontIndex {
+        private HashMap<String, HashMap<Integer, List<Font>>> fonts = new HashMap<String, HashMap<Integer, List<Font>>> ();
+        private float quantum;
+        private float tolerance;
+
+        /**
+         * Constructor.
+         *
+         * @param fontList Fonts to index.
+         * @param tolerance Maximum difference in size for a match, 0 for
+         * sizes equal to within SIZE_QUANTUM.
+         */
+        FontIndex (List<Font> fontList, float tolerance) {
+            this.quantum = Math.max (tolerance, SIZE_QUANTUM);
+            this.tolerance = Math.max (tolerance, SIZE_QUANTUM / 2);
+            for (Font font : fontList) {
+                // names are matched without subset, as text font names are
+                String name = font.name.substring (font.name.indexOf ('+') + 1);
+                HashMap<Integer, List<Font>> sizes = fonts.get (name);
+                if (sizes == null) {
+                    sizes = new HashMap<Integer, List<Font>> ();
+                    fonts.put (name, sizes);
+                }
+                Integer key = quantize (font.size);
+                List<Font> matches = sizes.get (key);
+                if (matches == null) {
+                    matches = new ArrayList<Font> ();
+                    sizes.put (key, matches);
+                }
+                matches.add (font);
+            }
+        }
+
+        /**
+         * Check if any font in the index has a font name.
+         *
+         * @param name Font name.
+         * @return True if font name is in the index.
+         */
+        boolean containsName (String name) {
+            return (fonts.containsKey (name));
+        }
+
+        /**
+         * Quantize font size to index key.
+         *
+         * @param size Font size.
+         * @return Index key.
+         */
+        private int quantize (float size) {
+            return (Math.round (size / quantum));
+        }
+
+        /**
+         * Find fonts matching font name and size. Sizes within the tolerance
+         * may fall in the neighbouring quantized size, so those are checked.
+         *
+         * @param name Font name.
+         * @param size Font size.
+         * @param matches List to add matching fonts to.
+         * @return True if any font matched.
+         */
+        boolean find (String name, float size, List<Font> matches) {
+            HashMap<Integer, List<Font>> sizes = fonts.get (name);
+            if (sizes == null) {
+                return (false);
+            }
+            int key = quantize (size);
+            for (int index = key - 1; index <= key + 1; index ++) {
+                List<Font> candidates = sizes.get (index);
+                if (candidates != null) {
+                    for (Font font : candidates) {
+                        if (Math.abs (font.size - size) <= tolerance) {
+                            matches.add (font);
+                        }
+                    }
+                }
+            }
+            return (matches.size () > 0);
+        }
+    }
+
+    /**
+     * Receiver of text elements as they are found.
+     */
+    public interface Listener {
+        /**
+         * Called for each text element matching the font list, in the order
+         * found.
+         *
+         * @param text Text element.
+         * @throws IOException On error handling the text element.
+         */
+        void onText (PDFText text) throws IOException;
+    }
+
+    /**
+     * Listener matching text elements found without a font list, such as
+     * those held in an extraction cache, against a font list, passing on the
+     * matching elements with the tag of the font. Applies the page range and
+     * match limit in the same way as the finder. Without a font list, all
+     * text elements are passed on unchanged.
+     */
+    public static class Filter implements Listener {
+        private FontIndex fontIndex;
+        private PageRange pageRange;
+        private int maxMatches;
+        private Listener listener;
+        private int matchCount = 0;
+        private List<Font> matches = new ArrayList<Font> ();
+
+        /**
+         * Constructor.
+         *
+         * @param fontFilterList List of Font objects, null for all text.
+         * @param sizeTolerance Maximum difference in font size for a match.
+         * @param pageRange Pages to pass on text from, null for all pages.
+         * @param maxMatches Maximum number of text elements, 0 for no limit.
+         * @param listener Receiver of matching text elements.
+         */
+        public Filter (List<Font> fontFilterList, float sizeTolerance, PageRange pageRange,
+                int maxMatches, Listener listener) {
+            if (fontFilterList != null) {
+                this.fontIndex = new FontIndex (fontFilterList, sizeTolerance);
+            }
+            this.pageRange = pageRange;
+            this.maxMatches = maxMatches;
+            this.listener = listener;
+        }
+
+        /**
+         * Pass on text element if it matches the font list.
+         *
+         * @param text Text element.
+         * @throws IOException From listener.
+         */
+        public void onText (PDFText text) throws IOException {
+            if ((maxMatches > 0) && (matchCount >= maxMatches)) {
+                return;
+            }
+            if ((pageRange != null) && (pageRange.contains (text.pageNumber) == false)) {
+                return;
+            }
+            if (fontIndex == null) {
+                matchCount ++;
+                listener.onText (text);
+                return;
+            }
+            matches.clear ();
+            if (fontIndex.find (text.font, text.fontSize, matches)) {
+                for (Font filter : matches) {
+                    if ((maxMatches == 0) || (matchCount < maxMatches)) {
+                        matchCount ++;
+                        listener.onText (new PDFText (text.pageNumber, text.x, text.y, text.text,
+                            filter.tag, text.font, text.fontSize));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writer discarding the stripped text, which is not used.
+     */
+    private static class NullWriter extends Writer {
+        public void write (char buffer[], int offset, int length) {
+        }
+
+        public void flush () {
+        }
+
+        public void close () {
+        }
+    }
+
+    /**
+     * Order of text elements on a page: top to bottom, then left to right.
+     */
+    private static final Comparator<PDFText> PAGE_ORDER = new Comparator<PDFText> () {
+        public int compare (PDFText a, PDFText b) {
+            int result = Float.compare (a.y, b.y);
+            return ((result != 0) ? result : Float.compare (a.x, b.x));
+        }
+    };
+
     /**
      * Constructor. Create the instance with the font list to process with.
+     * Text is sorted by position on each page, unless turned off with
+     * setSortByPosition, in which case text is processed in content stream
+     * order and only the matching text elements of each page are sorted.
      * @param findFontList List of Font objects.
      * @throws IOException On error accessing PDF content.
      */
@@ -87,6 +313,104 @@ public class PDFTextFinder extends PDFTextStripper {
         this.fontFilterList = fontFilterList;
     }
 
+    /**
+     * Set the tolerance for matching font sizes against the font list. By
+     * default, sizes match when equal to within 0.01 points.
+     *
+     * @param sizeTolerance Maximum difference in font size for a match.
+     */
+    public void setSizeTolerance (float sizeTolerance) {
+        this.sizeTolerance = sizeTolerance;
+        this.fontIndex = null;
+    }
+
+    /**
+     * Set the inventory to record the font usage of all text in, whether
+     * or not the text matches the font list.
+     *
+     * @param inventory Font inventory, null for none.
+     */
+    public void setInventory (FontInventory inventory) {
+        this.inventory = inventory;
+    }
+
+    /**
+     * Set the pages to find text in. Pages outside the range are skipped
+     * without processing their content.
+     *
+     * @param pageRange Page range, null for all pages.
+     */
+    public void setPageRange (PageRange pageRange) {
+        this.pageRange = pageRange;
+    }
+
+    /**
+     * Set the maximum number of matching text elements to find. Once the
+     * limit is reached, the remaining pages are skipped.
+     *
+     * @param maxMatches Maximum number of text elements, 0 for no limit.
+     */
+    public void setMaxMatches (int maxMatches) {
+        this.maxMatches = maxMatches;
+    }
+
+    /**
+     * Set the metrics to add the number of pages processed, and text
+     * fragments scanned and matched to, once processing completes.
+     *
+     * @param metrics Metrics, null for none.
+     */
+    public void setMetrics (PDFMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the resource limits of the document, checked at each page, text
+     * fragment and block of content stream operators.
+     *
+     * @param limits Document limits, null for none.
+     */
+    public void setLimits (DocumentLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Find text in the specified PDF document, passing each matching text
+     * element to the listener. Text elements are not retained.
+     *
+     * @param document PDF document object.
+     * @param listener Receiver of text elements, null if only the inventory
+     * is needed.
+     * @throws IOException On error accessing PDF content, or from listener.
+     */
+    public void process (PDDocument document, Listener listener) throws IOException {
+        if ((fontIndex == null) && (fontFilterList != null) && (fontFilterList.size () > 0)) {
+            fontIndex = new FontIndex (fontFilterList, sizeTolerance);
+        }
+        if (pageRange != null) {
+            setStartPage (Math.max (getStartPage (), pageRange.getFirst ()));
+            setEndPage (Math.min (getEndPage (), pageRange.getLast ()));
+        }
+        this.listener = listener;
+        this.matchCount = 0;
+        this.pageCount = 0;
+        this.fragmentCount = 0;
+        this.operatorCount = 0;
+        try {
+            writeText (document, new NullWriter ());
+            if (limits != null) {
+                limits.addOperators (operatorCount);
+            }
+        } finally {
+            this.listener = null;
+            if (metrics != null) {
+                metrics.add (PDFMetrics.PAGES, pageCount);
+                metrics.add (PDFMetrics.FRAGMENTS, fragmentCount);
+                metrics.add (PDFMetrics.MATCHES, matchCount);
+            }
+        }
+    }
+
     /**
      * Get the text element list from the specified PDF document.
      * @param document PDF document object.
@@ -94,61 +418,186 @@ public class PDFTextFinder extends PDFTextStripper {
      * @throws IOException On error accessing PDF content.
      */
     public List<PDFText> getTextList (PDDocument document) throws IOException {
-        getText (document);
+        final List<PDFText> textList = new ArrayList<PDFText> ();
+        process (document, new Listener () {
+            public void onText (PDFText text) {
+                textList.add (text);
+            }
+        });
         return (textList);
     }
 
     /**
-     * Record current page when text processor starts a new page.
-     * 
-     * @param page Page object for new page.
+     * Override the processPage method to skip pages outside the start and
+     * end pages and the page range, and all pages once the match limit is
+     * reached. When only matching text is needed, pages whose resources do
+     * not include any font in the font list are also skipped, as they cannot
+     * contain matching text. PDFBox calls this for every page of the
+     * document, so skipped pages are not counted or checked against the
+     * limits.
+     */
+    protected void processPage (PDPage page, COSStream content) throws IOException {
+        int pageNumber = getCurrentPageNo ();
+        if ((isLimitReached () == false) && (pageNumber >= getStartPage ()) && (pageNumber <= getEndPage ())) {
+            if ((pageRange == null) || pageRange.contains (pageNumber)) {
+                if ((fontIndex == null) || (inventory != null) || isCandidate (page)) {
+                    if (limits != null) {
+                        limits.check ();
+                    }
+                    pageCount ++;
+                    super.processPage (page, content);
+                    if (limits != null) {
+                        limits.checkExceeded ();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Override the processOperator method to count content stream operators
+     * against the document limits, adding them in blocks. Once a limit is
+     * exceeded, each following operator fails, as PDFBox ignores errors
+     * within form XObjects.
+     */
+    protected void processOperator (PDFOperator operator, List<COSBase> arguments) throws IOException {
+        if (limits != null) {
+            limits.checkExceeded ();
+            if (++ operatorCount == DocumentLimits.OPERATOR_BLOCK) {
+                operatorCount = 0;
+                limits.addOperators (DocumentLimits.OPERATOR_BLOCK);
+            }
+        }
+        super.processOperator (operator, arguments);
+    }
+
+    /**
+     * Check if a page may contain text in a font in the font list, from the
+     * fonts in its resources and the resources of the forms it uses.
+     *
+     * @param page Page.
+     * @return True if the page uses a font in the font list.
+     */
+    private boolean isCandidate (PDPage page) {
+        PDResources resources = page.findResources ();
+        return ((resources == null) || isCandidate (resources.getCOSDictionary ()));
+    }
+
+    /**
+     * Check if a resource dictionary, or the resources of any form XObject in
+     * it, includes a font in the font list. Results are cached for each
+     * dictionary, as resources are usually shared between pages.
+     *
+     * @param resources Resource dictionary.
+     * @return True if a font in the font list is included.
+     */
+    private boolean isCandidate (COSDictionary resources) {
+        Boolean candidate = candidateResources.get (resources);
+        if (candidate != null) {
+            return (candidate);
+        }
+
+        // mark as checked first, so forms that refer back are not followed
+        candidateResources.put (resources, Boolean.FALSE);
+        boolean found = false;
+        COSBase fonts = resources.getDictionaryObject (COSName.FONT);
+        if (fonts instanceof COSDictionary) {
+            for (COSName key : ((COSDictionary) fonts).keySet ()) {
+                COSBase font = ((COSDictionary) fonts).getDictionaryObject (key);
+                if (font instanceof COSDictionary) {
+                    String name = ((COSDictionary) font).getNameAsString (COSName.BASE_FONT);
+                    if ((name != null) && fontIndex.containsName (name.substring (name.indexOf ('+') + 1))) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        COSBase xobjects = resources.getDictionaryObject (COSName.XOBJECT);
+        if ((found == false) && (xobjects instanceof COSDictionary)) {
+            for (COSName key : ((COSDictionary) xobjects).keySet ()) {
+                COSBase xobject = ((COSDictionary) xobjects).getDictionaryObject (key);
+                if ((xobject instanceof COSStream) &&
+                        COSName.FORM.equals (((COSStream) xobject).getDictionaryObject (COSName.SUBTYPE))) {
+                    // a form without resources uses those of the page
+                    COSBase formResources = ((COSStream) xobject).getDictionaryObject (COSName.RESOURCES);
+                    if ((formResources instanceof COSDictionary) && isCandidate ((COSDictionary) formResources)) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        candidateResources.put (resources, found);
+        return (found);
+    }
+
+    /**
+     * Override the endPage method to pass on the matching text elements of
+     * the page in position order, when text is processed in content stream
+     * order.
      */
-    protected void startPage (PDPage page) {
-        currentPage = page;
+    protected void endPage (PDPage page) throws IOException {
+        if (pageMatches.size () > 0) {
+            Collections.sort (pageMatches, PAGE_ORDER);
+            try {
+                for (PDFText text : pageMatches) {
+                    deliver (text);
+                }
+            } finally {
+                pageMatches.clear ();
+            }
+        }
+    }
+
+    /**
+     * Check if the maximum number of matching text elements has been found.
+     *
+     * @return True if no more text elements are needed.
+     */
+    private boolean isLimitReached () {
+        return ((maxMatches > 0) && (matchCount >= maxMatches));
     }
 
     /**
      * Override the writeString method to capture the text elements, and their
      * associated information. For those that fit the font matching criteria,
-     * record these in the text element list, with their associated tag.
+     * pass these to the listener, with their associated tag.
      */
     protected void writeString (String fullText, List<TextPosition> textPositions) throws IOException {
+        if (limits != null) {
+            limits.checkDeadline ();
+        }
         String baseFont = "";
         float fontSize = 0.0f;
         String lastBaseFont = null;
         float lastFontSize = 0.0f;
 
-        ArrayList<PDFText> fragments = new ArrayList<PDFText> ();
-        StringBuilder text = new StringBuilder ();
+        // fragment text is built in a buffer reused for every fragment
+        StringBuilder text = fragment;
+        text.setLength (0);
         TextPosition startPosition = null;
 
         // for all characters in text
-        for (TextPosition position : textPositions) {
-            // hold start of text position for text element
-            if (startPosition == null) {
-                startPosition = position;
-            }
-
-            // get font face and style, separate away subset if present
-            baseFont = position.getFont ().getBaseFont ();
-            int plus = baseFont.indexOf ('+');
-            if (plus > -1) {
-                baseFont = baseFont.substring (plus + 1);
-            }
+        for (int index = 0, count = textPositions.size (); index < count; index ++) {
+            TextPosition position = textPositions.get (index);
+            // get font face and style, without subset
+            baseFont = getBaseFontName (position.getFont ());
             fontSize = position.getFontSizeInPt ();
 
             // if end of a text fragment in the current font, record the text
             // fragment and start the next text fragment
-            if (baseFont != null) {
+            if (baseFont != NO_FONT) {
                 if ((baseFont.equals (lastBaseFont) == false) || (fontSize != lastFontSize)) {
-                    lastBaseFont = baseFont;
-                    lastFontSize = fontSize;
-                    
                     if (text.length () > 0) {
-                        fragments.add (new PDFText (currentPage, startPosition, text.toString (), baseFont, fontSize));
+                        record (startPosition, text, lastBaseFont, lastFontSize);
                         text.setLength (0);
-                        startPosition = null;
                     }
+                    lastBaseFont = baseFont;
+                    lastFontSize = fontSize;
+                    startPosition = position;
                 }
                 text.append (position.getCharacter ());
             }
@@ -156,23 +605,114 @@ public class PDFTextFinder extends PDFTextStripper {
 
         // if loop ended with a text fragment, record it
         if (text.length () > 0) {
-            fragments.add (new PDFText (currentPage, startPosition, text.toString (), baseFont, fontSize));
-        }    
+            record (startPosition, text, lastBaseFont, lastFontSize);
+        }
+
+        // parent call to record the text string for its own processing
+        writeString (fullText);
+    }
 
-        // for each fragment, if it is a matching font, add the tag and the fragment to the result list
-        for (PDFText fragment : fragments) {
-            if ((fontFilterList == null) || (fontFilterList.size () == 0)) {
-                textList.add (fragment);
+    /**
+     * Get base font name, with any subset prefix removed. Names are cached
+     * for each font object, so each font is only examined once.
+     *
+     * @param font Font.
+     * @return Base font name, NO_FONT if font has no name.
+     */
+    private String getBaseFontName (PDFont font) {
+        String name = baseFontNames.get (font);
+        if (name == null) {
+            name = font.getBaseFont ();
+            if (name == null) {
+                name = NO_FONT;
             } else {
-                for (Font font : fontFilterList) {
-                    if ((fragment.font.equals (font.name)) && (fragment.fontSize == font.size)) {
-                        fragment.tag = font.tag;
-                        textList.add (fragment);
-                    }
+                int plus = name.indexOf ('+');
+                if (plus > -1) {
+                    name = name.substring (plus + 1);
                 }
             }
+            baseFontNames.put (font, name);
+        }
+        return (name);
+    }
+
+    /**
+     * Record a text fragment in the inventory, and check it against the font
+     * list if there is a listener for it.
+     *
+     * @param position Position of first character of fragment.
+     * @param text Text of fragment.
+     * @param font Font name.
+     * @param fontSize Font size.
+     * @throws IOException From listener.
+     */
+    private void record (TextPosition position, CharSequence text, String font, float fontSize) throws IOException {
+        fragmentCount ++;
+        if (inventory != null) {
+            inventory.add (font, fontSize, text.length (), getCurrentPageNo ());
+        }
+        if (listener != null) {
+            match (position, text, font, fontSize);
+        }
+    }
+
+    /**
+     * Check a text fragment against the font list. If it is a matching font,
+     * pass the fragment, with the tag of the font, to the listener. The text
+     * is only copied to a string once it matches.
+     *
+     * @param position Position of first character of fragment.
+     * @param text Text of fragment.
+     * @param font Font of fragment.
+     * @param fontSize Size of font.
+     * @throws IOException From listener.
+     */
+    private void match (TextPosition position, CharSequence text, String font, float fontSize) throws IOException {
+        if (fontIndex == null) {
+            emit (position, text.toString (), 0, font, fontSize);
+        } else {
+            matches.clear ();
+            if (fontIndex.find (font, fontSize, matches)) {
+                String matched = text.toString ();
+                for (int index = 0; index < matches.size (); index ++) {
+                    emit (position, matched, matches.get (index).tag, font, fontSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass a text element to the listener.
+     *
+     * @param position Position of first character of text.
+     * @param text Text.
+     * @param tag Tag of matching font.
+     * @param font Font of text.
+     * @param fontSize Size of font.
+     * @throws IOException From listener.
+     */
+    private void emit (TextPosition position, String text, int tag, String font, float fontSize) throws IOException {
+        if (listener != null) {
+            PDFText element = new PDFText (getCurrentPageNo (), position.getXDirAdj (), position.getYDirAdj (),
+                text, tag, font, fontSize);
+            if (getSortByPosition ()) {
+                deliver (element);
+            } else {
+                pageMatches.add (element);
+            }
+        }
+    }
+
+    /**
+     * Pass a text element to the listener, until the match limit is reached.
+     *
+     * @param element Text element.
+     * @throws IOException From listener.
+     */
+    private void deliver (PDFText element) throws IOException {
+        if (isLimitReached () == false) {
+            matchCount ++;
+            listener.onText (element);
         }
-        // parent call to record the text string for its own processing
-        writeString (fullText);
     }
 }
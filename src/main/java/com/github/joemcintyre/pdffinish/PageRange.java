@@ -0,0 +1,144 @@
+/**
+ * PDF Finish, updates PDF metadata and table of contents.
+ *
+ * @author Joe McIntyre
+ *
+ * Copyright (c) 2014, Joe McIntyre
+ * License: MIT
+ */
+package com.github.joemcintyre.pdffinish;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Set of page numbers, given as a comma separated list of pages and page
+ * ranges, such as "1-40,52,200-". A range without an end continues to the
+ * last page of the document.
+ */
+public class PageRange {
+    public static final int LAST_PAGE = Integer.MAX_VALUE;
+
+    private int start[];
+    private int end[];
+
+    /**
+     * Constructor.
+     *
+     * @param ranges List of start and end page pairs, sorted by start page.
+     */
+    private PageRange (List<int[]> ranges) {
+        start = new int[ranges.size ()];
+        end = new int[ranges.size ()];
+        for (int index = 0; index < ranges.size (); index ++) {
+            start[index] = ranges.get (index)[0];
+            end[index] = ranges.get (index)[1];
+        }
+    }
+
+    /**
+     * Parse a page range list.
+     *
+     * @param value Page ranges, such as "1-40,200-".
+     * @return Page range, or null if not a valid page range list.
+     */
+    public static PageRange parse (String value) {
+        if ((value == null) || (value.trim ().length () == 0)) {
+            return (null);
+        }
+
+        List<int[]> ranges = new ArrayList<int[]> ();
+        try {
+            for (String item : value.split (",")) {
+                item = item.trim ();
+                int dash = item.indexOf ('-');
+                int first, last;
+                if (dash == -1) {
+                    first = last = Integer.parseInt (item);
+                } else {
+                    first = Integer.parseInt (item.substring (0, dash).trim ());
+                    String rest = item.substring (dash + 1).trim ();
+                    last = (rest.length () == 0) ? LAST_PAGE : Integer.parseInt (rest);
+                }
+                if ((first < 1) || (last < first)) {
+                    return (null);
+                }
+                ranges.add (new int[] { first, last });
+            }
+        } catch (NumberFormatException e) {
+            return (null);
+        }
+
+        Collections.sort (ranges, new Comparator<int[]> () {
+            public int compare (int a[], int b[]) {
+                return ((a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1));
+            }
+        });
+        return (new PageRange (ranges));
+    }
+
+    /**
+     * Create a page range of a list of pages, joining consecutive pages into
+     * ranges.
+     *
+     * @param pages Page numbers, starting at 1, in ascending order.
+     * @return Page range, or null if there are no pages.
+     */
+    public static PageRange of (int pages[]) {
+        if (pages.length == 0) {
+            return (null);
+        }
+        List<int[]> ranges = new ArrayList<int[]> ();
+        int range[] = { pages[0], pages[0] };
+        for (int index = 1; index < pages.length; index ++) {
+            if (pages[index] == range[1] + 1) {
+                range[1] = pages[index];
+            } else {
+                ranges.add (range);
+                range = new int[] { pages[index], pages[index] };
+            }
+        }
+        ranges.add (range);
+        return (new PageRange (ranges));
+    }
+
+    /**
+     * Check if page is in the page range.
+     *
+     * @param page Page number, starting at 1.
+     * @return True if page is in the range.
+     */
+    public boolean contains (int page) {
+        for (int index = 0; (index < start.length) && (start[index] <= page); index ++) {
+            if (page <= end[index]) {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    /**
+     * Get first page in the range.
+     *
+     * @return First page number.
+     */
+    public int getFirst () {
+        return (start[0]);
+    }
+
+    /**
+     * Get last page in the range.
+     *
+     * @return Last page number, LAST_PAGE if the range continues to the end
+     * of the document.
+     */
+    public int getLast () {
+        int last = 0;
+        for (int page : end) {
+            last = Math.max (last, page);
+        }
+        return (last);
+    }
+}
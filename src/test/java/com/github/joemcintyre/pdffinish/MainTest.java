@@ -1,6 +1,17 @@
 package com.github.joemcintyre.pdffinish;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
 import com.github.joemcintyre.pdffinish.*;
+import com.grack.nanojson.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -31,7 +42,7 @@ public class MainTest extends TestCase {
      * Should fail, missing -i 
      */
     public void testInvokeShowShort () {
-        String args[] = {"-s"};
+        String args[] = {"--no-daemon", "-s"};
         int result = Main.invoke (args);
         assertEquals (result, Main.GENERAL_ERROR);
     }
@@ -42,7 +53,7 @@ public class MainTest extends TestCase {
      * Should fail, missing -i 
      */
     public void testInvokeShowLong () {
-        String args[] = {"--show"};
+        String args[] = {"--no-daemon", "--show"};
         int result = Main.invoke (args);
         assertEquals (result, Main.GENERAL_ERROR);
     }
@@ -53,7 +64,7 @@ public class MainTest extends TestCase {
      * Should fail, no option -z
      */
     public void testInvalidOption () {
-        String args[] = {"-z"};
+        String args[] = {"--no-daemon", "-z"};
         int result = Main.invoke (args);
         assertEquals (result, Main.GENERAL_ERROR);
     }
@@ -64,7 +75,7 @@ public class MainTest extends TestCase {
      * Should exit with exit code 0
      */
     public void testVersionShortOption () {
-        String args[] = {"-v"};
+        String args[] = {"--no-daemon", "-v"};
         int result = Main.invoke (args);
         assertEquals (result, Main.NO_ERROR);
     }
@@ -75,7 +86,7 @@ public class MainTest extends TestCase {
      * Should exit with exit code 0
      */
     public void testVersionLongOption () {
-        String args[] = {"--version"};
+        String args[] = {"--no-daemon", "--version"};
         int result = Main.invoke (args);
         assertEquals (result, Main.NO_ERROR);
     }
@@ -86,7 +97,7 @@ public class MainTest extends TestCase {
      * Should exit with exit code 0
      */
     public void testHelpShortOption () {
-        String args[] = {"-h"};
+        String args[] = {"--no-daemon", "-h"};
         int result = Main.invoke (args);
         assertEquals (result, Main.NO_ERROR);
     }
@@ -97,8 +108,317 @@ public class MainTest extends TestCase {
      * Should exit with exit code 0
      */
     public void testHelpLongOption () {
-        String args[] = {"--help"};
+        String args[] = {"--no-daemon", "--help"};
         int result = Main.invoke (args);
         assertEquals (result, Main.NO_ERROR);
     }
+
+    /**
+     * Test batch option combined with show option
+     * Args: -b dir -s
+     * Should fail, show not supported in batch
+     */
+    public void testBatchWithShow () {
+        String args[] = {"--no-daemon", "-b", "dir", "-s"};
+        int result = Main.invoke (args);
+        assertEquals (result, Main.GENERAL_ERROR);
+    }
+
+    /**
+     * Test workers option without batch option
+     * Args: -w 2 -i in.pdf -o out.pdf -c config.json
+     * Should fail, workers requires batch
+     */
+    public void testWorkersWithoutBatch () {
+        String args[] = {"--no-daemon", "-w", "2", "-i", "in.pdf", "-o", "out.pdf", "-c", "config.json"};
+        int result = Main.invoke (args);
+        assertEquals (result, Main.GENERAL_ERROR);
+    }
+
+    /**
+     * Test batch processing of a directory
+     * Args: -b inputDir -o outputDir -c config.json -w 2 --no-cache
+     * Should succeed, with output file for each input file, and the messages
+     * of each file printed together under its input file name
+     */
+    public void testBatchDirectory () throws Exception {
+        File dirInput = SamplePDF.createDirectory ();
+        File dirOutput = SamplePDF.createDirectory ();
+        File fileConfig = File.createTempFile ("config", ".json");
+        fileConfig.deleteOnExit ();
+        SamplePDF.write (fileConfig, SamplePDF.CONFIG);
+        for (int index = 0; index < 3; index ++) {
+            SamplePDF.create (new File (dirInput, "doc" + index + ".pdf"), 4);
+        }
+
+        String args[] = {"--no-daemon", "-b", dirInput.getPath (), "-o", dirOutput.getPath (),
+            "-c", fileConfig.getPath (), "-w", "2", "--no-cache"};
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream ();
+        try {
+            System.setOut (new PrintStream (output, true, "UTF-8"));
+            int result = Main.invoke (args);
+            assertEquals (result, Main.NO_ERROR);
+        } finally {
+            System.setOut (stdout);
+        }
+        String messages = output.toString ("UTF-8");
+        String eol = System.getProperty ("line.separator");
+        for (int index = 0; index < 3; index ++) {
+            assertTrue (new File (dirOutput, "doc" + index + ".pdf").exists ());
+            File fileInput = new File (dirInput, "doc" + index + ".pdf");
+            assertTrue (messages.contains (fileInput + ":" + eol + "Write complete" + eol));
+        }
+    }
+
+    /**
+     * Test batch processing of a manifest with a missing input file
+     * Args: -b manifest.json --no-cache
+     * Should fail, one entry cannot be read
+     */
+    public void testBatchManifestMissingInput () throws Exception {
+        File dir = SamplePDF.createDirectory ();
+        SamplePDF.write (new File (dir, "config.json"), SamplePDF.CONFIG);
+        SamplePDF.create (new File (dir, "in.pdf"), 2);
+        File fileManifest = new File (dir, "manifest.json");
+        SamplePDF.write (fileManifest,
+            "[ { \"input\":\"in.pdf\", \"output\":\"out.pdf\", \"config\":\"config.json\" }," +
+            "  { \"input\":\"missing.pdf\", \"output\":\"out2.pdf\", \"config\":\"config.json\" } ]");
+
+        String args[] = {"--no-daemon", "-b", fileManifest.getPath (), "--no-cache"};
+        int result = Main.invoke (args);
+        assertEquals (result, Main.GENERAL_ERROR);
+        assertTrue (new File (dir, "out.pdf").exists ());
+        assertFalse (new File (dir, "out2.pdf").exists ());
+    }
+
+    /**
+     * Test batch processing of a directory, skipping unchanged documents
+     * Args: -b inputDir -o outputDir -c config.json --skip-unchanged --metrics metrics.json
+     * Should process all documents on the first run, none on a second run,
+     * and only the changed input and removed output on a third run, removing
+     * an incomplete record from the manifest
+     */
+    public void testBatchSkipUnchanged () throws Exception {
+        File dirInput = SamplePDF.createDirectory ();
+        File dirOutput = SamplePDF.createDirectory ();
+        File fileConfig = File.createTempFile ("config", ".json");
+        File fileMetrics = File.createTempFile ("metrics", ".json");
+        fileConfig.deleteOnExit ();
+        fileMetrics.deleteOnExit ();
+        SamplePDF.write (fileConfig, SamplePDF.CONFIG);
+        for (int index = 0; index < 4; index ++) {
+            SamplePDF.create (new File (dirInput, "doc" + index + ".pdf"), 4);
+        }
+
+        String args[] = {"--no-daemon", "-b", dirInput.getPath (), "-o", dirOutput.getPath (),
+            "-c", fileConfig.getPath (), "--skip-unchanged", "--no-cache", "--metrics", fileMetrics.getPath ()};
+        int skipped[] = { 0, 4, 2 };
+        for (int run = 0; run < skipped.length; run ++) {
+            if (run == 2) {
+                SamplePDF.create (new File (dirInput, "doc0.pdf"), 6);
+                assertTrue (new File (dirOutput, "doc1.pdf").delete ());
+                FileOutputStream fos = new FileOutputStream (new File (dirOutput, BuildManifest.FILE_NAME), true);
+                fos.write ("{\"output\":\"doc".getBytes ("UTF-8"));
+                fos.close ();
+            }
+            assertEquals (Main.invoke (args), Main.NO_ERROR);
+            JsonObject metrics = JsonParser.object ().from (
+                new String (Files.readAllBytes (fileMetrics.toPath ()), "UTF-8"));
+            assertEquals (4, metrics.getInt ("documents"));
+            assertEquals (skipped[run], metrics.getInt ("skipped"));
+        }
+        for (String line : Files.readAllLines (new File (dirOutput, BuildManifest.FILE_NAME).toPath ())) {
+            assertTrue (JsonParser.object ().from (line).has ("outputHash"));
+        }
+        PDDocument document = PDDocument.load (new File (dirOutput, "doc0.pdf"));
+        assertEquals (6, document.getNumberOfPages ());
+        document.close ();
+    }
+
+    /**
+     * Test batch processing of a directory, skipping unchanged documents,
+     * with inputs changed without a new length or modification time
+     * Args: -b inputDir -o outputDir -c config.json --skip-unchanged --metrics metrics.json
+     * Should process an input changed in the timestamp granularity of its
+     * record, and all documents when read from another input directory
+     */
+    public void testBatchSkipUnchangedRacy () throws Exception {
+        File dirInput = SamplePDF.createDirectory ();
+        File dirOutput = SamplePDF.createDirectory ();
+        File fileConfig = File.createTempFile ("config", ".json");
+        File fileMetrics = File.createTempFile ("metrics", ".json");
+        fileConfig.deleteOnExit ();
+        fileMetrics.deleteOnExit ();
+        SamplePDF.write (fileConfig, SamplePDF.CONFIG);
+        for (int index = 0; index < 2; index ++) {
+            SamplePDF.create (new File (dirInput, "doc" + index + ".pdf"), 4);
+        }
+
+        String args[] = {"--no-daemon", "-b", dirInput.getPath (), "-o", dirOutput.getPath (),
+            "-c", fileConfig.getPath (), "--skip-unchanged", "--no-cache", "--metrics", fileMetrics.getPath ()};
+        assertEquals (Main.invoke (args), Main.NO_ERROR);
+
+        // change a byte of the header comment, keeping length and time
+        File fileInput = new File (dirInput, "doc0.pdf");
+        long modified = fileInput.lastModified ();
+        byte data[] = Files.readAllBytes (fileInput.toPath ());
+        data[10] ^= 1;
+        Files.write (fileInput.toPath (), data);
+        assertTrue (fileInput.setLastModified (modified));
+        assertEquals (Main.invoke (args), Main.NO_ERROR);
+        JsonObject metrics = JsonParser.object ().from (
+            new String (Files.readAllBytes (fileMetrics.toPath ()), "UTF-8"));
+        assertEquals (1, metrics.getInt ("skipped"));
+
+        File dirCopy = SamplePDF.createDirectory ();
+        for (int index = 0; index < 2; index ++) {
+            Files.copy (new File (dirInput, "doc" + index + ".pdf").toPath (),
+                new File (dirCopy, "doc" + index + ".pdf").toPath ());
+        }
+        args[2] = dirCopy.getPath ();
+        assertEquals (Main.invoke (args), Main.NO_ERROR);
+        metrics = JsonParser.object ().from (new String (Files.readAllBytes (fileMetrics.toPath ()), "UTF-8"));
+        assertEquals (0, metrics.getInt ("skipped"));
+    }
+
+    /**
+     * Test invalid memory budget
+     * Args: -s -i in.pdf --memory-budget lots
+     * Should fail, budget is not a size
+     */
+    public void testInvalidMemoryBudget () {
+        String args[] = {"--no-daemon", "-s", "-i", "in.pdf", "--memory-budget", "lots"};
+        int result = Main.invoke (args);
+        assertEquals (result, Main.GENERAL_ERROR);
+    }
+
+    /**
+     * Test show and update with a memory budget smaller than the input file
+     * Args: --memory-budget 1k --no-cache
+     * Should succeed, loading through a scratch file
+     */
+    public void testMemoryBudget () throws Exception {
+        File dir = SamplePDF.createDirectory ();
+        File fileInput = new File (dir, "in.pdf");
+        File fileOutput = new File (dir, "out.pdf");
+        File fileConfig = new File (dir, "config.json");
+        SamplePDF.create (fileInput, 8);
+        SamplePDF.write (fileConfig, SamplePDF.CONFIG);
+
+        String argsShow[] = {"--no-daemon", "-s", "-i", fileInput.getPath (), "--memory-budget", "1k", "--no-cache"};
+        assertEquals (Main.invoke (argsShow), Main.NO_ERROR);
+
+        String argsUpdate[] = {"--no-daemon", "-i", fileInput.getPath (), "-o", fileOutput.getPath (),
+            "-c", fileConfig.getPath (), "--memory-budget", "1k", "--no-cache"};
+        assertEquals (Main.invoke (argsUpdate), Main.NO_ERROR);
+        assertTrue (fileOutput.exists ());
+    }
+
+    /**
+     * Test show with a cache directory
+     * Args: -s -i in.pdf --cache-dir dir
+     * Should not use a directory accessible by other users, and create a
+     * missing directory accessible only by the user, adding the text to it
+     */
+    public void testCacheDirectory () throws Exception {
+        File dir = SamplePDF.createDirectory ();
+        File fileInput = new File (dir, "in.pdf");
+        SamplePDF.create (fileInput, 2);
+        if (Files.getFileStore (dir.toPath ()).supportsFileAttributeView ("posix") == false) {
+            return;
+        }
+        Files.setPosixFilePermissions (dir.toPath (), PosixFilePermissions.fromString ("rwxr-xr-x"));
+
+        String args[] = {"--no-daemon", "-s", "-i", fileInput.getPath (), "--cache-dir", dir.getPath ()};
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream ();
+        try {
+            System.setOut (new PrintStream (output, true, "UTF-8"));
+            assertEquals (Main.invoke (args), Main.NO_ERROR);
+        } finally {
+            System.setOut (stdout);
+        }
+        assertTrue (output.toString ("UTF-8").contains ("Text cache not used"));
+        assertEquals (1, dir.list ().length);
+
+        File dirCache = new File (dir, "cache");
+        args[5] = dirCache.getPath ();
+        assertEquals (Main.invoke (args), Main.NO_ERROR);
+        assertEquals ("rwx------", PosixFilePermissions.toString (Files.getPosixFilePermissions (dirCache.toPath ())));
+        assertEquals (1, dirCache.list ().length);
+    }
+
+    /**
+     * Test metrics output
+     * Args: -i in.pdf -o out.pdf -c config.json --metrics metrics.json
+     * Should succeed, writing the metrics of the update as JSON
+     */
+    public void testMetrics () throws Exception {
+        File dir = SamplePDF.createDirectory ();
+        File fileInput = new File (dir, "in.pdf");
+        File fileOutput = new File (dir, "out.pdf");
+        File fileConfig = new File (dir, "config.json");
+        File fileMetrics = new File (dir, "metrics.json");
+        SamplePDF.create (fileInput, 8);
+        SamplePDF.write (fileConfig, SamplePDF.CONFIG);
+
+        String args[] = {"-i", fileInput.getPath (), "-o", fileOutput.getPath (), "-c", fileConfig.getPath (),
+            "--no-daemon", "--no-cache", "--metrics", fileMetrics.getPath ()};
+        assertEquals (Main.invoke (args), Main.NO_ERROR);
+        JsonObject metrics = JsonParser.object ().from (
+            new String (Files.readAllBytes (fileMetrics.toPath ()), "UTF-8"));
+        assertEquals (1, metrics.getInt ("documents"));
+        assertEquals (10, metrics.getInt ("headings"));
+        assertTrue (metrics.getObject ("phases").has ("extract"));
+    }
+
+    /**
+     * Test update from stdin to stdout, with inline configuration
+     * Args: -i - -o - -c {...}
+     * Should succeed, writing only the PDF to stdout
+     */
+    public void testStandardStreams () throws Exception {
+        File dir = SamplePDF.createDirectory ();
+        File fileInput = new File (dir, "in.pdf");
+        SamplePDF.create (fileInput, 8);
+
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream ();
+        try {
+            System.setIn (new ByteArrayInputStream (Files.readAllBytes (fileInput.toPath ())));
+            System.setOut (new PrintStream (output));
+            String args[] = {"--no-daemon", "-i", "-", "-o", "-", "-c", SamplePDF.CONFIG, "--no-cache"};
+            assertEquals (Main.invoke (args), Main.NO_ERROR);
+        } finally {
+            System.setIn (stdin);
+            System.setOut (stdout);
+        }
+        PDDocument document = PDDocument.load (new ByteArrayInputStream (output.toByteArray ()));
+        assertEquals ("Test", document.getDocumentInformation ().getTitle ());
+        document.close ();
+    }
+
+    /**
+     * Test input PDF and configuration both from stdin
+     * Args: -i - -o out.pdf -c -
+     * Should fail, only one can be read from stdin
+     */
+    public void testStdinInputAndConfig () {
+        String args[] = {"--no-daemon", "-i", "-", "-o", "out.pdf", "-c", "-"};
+        int result = Main.invoke (args);
+        assertEquals (result, Main.GENERAL_ERROR);
+    }
+
+    /**
+     * Test metadata only option without show option
+     * Args: -m -i in.pdf -o out.pdf -c config.json
+     * Should fail, metadata only requires show
+     */
+    public void testMetadataOnlyWithoutShow () {
+        String args[] = {"--no-daemon", "-m", "-i", "in.pdf", "-o", "out.pdf", "-c", "config.json"};
+        int result = Main.invoke (args);
+        assertEquals (result, Main.GENERAL_ERROR);
+    }
 }
@@ -0,0 +1,721 @@
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParser;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfparser.NonSequentialPDFParser;
+import org.apache.pdfbox.pdmodel.*;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.*;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for PDFFinish processing.
+ */
+public class PDFFinishTest extends TestCase {
+    private File fileInput;
+    private File fileOutput;
+    private File fileConfig;
+
+    /**
+     * Create the test case
+     * @param testName name of the test case
+     */
+    public PDFFinishTest (String testName) {
+        super (testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite () {
+        return new TestSuite (PDFFinishTest.class);
+    }
+
+    /**
+     * Create input PDF and configuration files.
+     */
+    protected void setUp () throws Exception {
+        File dir = SamplePDF.createDirectory ();
+        fileInput = new File (dir, "in.pdf");
+        fileOutput = new File (dir, "out.pdf");
+        fileConfig = new File (dir, "config.json");
+        SamplePDF.create (fileInput, 8);
+        SamplePDF.write (fileConfig, SamplePDF.CONFIG);
+    }
+
+    /**
+     * Count outline items below a node, at all levels.
+     */
+    private static int countItems (PDOutlineNode node) {
+        int count = 0;
+        for (PDOutlineItem item = node.getFirstChild (); item != null; item = item.getNextSibling ()) {
+            count += 1 + countItems (item);
+        }
+        return (count);
+    }
+
+    /**
+     * List outline item titles below a node, with their levels, in order.
+     */
+    private static String listItems (PDOutlineNode node, String indent) throws Exception {
+        StringBuilder list = new StringBuilder ();
+        for (PDOutlineItem item = node.getFirstChild (); item != null; item = item.getNextSibling ()) {
+            list.append (indent).append (item.getTitle ()).append ('\n');
+            list.append (listItems (item, indent + " "));
+        }
+        return (list.toString ());
+    }
+
+    /**
+     * Read a bit packed hint table value, most significant bit first, or
+     * skip to a byte boundary if the count is 0.
+     */
+    private static long readBits (byte data[], int position[], int count) {
+        if (count == 0) {
+            position[0] = (position[0] + 7) / 8 * 8;
+        }
+        long value = 0;
+        for (int bit = 0; bit < count; bit ++, position[0] ++) {
+            value = (value << 1) | ((data[position[0] / 8] >> (7 - position[0] % 8)) & 1);
+        }
+        return (value);
+    }
+
+    /**
+     * Test update with full save
+     * Should write metadata and outline with a top item, 2 chapters and 8 sections
+     */
+    public void testGenerate () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        int result = finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ());
+        assertEquals (result, PDFFinish.NO_ERROR);
+
+        PDDocument document = PDDocument.load (fileOutput);
+        assertEquals ("Test", document.getDocumentInformation ().getTitle ());
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        document.close ();
+    }
+
+    /**
+     * Test update with automatic heading detection
+     * Should detect the chapter and section fonts, giving the same outline
+     * as the configured fonts, and reject an unknown toc mode or an empty
+     * font list
+     */
+    public void testGenerateAuto () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        PDDocument document = PDDocument.load (fileOutput);
+        String expected = listItems (document.getDocumentCatalog ().getDocumentOutline (), "");
+        document.close ();
+
+        SamplePDF.write (fileConfig, "{ \"title\":\"Test\", \"toc\":\"auto\" }");
+        finish = new PDFFinish ();
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        document = PDDocument.load (fileOutput);
+        assertEquals (expected, listItems (document.getDocumentCatalog ().getDocumentOutline (), ""));
+        document.close ();
+        assertEquals (8, finish.getMetrics ().get (PDFMetrics.PAGES));
+
+        SamplePDF.write (fileConfig, "{ \"title\":\"Test\", \"toc\":\"manual\" }");
+        assertEquals (new PDFFinish ().generatePDF (fileConfig, fileInput, fileOutput.getPath ()),
+            PDFFinish.INVALID_CONFIG);
+        SamplePDF.write (fileConfig, "{ \"title\":\"Test\", \"toc\":[] }");
+        assertEquals (new PDFFinish ().generatePDF (fileConfig, fileInput, fileOutput.getPath ()),
+            PDFFinish.INVALID_CONFIG);
+    }
+
+    /**
+     * Test update with automatic heading detection, of a document with a
+     * running header in a font larger than the section headings on every
+     * page
+     * Should leave the header out, giving the same outline as without it
+     */
+    public void testGenerateAutoRunningHeader () throws Exception {
+        SamplePDF.write (fileConfig, "{ \"title\":\"Test\", \"toc\":\"auto\" }");
+        PDFFinish finish = new PDFFinish ();
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        PDDocument document = PDDocument.load (fileOutput);
+        String expected = listItems (document.getDocumentCatalog ().getDocumentOutline (), "");
+        document.close ();
+
+        SamplePDF.create (fileInput, 8, 1, "Sample Document");
+        finish = new PDFFinish ();
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        document = PDDocument.load (fileOutput);
+        assertEquals (expected, listItems (document.getDocumentCatalog ().getDocumentOutline (), ""));
+        document.close ();
+    }
+
+    /**
+     * Test update with heading levels that skip a level, or are above 3
+     * Should add each heading under the closest preceding higher level heading
+     */
+    public void testGenerateLevelGap () throws Exception {
+        SamplePDF.write (fileConfig, "{ \"title\":\"Test\", \"toc\":[" +
+            "{ \"font\":\"Helvetica-Bold\", \"size\":24.0, \"level\":2 }," +
+            "{ \"font\":\"Helvetica-Bold\", \"size\":16.0, \"level\":5 } ] }");
+        PDFFinish finish = new PDFFinish ();
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+
+        PDDocument document = PDDocument.load (fileOutput);
+        PDOutlineItem top = document.getDocumentCatalog ().getDocumentOutline ().getFirstChild ();
+        assertEquals (10, countItems (top));
+        assertEquals ("Chapter 1", top.getFirstChild ().getTitle ());
+        assertEquals ("Section 1", top.getFirstChild ().getFirstChild ().getTitle ());
+        document.close ();
+    }
+
+    /**
+     * Test update with page range and heading limit, with one and multiple
+     * threads
+     * Should write outline with headings from the page range up to the limit
+     */
+    public void testGeneratePageRange () throws Exception {
+        File fileLarge = new File (fileConfig.getParentFile (), "large.pdf");
+        SamplePDF.create (fileLarge, 100);
+        SamplePDF.write (fileConfig, SamplePDF.CONFIG.replace ("{ \"title\"",
+            "{ \"pages\":\"21-40,81-\", \"maxHeadings\":30, \"title\""));
+
+        for (int threads = 1; threads <= 4; threads += 3) {
+            PDFFinish finish = new PDFFinish ();
+            finish.setThreads (threads);
+            assertEquals (finish.generatePDF (fileConfig, fileLarge, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+
+            PDDocument document = PDDocument.load (fileOutput);
+            PDDocumentOutline outline = document.getDocumentCatalog ().getDocumentOutline ();
+            assertEquals (1 + 30, countItems (outline));
+            PDOutlineItem chapter = outline.getFirstChild ().getFirstChild ();
+            assertEquals ("Chapter 6", chapter.getTitle ());
+            assertEquals ("Section 21", chapter.getFirstChild ().getTitle ());
+            document.close ();
+        }
+    }
+
+    /**
+     * Test text cache
+     * Should add the text to the cache in show mode, keyed with the text
+     * finder, pdf-finish and PDFBox versions, and generate the same outline
+     * from the cache, using the cached text rather than the pages
+     */
+    public void testCache () throws Exception {
+        File dirCache = new File (fileConfig.getParentFile (), "cache");
+        ExtractionCache cache = new ExtractionCache (dirCache, ExtractionCache.DEFAULT_MAX_SIZE);
+        PDFFinish finish = new PDFFinish ();
+        finish.setCache (cache);
+        assertEquals (finish.showInfo (fileInput), PDFFinish.NO_ERROR);
+        String key = cache.getKey (fileInput, true);
+        assertTrue (cache.contains (key));
+        assertTrue (key.endsWith ("-x" + ExtractionCache.EXTRACTOR_VERSION + "-" + Main.VERSION + "-pdfbox-1.8.6"));
+
+        finish = new PDFFinish ();
+        finish.setCache (cache);
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        PDDocument document = PDDocument.load (fileOutput);
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        document.close ();
+
+        ExtractionCache.Entry entry = cache.create (key);
+        entry.onText (new PDFTextFinder.PDFText (2, 72.0f, 72.0f, "Cached", 0, "Helvetica-Bold", 24.0f));
+        entry.commit ();
+        finish = new PDFFinish ();
+        finish.setCache (cache);
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        document = PDDocument.load (fileOutput);
+        assertEquals ("Test\n Cached\n", listItems (document.getDocumentCatalog ().getDocumentOutline (), ""));
+        document.close ();
+
+        new ExtractionCache (dirCache, 0).create (key).commit ();
+        assertFalse (cache.contains (key));
+    }
+
+    /**
+     * Test text cache with an incomplete entry
+     * Should find the text in the document rather than using the headings
+     * read before the end of the entry, in update and show mode, and remove
+     * the entry
+     */
+    public void testCacheIncomplete () throws Exception {
+        File dirCache = new File (fileConfig.getParentFile (), "cache");
+        ExtractionCache cache = new ExtractionCache (dirCache, ExtractionCache.DEFAULT_MAX_SIZE);
+        PDFFinish finish = new PDFFinish ();
+        finish.setCache (cache);
+        assertEquals (finish.showInfo (fileInput), PDFFinish.NO_ERROR);
+        String key = cache.getKey (fileInput, true);
+
+        // entry with the first heading, without the end record
+        ExtractionCache.Entry entry = cache.create (key);
+        entry.onText (new PDFTextFinder.PDFText (1, 72.0f, 72.0f, "Cached", 0, "Helvetica-Bold", 24.0f));
+        entry.commit ();
+        File fileEntry = new File (dirCache, key + ".cache");
+        byte data[] = Files.readAllBytes (fileEntry.toPath ());
+        GZIPInputStream in = new GZIPInputStream (new ByteArrayInputStream (data));
+        ByteArrayOutputStream content = new ByteArrayOutputStream ();
+        byte buffer[] = new byte[4096];
+        int length;
+        while ((length = in.read (buffer)) != -1) {
+            content.write (buffer, 0, length);
+        }
+        GZIPOutputStream gzip = new GZIPOutputStream (new FileOutputStream (fileEntry));
+        gzip.write (content.toByteArray (), 0, content.size () - 1);
+        gzip.close ();
+
+        finish = new PDFFinish ();
+        finish.setCache (cache);
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        PDDocument document = PDDocument.load (fileOutput);
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        document.close ();
+        assertFalse (cache.contains (key));
+
+        entry = cache.create (key);
+        entry.onText (new PDFTextFinder.PDFText (1, 72.0f, 72.0f, "Cached", 0, "Helvetica-Bold", 24.0f));
+        entry.commit ();
+        Files.write (fileEntry.toPath (), Arrays.copyOf (data, data.length / 2));
+        ByteArrayOutputStream output = new ByteArrayOutputStream ();
+        finish = new PDFFinish ();
+        finish.setCache (cache);
+        finish.setOutput (new PrintStream (output, true, "UTF-8"));
+        assertEquals (finish.showInfo (fileInput), PDFFinish.NO_ERROR);
+        assertTrue (output.toString ("UTF-8").contains ("Times-Roman:10.0"));
+    }
+
+    /**
+     * Test show with a sample of pages
+     * Should read only the sampled pages, including the first and last pages,
+     * and estimate the fragments of the body text font from them
+     */
+    public void testShowSample () throws Exception {
+        File fileLarge = new File (fileConfig.getParentFile (), "large.pdf");
+        SamplePDF.create (fileLarge, 100);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+        PDFFinish finish = new PDFFinish ();
+        finish.setOutput (new PrintStream (buffer, true, "UTF-8"));
+        finish.setSample (20);
+        assertEquals (finish.showInfo (fileLarge), PDFFinish.NO_ERROR);
+        assertEquals (20, finish.getMetrics ().get (PDFMetrics.PAGES));
+
+        String output = buffer.toString ("UTF-8");
+        assertTrue (output.contains ("Fonts, sampled 20 of 100 pages"));
+        Matcher matcher = Pattern.compile ("Times-Roman:10.0  \\d+  (\\d+)  (\\d+) \\[(\\d+)-(\\d+)\\]  (\\d+)-(\\d+)")
+            .matcher (output);
+        assertTrue (matcher.find ());
+        assertEquals ("2000", matcher.group (1));
+        assertEquals ("100", matcher.group (2));
+        assertTrue (Integer.parseInt (matcher.group (3)) < 100);
+        assertEquals ("100", matcher.group (4));
+        assertEquals ("1", matcher.group (5));
+        assertEquals ("100", matcher.group (6));
+        assertTrue (output.contains ("Helvetica-Bold:24.0"));
+
+        finish.setSample (100);
+        buffer.reset ();
+        assertEquals (finish.showInfo (fileLarge), PDFFinish.NO_ERROR);
+        assertTrue (buffer.toString ("UTF-8").contains ("Fonts (characters, fragments, pages)"));
+    }
+
+    /**
+     * Test metrics of update and show
+     * Should count the pages, headings, bytes and errors of each document
+     */
+    public void testMetrics () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        PDFMetrics metrics = finish.getMetrics ();
+        assertEquals (1, metrics.get (PDFMetrics.DOCUMENTS));
+        assertEquals (0, metrics.get (PDFMetrics.ERRORS));
+        assertEquals (8, metrics.get (PDFMetrics.PAGES));
+        assertEquals (10, metrics.get (PDFMetrics.MATCHES));
+        assertEquals (10, metrics.get (PDFMetrics.HEADINGS));
+        assertTrue (metrics.get (PDFMetrics.FRAGMENTS) >= 10);
+        assertEquals (fileInput.length (), metrics.get (PDFMetrics.INPUT_BYTES));
+        assertEquals (fileOutput.length (), metrics.get (PDFMetrics.OUTPUT_BYTES));
+        assertTrue (metrics.getTime (PDFMetrics.LOAD) > 0);
+        assertTrue (metrics.getTime (PDFMetrics.SAVE) > 0);
+        assertEquals (8L, metrics.toJson ().getNumber ("pages").longValue ());
+
+        finish.showInfo (new File (fileInput.getParentFile (), "missing.pdf"));
+        assertEquals (2, metrics.get (PDFMetrics.DOCUMENTS));
+        assertEquals (1, metrics.get (PDFMetrics.FAILURES));
+        assertEquals (1, metrics.get (PDFMetrics.ERRORS));
+    }
+
+    /**
+     * Test update from an input stream to an output stream
+     * Should write the same metadata and outline as for files, and reject
+     * incremental output
+     */
+    public void testGenerateStreams () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        ByteArrayOutputStream output = new ByteArrayOutputStream ();
+        int result = finish.generatePDF (JsonParser.object ().from (SamplePDF.CONFIG),
+            new ByteArrayInputStream (Files.readAllBytes (fileInput.toPath ())), output);
+        assertEquals (result, PDFFinish.NO_ERROR);
+        assertEquals (output.size (), finish.getMetrics ().get (PDFMetrics.OUTPUT_BYTES));
+
+        PDDocument document = PDDocument.load (new ByteArrayInputStream (output.toByteArray ()));
+        assertEquals ("Test", document.getDocumentInformation ().getTitle ());
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        document.close ();
+
+        finish = new PDFFinish ();
+        finish.setIncremental (true);
+        result = finish.generatePDF (JsonParser.object ().from (SamplePDF.CONFIG),
+            new ByteArrayInputStream (Files.readAllBytes (fileInput.toPath ())), new ByteArrayOutputStream ());
+        assertEquals (result, PDFFinish.INVALID_CONFIG);
+    }
+
+    /**
+     * Test update with optimized output, of a document with the same content
+     * stream on every page
+     * Should merge the content streams and compress the remaining one, keeping
+     * the text of every page and the metadata stream unfiltered, and reject
+     * incremental output
+     */
+    public void testGenerateOptimize () throws Exception {
+        File fileDuplicates = File.createTempFile ("duplicates", ".pdf");
+        File fileOptimized = File.createTempFile ("optimized", ".pdf");
+        try {
+            SamplePDF.createDuplicates (fileDuplicates, 10);
+            PDFFinish finish = new PDFFinish ();
+            finish.setOptimize (true);
+            int result = finish.generatePDF (JsonParser.object ().from ("{\"title\":\"Test\"}"),
+                fileDuplicates, fileOptimized.getPath ());
+            assertEquals (result, PDFFinish.NO_ERROR);
+            assertTrue (finish.getMetrics ().get (PDFMetrics.BYTES_SAVED) > 0);
+            assertTrue (fileOptimized.length () < fileDuplicates.length () / 4);
+
+            PDDocument document = PDDocument.load (fileOptimized);
+            assertEquals (10, document.getNumberOfPages ());
+            List<PDFTextFinder.PDFText> text = new PDFTextFinder (Arrays.asList (
+                new PDFTextFinder.Font ("Helvetica-Bold", 16, 1))).getTextList (document);
+            assertEquals (10, text.size ());
+            assertEquals ("Repeated Page", text.get (9).text);
+            COSStream metadata = document.getDocumentCatalog ().getMetadata ().getStream ();
+            assertNull (metadata.getFilters ());
+            document.close ();
+
+            finish = new PDFFinish ();
+            finish.setOptimize (true);
+            finish.setIncremental (true);
+            result = finish.generatePDF (JsonParser.object ().from ("{}"), fileDuplicates, fileOptimized.getPath ());
+            assertEquals (result, PDFFinish.INVALID_CONFIG);
+        } finally {
+            fileDuplicates.delete ();
+            fileOptimized.delete ();
+        }
+    }
+
+    /**
+     * Test update with linearized output
+     * Should start with the linearization parameters and first page cross
+     * reference table, with every cross reference entry at its object, the
+     * same metadata and outline as a full save, and reject incremental output
+     */
+    public void testGenerateLinearized () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        finish.setLinearize (true);
+        int result = finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ());
+        assertEquals (result, PDFFinish.NO_ERROR);
+
+        String output = new String (Files.readAllBytes (fileOutput.toPath ()), "ISO-8859-1");
+        Matcher linearized = Pattern.compile ("^%PDF-1\\.\\d\n%.{4}\n\\d+ 0 obj\n<< /Linearized 1 /L +(\\d+) .* /N (\\d+) ")
+            .matcher (output);
+        assertTrue (linearized.find ());
+        assertEquals (output.length (), Integer.parseInt (linearized.group (1)));
+        assertEquals (8, Integer.parseInt (linearized.group (2)));
+        assertTrue (output.indexOf ("xref") < output.indexOf ("/Type /Page"));
+
+        Matcher xref = Pattern.compile ("xref\n(\\d+) (\\d+)\n").matcher (output);
+        int sections = 0;
+        while (xref.find ()) {
+            int first = Integer.parseInt (xref.group (1));
+            for (int index = 0; index < Integer.parseInt (xref.group (2)); index ++) {
+                String entry = output.substring (xref.end () + index * 20, xref.end () + index * 20 + 20);
+                if (entry.charAt (17) == 'n') {
+                    int offset = Integer.parseInt (entry.substring (0, 10));
+                    assertTrue (output.startsWith ((first + index) + " 0 obj", offset));
+                }
+            }
+            sections ++;
+        }
+        assertEquals (2, sections);
+
+        PDDocument document = PDDocument.load (fileOutput);
+        assertEquals ("Test", document.getDocumentInformation ().getTitle ());
+        assertEquals (8, document.getNumberOfPages ());
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        document.close ();
+
+        finish = new PDFFinish ();
+        finish.setLinearize (true);
+        finish.setIncremental (true);
+        result = finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ());
+        assertEquals (result, PDFFinish.INVALID_CONFIG);
+    }
+
+    /**
+     * Test update with linearized output, reading back the page offset hint
+     * table
+     * Should give the offset of each page object, and the offset and length
+     * of each page content stream, as found in the cross reference tables
+     */
+    public void testGenerateLinearizedHints () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        finish.setLinearize (true);
+        assertEquals (finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+
+        byte bytes[] = Files.readAllBytes (fileOutput.toPath ());
+        String output = new String (bytes, "ISO-8859-1");
+        HashMap<Long, Long> offsets = new HashMap<Long, Long> ();
+        Matcher xref = Pattern.compile ("xref\n(\\d+) (\\d+)\n").matcher (output);
+        while (xref.find ()) {
+            for (int index = 0; index < Integer.parseInt (xref.group (2)); index ++) {
+                String entry = output.substring (xref.end () + index * 20, xref.end () + index * 20 + 20);
+                offsets.put ((long) Integer.parseInt (xref.group (1)) + index, Long.parseLong (entry.substring (0, 10)));
+            }
+        }
+
+        // hint stream data, offsets in the tables are as if it were not present
+        Matcher hints = Pattern.compile ("/H \\[ +(\\d+) +(\\d+) \\]").matcher (output);
+        assertTrue (hints.find ());
+        int offsetHint = Integer.parseInt (hints.group (1));
+        int lengthHint = Integer.parseInt (hints.group (2));
+        Matcher stream = Pattern.compile ("/Length (\\d+) [^>]*>>\nstream\r\n").matcher (output);
+        assertTrue (stream.find (offsetHint));
+        InflaterInputStream in = new InflaterInputStream (new ByteArrayInputStream (bytes, stream.end (),
+            Integer.parseInt (stream.group (1))));
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream ();
+        byte buffer[] = new byte[4096];
+        for (int count = in.read (buffer); count != -1; count = in.read (buffer)) {
+            inflated.write (buffer, 0, count);
+        }
+        byte data[] = inflated.toByteArray ();
+
+        int position[] = { 0 };
+        PDDocument document = PDDocument.load (fileOutput);
+        int pageCount = document.getNumberOfPages ();
+        readBits (data, position, 32);
+        long offsetPage = readBits (data, position, 32) + lengthHint;
+        int bitsCount = (int) readBits (data, position, 16);
+        long minLength = readBits (data, position, 32);
+        int bitsLength = (int) readBits (data, position, 16);
+        long minContentOffset = readBits (data, position, 32);
+        int bitsContentOffset = (int) readBits (data, position, 16);
+        long minContentLength = readBits (data, position, 32);
+        int bitsContentLength = (int) readBits (data, position, 16);
+        int bitsShared = (int) readBits (data, position, 16);
+        int bitsIdentifier = (int) readBits (data, position, 16);
+        int bitsNumerator = (int) readBits (data, position, 16);
+        readBits (data, position, 16);
+        long pageLengths[] = new long[pageCount];
+        long sharedCount = 0;
+        for (int page = 0; page < pageCount; page ++) {
+            readBits (data, position, bitsCount);
+        }
+        readBits (data, position, 0);
+        for (int page = 0; page < pageCount; page ++) {
+            pageLengths[page] = minLength + readBits (data, position, bitsLength);
+        }
+        readBits (data, position, 0);
+        for (int page = 0; page < pageCount; page ++) {
+            sharedCount += readBits (data, position, bitsShared);
+        }
+        readBits (data, position, 0);
+        position[0] += sharedCount * bitsIdentifier;
+        readBits (data, position, 0);
+        position[0] += sharedCount * bitsNumerator;
+        readBits (data, position, 0);
+        long contentOffsets[] = new long[pageCount];
+        long contentLengths[] = new long[pageCount];
+        for (int page = 0; page < pageCount; page ++) {
+            contentOffsets[page] = minContentOffset + readBits (data, position, bitsContentOffset);
+        }
+        readBits (data, position, 0);
+        for (int page = 0; page < pageCount; page ++) {
+            contentLengths[page] = minContentLength + readBits (data, position, bitsContentLength);
+        }
+
+        IdentityHashMap<COSBase, Long> numbers = new IdentityHashMap<COSBase, Long> ();
+        for (COSObject object : document.getDocument ().getObjects ()) {
+            numbers.put (object.getObject (), object.getObjectNumber ().longValue ());
+        }
+        List<?> pages = document.getDocumentCatalog ().getAllPages ();
+        for (int page = 0; page < pageCount; page ++) {
+            COSDictionary dictionary = ((PDPage) pages.get (page)).getCOSDictionary ();
+            assertEquals (offsets.get (numbers.get (dictionary)), Long.valueOf (offsetPage));
+            long number = numbers.get (dictionary.getDictionaryObject (COSName.CONTENTS));
+            long offsetContent = offsetPage + contentOffsets[page];
+            assertEquals (offsets.get (number), Long.valueOf (offsetContent));
+            String content = output.substring ((int) offsetContent, (int) (offsetContent + contentLengths[page]));
+            assertTrue (content.startsWith (number + " 0 obj\n"));
+            assertTrue (content.endsWith ("endstream\nendobj\n"));
+            offsetPage += pageLengths[page];
+        }
+        document.close ();
+    }
+
+    /**
+     * Test update with resource limits on the document
+     * Should stop with a limit error when a page, operator or heap limit is
+     * exceeded, reject negative limits, and succeed within the limits
+     */
+    public void testGenerateLimits () throws Exception {
+        String limits[] = { "maxPages", "maxOperators", "maxHeap" };
+        long values[] = { 4, 10, 100 };
+        for (int index = 0; index < limits.length; index ++) {
+            JsonObject config = JsonParser.object ().from (SamplePDF.CONFIG);
+            config.put (limits[index], values[index]);
+            PDFFinish finish = new PDFFinish ();
+            assertEquals (finish.generatePDF (config, fileInput, fileOutput.getPath ()), PDFFinish.LIMIT_EXCEEDED);
+
+            config.put (limits[index], -1);
+            finish = new PDFFinish ();
+            assertEquals (finish.generatePDF (config, fileInput, fileOutput.getPath ()), PDFFinish.INVALID_CONFIG);
+        }
+
+        JsonObject config = JsonParser.object ().from (SamplePDF.CONFIG);
+        config.put ("timeLimit", 60);
+        config.put ("maxPages", 8);
+        config.put ("maxOperators", 100000);
+        config.put ("maxHeap", "1g");
+        for (int threads = 1; threads <= 2; threads ++) {
+            PDFFinish finish = new PDFFinish ();
+            finish.setThreads (threads);
+            assertEquals (finish.generatePDF (config, fileInput, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+            PDDocument document = PDDocument.load (fileOutput);
+            assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+            document.close ();
+        }
+    }
+
+    /**
+     * Test update with incremental save
+     * Should keep the input file content unchanged at the start of the output,
+     * with the same metadata and outline as a full save
+     */
+    public void testGenerateIncremental () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        finish.setIncremental (true);
+        int result = finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ());
+        assertEquals (result, PDFFinish.NO_ERROR);
+
+        byte input[] = Files.readAllBytes (fileInput.toPath ());
+        byte output[] = Files.readAllBytes (fileOutput.toPath ());
+        assertTrue (output.length > input.length);
+        assertTrue (Arrays.equals (input, Arrays.copyOf (output, input.length)));
+
+        PDDocument document = PDDocument.load (fileOutput);
+        assertEquals ("Test", document.getDocumentInformation ().getTitle ());
+        assertEquals ("Tester", document.getDocumentInformation ().getAuthor ());
+        assertEquals (8, document.getNumberOfPages ());
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        document.close ();
+    }
+
+    /**
+     * Test metadata only update, with incremental save
+     * Should load the document without pages and write updated metadata,
+     * keeping the pages and outline of the input file
+     */
+    public void testGenerateMetadataOnly () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ());
+        File fileMetadata = new File (fileConfig.getParentFile (), "metadata.json");
+        File fileFinal = new File (fileConfig.getParentFile (), "final.pdf");
+        SamplePDF.write (fileMetadata, "{ \"title\":\"New Title\", \"incremental\":true }");
+
+        finish = new PDFFinish ();
+        int result = finish.generatePDF (fileMetadata, fileOutput, fileFinal.getPath ());
+        assertEquals (result, PDFFinish.NO_ERROR);
+
+        PDDocument document = PDDocument.load (fileFinal);
+        assertEquals ("New Title", document.getDocumentInformation ().getTitle ());
+        assertEquals ("Tester", document.getDocumentInformation ().getAuthor ());
+        assertEquals (8, document.getNumberOfPages ());
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        document.close ();
+    }
+
+    /**
+     * Test loading metadata only
+     * Should read metadata and outline, without reading the page objects or
+     * setting the PDFBox parse mode property, and load the full document
+     * when the information dictionary is not a dictionary
+     */
+    public void testLoadMetadata () throws Exception {
+        PDFFinish finish = new PDFFinish ();
+        finish.generatePDF (fileConfig, fileInput, fileOutput.getPath ());
+
+        PDFLoader loader = new PDFLoader ();
+        PDDocument document = loader.loadMetadata (fileOutput);
+        assertEquals ("Test", document.getDocumentInformation ().getTitle ());
+        assertEquals (11, countItems (document.getDocumentCatalog ().getDocumentOutline ()));
+        int parsed = 0;
+        for (COSObject object : document.getDocument ().getObjects ()) {
+            if (object.getObject () instanceof COSStream) {
+                parsed ++;
+            }
+        }
+        assertEquals (0, parsed);
+        loader.close (document);
+        assertNull (System.getProperty (NonSequentialPDFParser.SYSPROP_PARSEMINIMAL));
+
+        // information dictionary reference to an integer
+        SamplePDF.createBadInfo (fileOutput);
+        document = loader.loadMetadata (fileOutput);
+        assertEquals (1, document.getNumberOfPages ());
+        loader.close (document);
+    }
+
+    /**
+     * Test update with text found using multiple threads
+     * Should produce the same outline as a single thread, counting each page
+     * once
+     */
+    public void testGenerateThreads () throws Exception {
+        File fileLarge = new File (fileConfig.getParentFile (), "large.pdf");
+        File fileThreads = new File (fileConfig.getParentFile (), "threads.pdf");
+        SamplePDF.create (fileLarge, 100);
+
+        PDFFinish finish = new PDFFinish ();
+        assertEquals (finish.generatePDF (fileConfig, fileLarge, fileOutput.getPath ()), PDFFinish.NO_ERROR);
+        assertEquals (100, finish.getMetrics ().get (PDFMetrics.PAGES));
+        finish = new PDFFinish ();
+        finish.setThreads (4);
+        assertEquals (finish.generatePDF (fileConfig, fileLarge, fileThreads.getPath ()), PDFFinish.NO_ERROR);
+        assertEquals (100, finish.getMetrics ().get (PDFMetrics.PAGES));
+
+        PDDocument serial = PDDocument.load (fileOutput);
+        PDDocument parallel = PDDocument.load (fileThreads);
+        PDDocumentOutline outline = serial.getDocumentCatalog ().getDocumentOutline ();
+        assertEquals (126, countItems (outline));
+        assertEquals (listItems (outline, ""),
+            listItems (parallel.getDocumentCatalog ().getDocumentOutline (), ""));
+        serial.close ();
+        parallel.close ();
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.grack.nanojson.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for daemon and client.
+ */
+public class PDFServerTest extends TestCase {
+    private File dir;
+    private File fileInput;
+    private File portFile;
+    private PDFServer server;
+
+    /**
+     * Create the test case
+     * @param testName name of the test case
+     */
+    public PDFServerTest (String testName) {
+        super (testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite () {
+        return new TestSuite (PDFServerTest.class);
+    }
+
+    /**
+     * Create input PDF, and start the daemon.
+     */
+    protected void setUp () throws Exception {
+        dir = SamplePDF.createDirectory ();
+        fileInput = new File (dir, "in.pdf");
+        portFile = new File (dir, "daemon.port");
+        SamplePDF.create (fileInput, 8);
+        server = new PDFServer (0, 2);
+        server.start (portFile);
+    }
+
+    /**
+     * Stop the daemon.
+     */
+    protected void tearDown () throws Exception {
+        server.stop ();
+    }
+
+    /**
+     * Test show and update jobs
+     * Should return the result and output of each job
+     */
+    public void testJobs () throws Exception {
+        PDFClient client = PDFClient.connect (portFile);
+        assertNotNull (client);
+
+        JsonObject job = new JsonObject ();
+        job.put ("show", true);
+        job.put ("input", fileInput.getPath ());
+        JsonObject response = client.submit (job);
+        assertEquals (PDFFinish.NO_ERROR, response.getInt ("result"));
+        assertTrue (response.getString ("output").contains ("Helvetica-Bold:24.0"));
+
+        File fileOutput = new File (dir, "out.pdf");
+        job = JsonParser.object ().from (SamplePDF.CONFIG);
+        job.put ("input", fileInput.getPath ());
+        job.put ("output", fileOutput.getPath ());
+        response = client.submit (job);
+        assertEquals (PDFFinish.NO_ERROR, response.getInt ("result"));
+        assertEquals ("OK", response.getString ("name"));
+        PDDocument document = PDDocument.load (fileOutput);
+        assertEquals ("Test", document.getDocumentInformation ().getTitle ());
+        document.close ();
+
+        job.put ("input", new File (dir, "missing.pdf").getPath ());
+        response = client.submit (job);
+        assertEquals (PDFFinish.READ_ERROR_INPUT_PDF, response.getInt ("result"));
+
+        ObjectName name = new ObjectName ("com.github.joemcintyre.pdffinish:type=Metrics,port=" + server.getPort ());
+        MBeanServer beans = ManagementFactory.getPlatformMBeanServer ();
+        assertEquals (3L, beans.getAttribute (name, "Documents"));
+        assertEquals (1L, beans.getAttribute (name, "Failures"));
+        assertEquals (1, response.getObject ("metrics").getInt ("failures"));
+    }
+
+    /**
+     * Test show job with caching turned off
+     * Should find the text without adding it to the daemon cache, and add it
+     * when caching is not turned off
+     */
+    public void testJobNoCache () throws Exception {
+        ExtractionCache cache = new ExtractionCache (new File (dir, "cache"), ExtractionCache.DEFAULT_MAX_SIZE);
+        JsonObject job = new JsonObject ();
+        job.put ("show", true);
+        job.put ("input", fileInput.getPath ());
+        job.put ("cache", false);
+        job.put ("memoryBudget", 1024);
+        JsonObject response = PDFServer.runJob (job, cache, new PDFMetrics ());
+        assertEquals (PDFFinish.NO_ERROR, response.getInt ("result"));
+        assertFalse (cache.contains (cache.getKey (fileInput, true)));
+
+        job.remove ("cache");
+        PDFServer.runJob (job, cache, new PDFMetrics ());
+        assertTrue (cache.contains (cache.getKey (fileInput, true)));
+    }
+
+    /**
+     * Test stopping the daemon
+     * Should remove the port file, and refuse further jobs
+     */
+    public void testStop () throws Exception {
+        PDFClient client = PDFClient.connect (portFile);
+        client.stop ();
+        server.await ();
+        assertFalse (portFile.exists ());
+        assertNull (PDFClient.connect (portFile));
+
+        JsonObject job = new JsonObject ();
+        job.put ("show", true);
+        job.put ("input", fileInput.getPath ());
+        try {
+            client.submit (job);
+            fail ("Job accepted after stop");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test port file access
+     * Should write the port file readable only by the user, refuse a port
+     * file readable by others, and replace a symbolic link in place of the
+     * port file without writing to its target
+     */
+    public void testPortFilePrivate () throws Exception {
+        assertEquals ("rw-------", PosixFilePermissions.toString (Files.getPosixFilePermissions (portFile.toPath ())));
+        Files.setPosixFilePermissions (portFile.toPath (), PosixFilePermissions.fromString ("rw-r--r--"));
+        assertNull (PDFClient.connect (portFile));
+        server.stop ();
+
+        File target = new File (dir, "target.txt");
+        SamplePDF.write (target, "other");
+        Files.createSymbolicLink (portFile.toPath (), target.toPath ());
+        assertNull (PDFClient.connect (portFile));
+        server = new PDFServer (0, 1);
+        server.start (portFile);
+        assertEquals ("other", new String (Files.readAllBytes (target.toPath ()), "UTF-8"));
+        assertFalse (Files.isSymbolicLink (portFile.toPath ()));
+        assertNotNull (PDFClient.connect (portFile));
+    }
+}
@@ -0,0 +1,292 @@
+package com.github.joemcintyre.pdffinish;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for PDFTextFinder processing.
+ */
+public class PDFTextFinderTest extends TestCase {
+    private PDDocument document;
+
+    /**
+     * Create the test case
+     * @param testName name of the test case
+     */
+    public PDFTextFinderTest (String testName) {
+        super (testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite () {
+        return new TestSuite (PDFTextFinderTest.class);
+    }
+
+    /**
+     * Load a generated 12 page document.
+     */
+    protected void setUp () throws Exception {
+        File file = new File (SamplePDF.createDirectory (), "in.pdf");
+        SamplePDF.create (file, 12);
+        document = PDDocument.load (file);
+    }
+
+    /**
+     * Close the document.
+     */
+    protected void tearDown () throws Exception {
+        document.close ();
+    }
+
+    /**
+     * Font list matching the headings of the generated document.
+     */
+    private static List<PDFTextFinder.Font> getHeadingFonts () {
+        List<PDFTextFinder.Font> fonts = new ArrayList<PDFTextFinder.Font> ();
+        fonts.add (new PDFTextFinder.Font ("Helvetica-Bold", 24.0f, 1));
+        fonts.add (new PDFTextFinder.Font ("Helvetica-Bold", 16.0f, 2));
+        return (fonts);
+    }
+
+    /**
+     * Test text delivered to a listener
+     * Should receive headings in page order, with tags and page numbers
+     */
+    public void testListener () throws Exception {
+        final List<PDFTextFinder.PDFText> headings = new ArrayList<PDFTextFinder.PDFText> ();
+        PDFTextFinder finder = new PDFTextFinder (getHeadingFonts ());
+        finder.process (document, new PDFTextFinder.Listener () {
+            public void onText (PDFTextFinder.PDFText text) {
+                headings.add (text);
+            }
+        });
+
+        assertEquals (15, headings.size ());
+        PDFTextFinder.PDFText first = headings.get (0);
+        assertEquals ("Chapter 1", first.text);
+        assertEquals (1, first.tag);
+        assertEquals (1, first.pageNumber);
+        assertEquals ("Helvetica-Bold", first.font);
+        assertEquals (24.0f, first.fontSize);
+        PDFTextFinder.PDFText last = headings.get (14);
+        assertEquals ("Section 12", last.text);
+        assertEquals (2, last.tag);
+        assertEquals (12, last.pageNumber);
+    }
+
+    /**
+     * Test font size tolerance
+     * Should match headings only when the size is within the tolerance
+     */
+    public void testSizeTolerance () throws Exception {
+        List<PDFTextFinder.Font> fonts = new ArrayList<PDFTextFinder.Font> ();
+        fonts.add (new PDFTextFinder.Font ("Helvetica-Bold", 16.2f, 2));
+        PDFTextFinder finder = new PDFTextFinder (fonts);
+        assertEquals (0, finder.getTextList (document).size ());
+
+        finder = new PDFTextFinder (fonts);
+        finder.setSizeTolerance (0.25f);
+        List<PDFTextFinder.PDFText> headings = finder.getTextList (document);
+        assertEquals (12, headings.size ());
+        assertEquals ("Section 1", headings.get (0).text);
+        assertEquals (16.0f, headings.get (0).fontSize);
+    }
+
+    /**
+     * Test finding text in content stream order
+     * Should find the same headings as when sorted by position
+     */
+    public void testUnsorted () throws Exception {
+        List<PDFTextFinder.PDFText> sorted = new PDFTextFinder (getHeadingFonts ()).getTextList (document);
+        PDFTextFinder finder = new PDFTextFinder (getHeadingFonts ());
+        finder.setSortByPosition (false);
+        List<PDFTextFinder.PDFText> unsorted = finder.getTextList (document);
+        assertEquals (sorted.size (), unsorted.size ());
+        for (int index = 0; index < sorted.size (); index ++) {
+            assertEquals (sorted.get (index).text, unsorted.get (index).text);
+            assertEquals (sorted.get (index).pageNumber, unsorted.get (index).pageNumber);
+        }
+    }
+
+    /**
+     * Test page range and match limit
+     * Should find headings only on pages in the range, stopping at the limit
+     */
+    public void testPageRange () throws Exception {
+        PDFTextFinder finder = new PDFTextFinder (getHeadingFonts ());
+        finder.setPageRange (PageRange.parse ("2-3,9-"));
+        List<PDFTextFinder.PDFText> headings = finder.getTextList (document);
+        assertEquals (2 + 1 + 4, headings.size ());
+        assertEquals ("Section 2", headings.get (0).text);
+        assertEquals ("Chapter 3", headings.get (2).text);
+        assertEquals (9, headings.get (2).pageNumber);
+
+        finder = new PDFTextFinder (getHeadingFonts ());
+        finder.setPageRange (PageRange.parse ("5-"));
+        finder.setMaxMatches (3);
+        headings = finder.getTextList (document);
+        assertEquals (3, headings.size ());
+        assertEquals ("Section 6", headings.get (2).text);
+
+        assertNull (PageRange.parse ("3-1"));
+        assertNull (PageRange.parse ("0-4"));
+        assertNull (PageRange.parse ("a-"));
+    }
+
+    /**
+     * Test skipping pages without heading fonts in their resources
+     * Should only process pages with headings, unless an inventory of all
+     * fonts is needed
+     */
+    public void testPrefilter () throws Exception {
+        File file = new File (SamplePDF.createDirectory (), "sparse.pdf");
+        SamplePDF.create (file, 40, 10);
+        PDDocument sparse = PDDocument.load (file);
+        final int pages[] = { 0 };
+        PDFTextFinder finder = new PDFTextFinder (getHeadingFonts ()) {
+            protected void startPage (PDPage page) {
+                pages[0] ++;
+            }
+        };
+        List<PDFTextFinder.PDFText> headings = finder.getTextList (sparse);
+        assertEquals (5, headings.size ());
+        assertEquals ("Section 4", headings.get (4).text);
+        assertEquals (31, headings.get (4).pageNumber);
+        assertEquals (4, pages[0]);
+
+        pages[0] = 0;
+        finder.setInventory (new FontInventory ());
+        assertEquals (5, finder.getTextList (sparse).size ());
+        assertEquals (40, pages[0]);
+        sparse.close ();
+    }
+
+    /**
+     * Test font inventory
+     * Should count characters, fragments and page range of every font, while
+     * passing on only the matching text
+     */
+    public void testInventory () throws Exception {
+        FontInventory inventory = new FontInventory ();
+        PDFTextFinder finder = new PDFTextFinder (getHeadingFonts ());
+        finder.setInventory (inventory);
+        assertEquals (15, finder.getTextList (document).size ());
+
+        List<FontInventory.Entry> entries = inventory.getEntries ();
+        assertEquals (3, entries.size ());
+        FontInventory.Entry section = entries.get (0);
+        assertEquals ("Helvetica-Bold", section.font);
+        assertEquals (16.0f, section.size);
+        assertEquals (12, section.fragments);
+        assertEquals (9 * 9 + 3 * 10, section.characters);
+        assertEquals (1, section.firstPage);
+        assertEquals (12, section.lastPage);
+        FontInventory.Entry chapter = entries.get (1);
+        assertEquals (24.0f, chapter.size);
+        assertEquals (3, chapter.fragments);
+        assertEquals (9, chapter.lastPage);
+        assertEquals ("Times-Roman", entries.get (2).font);
+        assertEquals (12 * 20, entries.get (2).fragments);
+    }
+
+    /**
+     * Test text list without a font list
+     * Should contain all text in the document
+     */
+    public void testAllText () throws Exception {
+        PDFTextFinder finder = new PDFTextFinder (null);
+        List<PDFTextFinder.PDFText> text = finder.getTextList (document);
+        assertEquals (15 + 12 * 20, text.size ());
+    }
+
+    /**
+     * Test text drawn twice at almost the same position, as done for bold
+     * Should keep one copy of each character when the copies overlap within
+     * a third of the character width, and both copies otherwise
+     */
+    public void testOverprinted () throws Exception {
+        File file = new File (SamplePDF.createDirectory (), "overprinted.pdf");
+        SamplePDF.createOverprinted (file, new float[] { 0.0f, 0.5f, -0.5f, 6.0f });
+        PDDocument overprinted = PDDocument.load (file);
+        List<PDFTextFinder.PDFText> text = new PDFTextFinder (getHeadingFonts ()).getTextList (overprinted);
+        overprinted.close ();
+        assertEquals (4, text.size ());
+        assertEquals ("Heading 1", text.get (0).text);
+        assertEquals ("Heading 2", text.get (1).text);
+        assertEquals ("Heading 3", text.get (2).text);
+        assertEquals ("HHeeaaddiinngg44".length (), text.get (3).text.replace (" ", "").length ());
+    }
+
+    /**
+     * Test text found using multiple threads, with a memory budget for two
+     * copies of the document, and with a listener that fails
+     * Should find the same headings as a single finder, on failure throw the
+     * listener error once all threads have added to the inventory, and count
+     * the caller's copy against the memory budget
+     */
+    public void testParallel () throws Exception {
+        File file = new File (SamplePDF.createDirectory (), "large.pdf");
+        SamplePDF.create (file, 100);
+        PDDocument large = PDDocument.load (file);
+        List<PDFTextFinder.PDFText> expected = new PDFTextFinder (getHeadingFonts ()).getTextList (large);
+        large.close ();
+
+        final List<PDFTextFinder.PDFText> headings = new ArrayList<PDFTextFinder.PDFText> ();
+        PDFParallelTextFinder finder = new PDFParallelTextFinder (getHeadingFonts (), 4);
+        finder.setMemoryBudget (file.length () * 2);
+        finder.process (file, 100, new PDFTextFinder.Listener () {
+            public void onText (PDFTextFinder.PDFText text) {
+                headings.add (text);
+            }
+        });
+        assertEquals (expected.size (), headings.size ());
+        assertEquals (expected.get (expected.size () - 1).text, headings.get (headings.size () - 1).text);
+
+        FontInventory inventory = new FontInventory ();
+        finder = new PDFParallelTextFinder (getHeadingFonts (), 4);
+        finder.setInventory (inventory);
+        try {
+            finder.process (file, 100, new PDFTextFinder.Listener () {
+                public void onText (PDFTextFinder.PDFText text) throws IOException {
+                    throw new IOException ("Listener failed");
+                }
+            });
+            fail ("Listener error not thrown");
+        } catch (IOException e) {
+            assertEquals ("Listener failed", e.getMessage ());
+        }
+        int fragments = countFragments (inventory);
+        assertTrue (fragments > 0);
+        Thread.sleep (200);
+        assertEquals (fragments, countFragments (inventory));
+
+        assertEquals (4, PDFParallelTextFinder.getWorkerCount (4, 0, file.length ()));
+        assertEquals (4, PDFParallelTextFinder.getWorkerCount (4, file.length () * 8, file.length ()));
+        assertEquals (2, PDFParallelTextFinder.getWorkerCount (4, file.length () * 3, file.length ()));
+        assertEquals (1, PDFParallelTextFinder.getWorkerCount (4, file.length (), file.length ()));
+    }
+
+    /**
+     * Count the text fragments in a font inventory.
+     */
+    private static int countFragments (FontInventory inventory) {
+        int fragments = 0;
+        synchronized (inventory) {
+            for (FontInventory.Entry entry : inventory.getEntries ()) {
+                fragments += entry.fragments;
+            }
+        }
+        return (fragments);
+    }
+}
@@ -0,0 +1,241 @@
+package com.github.joemcintyre.pdffinish;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.*;
+import org.apache.pdfbox.pdmodel.common.PDMetadata;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Test support, generating PDF documents and files used by the tests.
+ */
+public class SamplePDF {
+    /**
+     * Create a PDF document with a chapter heading (Helvetica-Bold 24) every
+     * four pages, a section heading (Helvetica-Bold 16) on every page, and
+     * body text (Times-Roman 10).
+     *
+     * @param file File to write the document to.
+     * @param pages Number of pages.
+     * @throws Exception On error creating the document.
+     */
+    public static void create (File file, int pages) throws Exception {
+        create (file, pages, 1);
+    }
+
+    /**
+     * Create a PDF document with a section heading (Helvetica-Bold 16) every
+     * given number of pages, a chapter heading (Helvetica-Bold 24) every four
+     * sections, and body text (Times-Roman 10) on every page. Pages without
+     * headings only have the body text font in their resources.
+     *
+     * @param file File to write the document to.
+     * @param pages Number of pages.
+     * @param sectionPages Number of pages in each section.
+     * @throws Exception On error creating the document.
+     */
+    public static void create (File file, int pages, int sectionPages) throws Exception {
+        create (file, pages, sectionPages, null);
+    }
+
+    /**
+     * Create a PDF document with headings and body text, as above, and a
+     * running header (Helvetica-Bold 20) at the top of every page.
+     *
+     * @param file File to write the document to.
+     * @param pages Number of pages.
+     * @param sectionPages Number of pages in each section.
+     * @param header Header text, null for no header.
+     * @throws Exception On error creating the document.
+     */
+    public static void create (File file, int pages, int sectionPages, String header) throws Exception {
+        PDDocument document = new PDDocument ();
+        for (int index = 0; index < pages; index ++) {
+            PDPage page = new PDPage ();
+            document.addPage (page);
+
+            PDPageContentStream content = new PDPageContentStream (document, page);
+            if (header != null) {
+                content.beginText ();
+                content.setFont (PDType1Font.HELVETICA_BOLD, 20);
+                content.moveTextPositionByAmount (72, 760);
+                content.drawString (header);
+                content.endText ();
+            }
+            content.beginText ();
+            content.moveTextPositionByAmount (72, 720);
+            if ((index % (4 * sectionPages)) == 0) {
+                content.setFont (PDType1Font.HELVETICA_BOLD, 24);
+                content.drawString ("Chapter " + (index / (4 * sectionPages) + 1));
+                content.moveTextPositionByAmount (0, -30);
+            }
+            if ((index % sectionPages) == 0) {
+                content.setFont (PDType1Font.HELVETICA_BOLD, 16);
+                content.drawString ("Section " + (index / sectionPages + 1));
+            }
+            content.setFont (PDType1Font.TIMES_ROMAN, 10);
+            for (int line = 0; line < 20; line ++) {
+                content.moveTextPositionByAmount (0, -14);
+                content.drawString ("Body text line " + line + " of page " + (index + 1));
+            }
+            content.endText ();
+            content.close ();
+        }
+        document.save (file);
+        document.close ();
+    }
+
+    /**
+     * Create a PDF document where every page has the same uncompressed
+     * content stream, with a heading (Helvetica-Bold 16) and body text
+     * (Times-Roman 10), and uncompressed XMP metadata.
+     *
+     * @param file File to write the document to.
+     * @param pages Number of pages.
+     * @throws Exception On error creating the document.
+     */
+    public static void createDuplicates (File file, int pages) throws Exception {
+        PDDocument document = new PDDocument ();
+        for (int index = 0; index < pages; index ++) {
+            PDPage page = new PDPage ();
+            document.addPage (page);
+
+            PDPageContentStream content = new PDPageContentStream (document, page, false, false);
+            content.beginText ();
+            content.moveTextPositionByAmount (72, 720);
+            content.setFont (PDType1Font.HELVETICA_BOLD, 16);
+            content.drawString ("Repeated Page");
+            content.setFont (PDType1Font.TIMES_ROMAN, 10);
+            for (int line = 0; line < 40; line ++) {
+                content.moveTextPositionByAmount (0, -14);
+                content.drawString ("Body text line " + line + " of the repeated page");
+            }
+            content.endText ();
+            content.close ();
+        }
+        StringBuilder xmp = new StringBuilder ("<?xpacket begin=\"\" id=\"W5M0MpCehiHzreSzNTczkc9d\"?>\n");
+        xmp.append ("<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"></x:xmpmeta>\n");
+        for (int line = 0; line < 20; line ++) {
+            xmp.append ("                                                                \n");
+        }
+        xmp.append ("<?xpacket end=\"w\"?>");
+        document.getDocumentCatalog ().setMetadata (new PDMetadata (document,
+            new ByteArrayInputStream (xmp.toString ().getBytes ("UTF-8")), false));
+        document.save (file);
+        document.close ();
+    }
+
+    /**
+     * Create a single page PDF document with headings (Helvetica-Bold 16)
+     * drawn twice, the second time offset by the given amounts, as done to
+     * make text look bold.
+     *
+     * @param file File to write the document to.
+     * @param offsets Offset of the second drawing of each heading, in points.
+     * @throws Exception On error creating the document.
+     */
+    public static void createOverprinted (File file, float offsets[]) throws Exception {
+        PDDocument document = new PDDocument ();
+        PDPage page = new PDPage ();
+        document.addPage (page);
+        PDPageContentStream content = new PDPageContentStream (document, page);
+        for (int index = 0; index < offsets.length; index ++) {
+            for (int pass = 0; pass < 2; pass ++) {
+                float offset = (pass == 0) ? 0.0f : offsets[index];
+                content.beginText ();
+                content.setFont (PDType1Font.HELVETICA_BOLD, 16);
+                content.moveTextPositionByAmount (72 + offset, 720 - index * 40 + offset);
+                content.drawString ("Heading " + (index + 1));
+                content.endText ();
+            }
+        }
+        content.close ();
+        document.save (file);
+        document.close ();
+    }
+
+    /**
+     * Create a one page document, written directly, with an information
+     * dictionary reference to an object that is not a dictionary.
+     *
+     * @param file File to write.
+     * @throws IOException On error writing the file.
+     */
+    public static void createBadInfo (File file) throws IOException {
+        String objects[] = {
+            "<< /Type /Catalog /Pages 2 0 R >>",
+            "<< /Type /Pages /Kids [4 0 R] /Count 1 >>",
+            "42",
+            "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] >>"
+        };
+        StringBuilder content = new StringBuilder ("%PDF-1.4\n");
+        int offsets[] = new int[objects.length];
+        for (int index = 0; index < objects.length; index ++) {
+            offsets[index] = content.length ();
+            content.append ((index + 1) + " 0 obj\n" + objects[index] + "\nendobj\n");
+        }
+        int xref = content.length ();
+        content.append ("xref\n0 " + (objects.length + 1) + "\n0000000000 65535 f \n");
+        for (int index = 0; index < objects.length; index ++) {
+            content.append (String.format ("%010d 00000 n \n", offsets[index]));
+        }
+        content.append ("trailer\n<< /Size " + (objects.length + 1) + " /Root 1 0 R /Info 3 0 R >>\n");
+        content.append ("startxref\n" + xref + "\n%%EOF\n");
+        FileOutputStream fos = new FileOutputStream (file);
+        fos.write (content.toString ().getBytes ("ISO-8859-1"));
+        fos.close ();
+    }
+
+    /**
+     * Write a text file.
+     *
+     * @param file File to write.
+     * @param content File content.
+     * @throws IOException On error writing the file.
+     */
+    public static void write (File file, String content) throws IOException {
+        FileOutputStream fos = new FileOutputStream (file);
+        fos.write (content.getBytes ("UTF-8"));
+        fos.close ();
+    }
+
+    /**
+     * Create an empty temporary directory.
+     *
+     * @return Directory.
+     * @throws IOException On error creating the directory.
+     */
+    public static File createDirectory () throws IOException {
+        File dir = File.createTempFile ("pdffinish", "");
+        dir.delete ();
+        dir.mkdirs ();
+        dir.deleteOnExit ();
+        return (dir);
+    }
+
+    /**
+     * Create the document and configuration used for the training runs of the
+     * class data sharing archive, see the startup profile of the build.
+     *
+     * @param args Directory to write training.pdf and training.json to.
+     * @throws Exception On error creating the files.
+     */
+    public static void main (String args[]) throws Exception {
+        File dir = new File (args[0]);
+        dir.mkdirs ();
+        create (new File (dir, "training.pdf"), 40, 2);
+        write (new File (dir, "training.json"), CONFIG);
+    }
+
+    /**
+     * Configuration using the heading fonts in generated documents.
+     */
+    public static final String CONFIG =
+        "{ \"title\":\"Test\", \"author\":\"Tester\", \"toc\":[" +
+        "{ \"font\":\"Helvetica-Bold\", \"size\":24.0, \"level\":1 }," +
+        "{ \"font\":\"Helvetica-Bold\", \"size\":16.0, \"level\":2 } ] }";
+}